@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import android.util.SparseLongArray;
+
+import com.google.android.gms.wearable.DataMap;
+import com.intuit.gopayment.android.event.GoPaymentDataEvent;
+
+import java.util.Calendar;
+
+/**
+ * Running aggregates of one day's sales: total, number of sales, per-hour totals, per-employee
+ * and per-location totals and the top-selling items, in a {@link TopItemsSketch}. Each sale
+ * updates them in constant time, so the day is never recomputed from its transactions, and
+ * {@link #add} reports which of the values pushed to the watch changed.
+ * <p>
+ * Amounts are kept in cents of the store's currency, sales in other currencies being converted
+ * when recorded. A sale in a currency without a rate yet only counts towards the top items, until
+ * it's converted and the day's aggregates are {@link #replace replaced}, so the watch never
+ * converts anything. The watch is sent whole currency units, matching the int
+ * {@link DigitalWatchFaceCompanionUtil#KEY_DAILY_TOTAL} it already displays. Sales without an
+ * employee or location ({@link DigitalWatchFaceCompanionUtil#NO_ID}) only count towards the
+ * day's totals.
+ * <p>
+ * The day's total is also kept as this phone's slot of a PN-counter, so a watch paired with
+ * several phones can merge their totals: sales only ever add to the increments and refunds, voids
+ * and corrections downwards only ever add to the decrements.
+ * <p>
+ * Not thread-safe.
+ */
+final class DailyAggregates {
+    private static final int HOURS_PER_DAY = 24;
+
+    private static final String KEY_DAY = "DAY";
+    private static final String KEY_TOTAL_CENTS = "TOTAL_CENTS";
+    private static final String KEY_COUNT = "COUNT";
+    private static final String KEY_HOUR_TOTALS_CENTS = "HOUR_TOTALS_CENTS";
+    private static final String KEY_INCREMENTS_CENTS = "INCREMENTS_CENTS";
+    private static final String KEY_DECREMENTS_CENTS = "DECREMENTS_CENTS";
+    private static final String KEY_EMPLOYEE_IDS = "EMPLOYEE_IDS";
+    private static final String KEY_EMPLOYEE_TOTALS_CENTS = "EMPLOYEE_TOTALS_CENTS";
+    private static final String KEY_LOCATION_IDS = "LOCATION_IDS";
+    private static final String KEY_LOCATION_TOTALS_CENTS = "LOCATION_TOTALS_CENTS";
+    private static final String KEY_ITEM_COUNTERS = "ITEM_COUNTERS";
+    private static final String KEY_ITEM_CANDIDATES = "ITEM_CANDIDATES";
+
+    private String mDayKey;
+    private long mTotalCents;
+    private int mCount;
+    private long mIncrementsCents;
+    private long mDecrementsCents;
+    private final long[] mHourTotalsCents = new long[HOURS_PER_DAY];
+    private final SparseLongArray mEmployeeTotalsCents = new SparseLongArray();
+    private final SparseLongArray mLocationTotalsCents = new SparseLongArray();
+    private final TopItemsSketch mItems = new TopItemsSketch();
+
+    DailyAggregates(long nowMs) {
+        mDayKey = DigitalWatchFaceCompanionUtil.formatDayKey(nowMs);
+    }
+
+    /**
+     * Adds a sale of {@code amountCents} made at {@code timeMs} by {@code employeeId} at
+     * {@code locationId}, with the SKUs of its line items if known. {@code storeAmountCents} is
+     * its amount converted into the store's currency, or
+     * {@link GoPaymentDataEvent#NO_STORE_AMOUNT} if there's no rate for it yet. A sale from a
+     * later day than the current one starts a new day; one from an earlier day is ignored. Only
+     * sales, not refunds or voids (amounts of 0 or less), count towards the number of sales and
+     * the top items.
+     *
+     * @return the watch keys whose values changed, with their new values; empty if the sale was
+     *     ignored
+     */
+    DataMap add(long amountCents, long storeAmountCents, long timeMs, int employeeId,
+            int locationId, String[] skus) {
+        DataMap changed = new DataMap();
+        String dayKey = DigitalWatchFaceCompanionUtil.formatDayKey(timeMs);
+        int dayOrder = dayKey.compareTo(mDayKey);
+        if (dayOrder < 0) {
+            return changed;
+        }
+        if (dayOrder > 0) {
+            reset(dayKey, changed);
+        }
+
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(timeMs);
+        int hour = calendar.get(Calendar.HOUR_OF_DAY);
+
+        int oldTotal = toUnits(mTotalCents);
+        int oldHourTotal = toUnits(mHourTotalsCents[hour]);
+        boolean sale = amountCents > 0;
+        boolean converted = storeAmountCents != GoPaymentDataEvent.NO_STORE_AMOUNT;
+        // Until it's converted, the sale is left out of every total in the store's currency.
+        long totalDeltaCents = converted ? storeAmountCents : 0;
+        mTotalCents += totalDeltaCents;
+        mHourTotalsCents[hour] += totalDeltaCents;
+        boolean counted = totalDeltaCents > 0;
+        if (counted) {
+            mCount++;
+        }
+        if (totalDeltaCents != 0 || dayOrder > 0) {
+            changed.putLongArray(DigitalWatchFaceCompanionUtil.KEY_REGISTER_COUNTER,
+                    countTowards(totalDeltaCents));
+        }
+
+        if (dayOrder > 0 || toUnits(mTotalCents) != oldTotal) {
+            changed.putInt(DigitalWatchFaceCompanionUtil.KEY_DAILY_TOTAL, toUnits(mTotalCents));
+        }
+        if (dayOrder > 0) {
+            // Clear the previous day's hours on the watch as well.
+            for (int i = 0; i < HOURS_PER_DAY; i++) {
+                changed.putInt(DigitalWatchFaceCompanionUtil.getHourTotalKey(i),
+                        toUnits(mHourTotalsCents[i]));
+            }
+        } else if (toUnits(mHourTotalsCents[hour]) != oldHourTotal) {
+            changed.putInt(DigitalWatchFaceCompanionUtil.getHourTotalKey(hour),
+                    toUnits(mHourTotalsCents[hour]));
+        }
+        if (counted || dayOrder > 0) {
+            changed.putInt(DigitalWatchFaceCompanionUtil.KEY_DAILY_COUNT, mCount);
+        }
+        if (converted && employeeId != DigitalWatchFaceCompanionUtil.NO_ID) {
+            addTo(mEmployeeTotalsCents, employeeId, storeAmountCents, changed,
+                    DigitalWatchFaceCompanionUtil.getEmployeeTotalKey(employeeId));
+        }
+        if (converted && locationId != DigitalWatchFaceCompanionUtil.NO_ID) {
+            addTo(mLocationTotalsCents, locationId, storeAmountCents, changed,
+                    DigitalWatchFaceCompanionUtil.getLocationTotalKey(locationId));
+        }
+        if (skus != null && sale) {
+            boolean itemsChanged = false;
+            for (String sku : skus) {
+                itemsChanged |= mItems.add(sku);
+            }
+            if (itemsChanged) {
+                putTopItems(changed);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Replaces the aggregates with the given ones for {@code dayKey}, e.g. after its rollups were
+     * rebuilt.
+     *
+     * @return the watch keys whose values changed, with their new values
+     */
+    DataMap replace(String dayKey, long totalCents, int count, long[] hourTotalsCents,
+            SparseLongArray employeeTotalsCents, SparseLongArray locationTotalsCents) {
+        DataMap changed = new DataMap();
+        boolean newDay = !dayKey.equals(mDayKey);
+        if (newDay || toUnits(totalCents) != toUnits(mTotalCents)) {
+            changed.putInt(DigitalWatchFaceCompanionUtil.KEY_DAILY_TOTAL, toUnits(totalCents));
+        }
+        if (newDay || count != mCount) {
+            changed.putInt(DigitalWatchFaceCompanionUtil.KEY_DAILY_COUNT, count);
+        }
+        for (int i = 0; i < HOURS_PER_DAY; i++) {
+            if (newDay || toUnits(hourTotalsCents[i]) != toUnits(mHourTotalsCents[i])) {
+                changed.putInt(DigitalWatchFaceCompanionUtil.getHourTotalKey(i),
+                        toUnits(hourTotalsCents[i]));
+            }
+        }
+        replaceAll(mEmployeeTotalsCents, employeeTotalsCents, newDay, changed,
+                DigitalWatchFaceCompanionUtil.KEY_EMPLOYEE_TOTAL_PREFIX);
+        replaceAll(mLocationTotalsCents, locationTotalsCents, newDay, changed,
+                DigitalWatchFaceCompanionUtil.KEY_LOCATION_TOTAL_PREFIX);
+        mDayKey = dayKey;
+        mTotalCents = totalCents;
+        mCount = count;
+        System.arraycopy(hourTotalsCents, 0, mHourTotalsCents, 0, HOURS_PER_DAY);
+        if (newDay) {
+            mIncrementsCents = 0;
+            mDecrementsCents = 0;
+            // Rollups don't keep line items; the new day's are counted from its next sales.
+            mItems.clear();
+            putTopItems(changed);
+        }
+        // Only count the difference, so neither side of the counter ever shrinks.
+        long deltaCents = totalCents - (mIncrementsCents - mDecrementsCents);
+        if (newDay || deltaCents != 0) {
+            changed.putLongArray(DigitalWatchFaceCompanionUtil.KEY_REGISTER_COUNTER,
+                    countTowards(deltaCents));
+        }
+        return changed;
+    }
+
+    String getDayKey() {
+        return mDayKey;
+    }
+
+    long getTotalCents() {
+        return mTotalCents;
+    }
+
+    int getCount() {
+        return mCount;
+    }
+
+    /** Returns this phone's slot of the store-wide counter: {day, increments, decrements}. */
+    long[] getRegisterCounter() {
+        return new long[] {getDayNumber(mDayKey), mIncrementsCents, mDecrementsCents};
+    }
+
+    long getHourTotalCents(int hourOfDay) {
+        return mHourTotalsCents[hourOfDay];
+    }
+
+    long getEmployeeTotalCents(int employeeId) {
+        return mEmployeeTotalsCents.get(employeeId);
+    }
+
+    long getLocationTotalCents(int locationId) {
+        return mLocationTotalsCents.get(locationId);
+    }
+
+    /** Returns the aggregates as a {@link DataMap}, for persisting them. */
+    DataMap toDataMap() {
+        DataMap dataMap = new DataMap();
+        dataMap.putString(KEY_DAY, mDayKey);
+        dataMap.putLong(KEY_TOTAL_CENTS, mTotalCents);
+        dataMap.putInt(KEY_COUNT, mCount);
+        dataMap.putLongArray(KEY_HOUR_TOTALS_CENTS, mHourTotalsCents);
+        dataMap.putLong(KEY_INCREMENTS_CENTS, mIncrementsCents);
+        dataMap.putLong(KEY_DECREMENTS_CENTS, mDecrementsCents);
+        putTotals(dataMap, KEY_EMPLOYEE_IDS, KEY_EMPLOYEE_TOTALS_CENTS, mEmployeeTotalsCents);
+        putTotals(dataMap, KEY_LOCATION_IDS, KEY_LOCATION_TOTALS_CENTS, mLocationTotalsCents);
+        dataMap.putLongArray(KEY_ITEM_COUNTERS, mItems.getCounters());
+        dataMap.putStringArray(KEY_ITEM_CANDIDATES,
+                mItems.getTopSkus(TopItemsSketch.CANDIDATES));
+        return dataMap;
+    }
+
+    /** Restores aggregates saved by {@link #toDataMap}. */
+    void readFrom(DataMap dataMap) {
+        long[] hourTotalsCents = dataMap.getLongArray(KEY_HOUR_TOTALS_CENTS);
+        if (dataMap.getString(KEY_DAY) == null || hourTotalsCents == null
+                || hourTotalsCents.length != HOURS_PER_DAY) {
+            return;
+        }
+        mDayKey = dataMap.getString(KEY_DAY);
+        mTotalCents = dataMap.getLong(KEY_TOTAL_CENTS);
+        mCount = dataMap.getInt(KEY_COUNT);
+        System.arraycopy(hourTotalsCents, 0, mHourTotalsCents, 0, HOURS_PER_DAY);
+        if (dataMap.containsKey(KEY_INCREMENTS_CENTS)) {
+            mIncrementsCents = dataMap.getLong(KEY_INCREMENTS_CENTS);
+            mDecrementsCents = dataMap.getLong(KEY_DECREMENTS_CENTS);
+        } else {
+            // Saved before the counter was kept.
+            mIncrementsCents = Math.max(mTotalCents, 0);
+            mDecrementsCents = Math.max(-mTotalCents, 0);
+        }
+        readTotals(dataMap, KEY_EMPLOYEE_IDS, KEY_EMPLOYEE_TOTALS_CENTS, mEmployeeTotalsCents);
+        readTotals(dataMap, KEY_LOCATION_IDS, KEY_LOCATION_TOTALS_CENTS, mLocationTotalsCents);
+        // Saved before top items were kept if missing, leaving the sketch empty.
+        mItems.restore(dataMap.getLongArray(KEY_ITEM_COUNTERS),
+                dataMap.getStringArray(KEY_ITEM_CANDIDATES));
+    }
+
+    /** Starts {@code dayKey}, zeroing the previous day's employee and location totals. */
+    private void reset(String dayKey, DataMap changed) {
+        mDayKey = dayKey;
+        mTotalCents = 0;
+        mCount = 0;
+        mIncrementsCents = 0;
+        mDecrementsCents = 0;
+        for (int i = 0; i < HOURS_PER_DAY; i++) {
+            mHourTotalsCents[i] = 0;
+        }
+        clearAll(mEmployeeTotalsCents, changed,
+                DigitalWatchFaceCompanionUtil.KEY_EMPLOYEE_TOTAL_PREFIX);
+        clearAll(mLocationTotalsCents, changed,
+                DigitalWatchFaceCompanionUtil.KEY_LOCATION_TOTAL_PREFIX);
+        // The finished day's top items stay in its last checkpoint; start the new day afresh.
+        mItems.clear();
+        putTopItems(changed);
+    }
+
+    /** Records the current top items, as sent to the watch, in {@code changed}. */
+    private void putTopItems(DataMap changed) {
+        changed.putStringArray(DigitalWatchFaceCompanionUtil.KEY_TOP_ITEMS,
+                mItems.getTopSkus(DigitalWatchFaceCompanionUtil.TOP_ITEM_COUNT));
+        changed.putLongArray(DigitalWatchFaceCompanionUtil.KEY_TOP_ITEM_COUNTS,
+                mItems.getTopCounts(DigitalWatchFaceCompanionUtil.TOP_ITEM_COUNT));
+    }
+
+    /**
+     * Counts {@code deltaCents} towards the increments if positive or the decrements if
+     * negative, and returns the counter as sent to the watch.
+     */
+    private long[] countTowards(long deltaCents) {
+        if (deltaCents > 0) {
+            mIncrementsCents += deltaCents;
+        } else {
+            mDecrementsCents -= deltaCents;
+        }
+        return getRegisterCounter();
+    }
+
+    /** Returns the {@link DigitalWatchFaceCompanionUtil#getDayNumber} of {@code dayKey}. */
+    private static int getDayNumber(String dayKey) {
+        return Integer.parseInt(dayKey.replace("-", ""));
+    }
+
+    private static void addTo(SparseLongArray totalsCents, int id, long amountCents,
+            DataMap changed, String key) {
+        long oldTotalCents = totalsCents.get(id);
+        long newTotalCents = oldTotalCents + amountCents;
+        totalsCents.put(id, newTotalCents);
+        if (toUnits(newTotalCents) != toUnits(oldTotalCents) || oldTotalCents == 0) {
+            changed.putInt(key, toUnits(newTotalCents));
+        }
+    }
+
+    private static void clearAll(SparseLongArray totalsCents, DataMap changed, String prefix) {
+        for (int i = 0; i < totalsCents.size(); i++) {
+            changed.putInt(prefix + totalsCents.keyAt(i), 0);
+        }
+        totalsCents.clear();
+    }
+
+    /**
+     * Replaces {@code totalsCents} with {@code newTotalsCents}, recording the ids whose whole
+     * units changed, or all of them on a new day. Ids missing from the new totals drop to 0.
+     */
+    private static void replaceAll(SparseLongArray totalsCents, SparseLongArray newTotalsCents,
+            boolean newDay, DataMap changed, String prefix) {
+        for (int i = 0; i < totalsCents.size(); i++) {
+            int id = totalsCents.keyAt(i);
+            if (newTotalsCents.indexOfKey(id) < 0) {
+                changed.putInt(prefix + id, 0);
+            }
+        }
+        for (int i = 0; i < newTotalsCents.size(); i++) {
+            int id = newTotalsCents.keyAt(i);
+            long newTotalCents = newTotalsCents.valueAt(i);
+            if (newDay || totalsCents.indexOfKey(id) < 0
+                    || toUnits(newTotalCents) != toUnits(totalsCents.get(id))) {
+                changed.putInt(prefix + id, toUnits(newTotalCents));
+            }
+        }
+        totalsCents.clear();
+        for (int i = 0; i < newTotalsCents.size(); i++) {
+            totalsCents.put(newTotalsCents.keyAt(i), newTotalsCents.valueAt(i));
+        }
+    }
+
+    private static void putTotals(DataMap dataMap, String idsKey, String totalsKey,
+            SparseLongArray totalsCents) {
+        int size = totalsCents.size();
+        long[] ids = new long[size];
+        long[] totals = new long[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = totalsCents.keyAt(i);
+            totals[i] = totalsCents.valueAt(i);
+        }
+        dataMap.putLongArray(idsKey, ids);
+        dataMap.putLongArray(totalsKey, totals);
+    }
+
+    private static void readTotals(DataMap dataMap, String idsKey, String totalsKey,
+            SparseLongArray totalsCents) {
+        totalsCents.clear();
+        long[] ids = dataMap.getLongArray(idsKey);
+        long[] totals = dataMap.getLongArray(totalsKey);
+        if (ids == null || totals == null || ids.length != totals.length) {
+            // Saved before employee and location totals were kept.
+            return;
+        }
+        for (int i = 0; i < ids.length; i++) {
+            totalsCents.put((int) ids[i], totals[i]);
+        }
+    }
+
+    private static int toUnits(long cents) {
+        return (int) (cents / 100);
+    }
+}
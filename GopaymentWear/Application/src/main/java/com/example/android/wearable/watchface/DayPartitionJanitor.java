@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import android.net.Uri;
+import android.util.Log;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataItemBuffer;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes the {@link DigitalWatchFaceCompanionUtil#PATH_TOTALS} day partitions that are older
+ * than {@link #RETENTION_DAYS}, so the Wearable data store and the items synced to the watches
+ * stay small over months of use.
+ */
+final class DayPartitionJanitor {
+    private static final String TAG = "DayPartitionJanitor";
+
+    /** Number of days, including today, whose partitions are kept. */
+    static final int RETENTION_DAYS = 62;
+
+    /**
+     * Deletes expired partitions. Blocks, so must not be called on the main thread, and
+     * {@code googleApiClient} must be connected.
+     *
+     * @return the number of partitions deleted
+     */
+    int deleteExpiredPartitions(GoogleApiClient googleApiClient, long nowMs) {
+        String oldestKeptDayKey = DigitalWatchFaceCompanionUtil.formatDayKey(
+                nowMs - TimeUnit.DAYS.toMillis(RETENTION_DAYS - 1));
+        String prefix = DigitalWatchFaceCompanionUtil.PATH_TOTALS + "/";
+
+        // This runs once a day, so listing every item is cheaper than tracking what to delete.
+        List<Uri> expired = new ArrayList<Uri>();
+        DataItemBuffer dataItems = Wearable.DataApi.getDataItems(googleApiClient).await();
+        try {
+            for (DataItem dataItem : dataItems) {
+                String path = dataItem.getUri().getPath();
+                // Day keys sort chronologically, so a string comparison finds the old ones.
+                if (path.startsWith(prefix)
+                        && path.substring(prefix.length()).compareTo(oldestKeptDayKey) < 0) {
+                    expired.add(dataItem.getUri());
+                }
+            }
+        } finally {
+            dataItems.release();
+        }
+
+        int deleted = 0;
+        for (Uri uri : expired) {
+            DataApi.DeleteDataItemsResult result =
+                    Wearable.DataApi.deleteDataItems(googleApiClient, uri).await();
+            if (result.getStatus().isSuccess()) {
+                deleted += result.getNumDeleted();
+            } else {
+                Log.w(TAG, "Failed to delete " + uri + ": " + result.getStatus());
+            }
+        }
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Deleted " + deleted + " partitions older than " + oldestKeptDayKey);
+        }
+        return deleted;
+    }
+}
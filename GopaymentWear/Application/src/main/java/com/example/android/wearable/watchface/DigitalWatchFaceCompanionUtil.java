@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import java.util.Calendar;
+import java.util.Currency;
+import java.util.Locale;
+
+/**
+ * Phone-side copies of the paths and keys the watch's {@code DigitalWatchFaceUtil} defines for
+ * talking to {@code DigitalWatchFaceService}.
+ */
+public final class DigitalWatchFaceCompanionUtil {
+    // TODO: use the shared constants (needs covering all the samples with Gradle build model)
+
+    /** The path of the watch face config {@code DataItem} and of config update messages. */
+    public static final String PATH_WITH_FEATURE = "/watch_face_config/Digital";
+
+    /** The path of the fire-and-forget messages carrying live data such as the daily total. */
+    public static final String PATH_LIVE_DATA = "/gopayment/live";
+
+    /** The path of the messages in which each watch acknowledges a {@link #KEY_SEQUENCE}. */
+    public static final String PATH_LIVE_DATA_ACK = "/gopayment/live_ack";
+
+    /**
+     * The parent path of the per-day {@code DataItem}s, such as
+     * {@code /gopayment/totals/2026-10-16}, periodically checkpointing that day's live data.
+     */
+    public static final String PATH_TOTALS = "/gopayment/totals";
+
+    /** The path of the {@code DataItem} in which each watch publishes its watch state. */
+    public static final String PATH_WATCH_STATE = "/gopayment/watch_state";
+
+    public static final String KEY_WATCH_STATE = "WATCH_STATE";
+    public static final String KEY_DAILY_TOTAL = "DAILY_TOTAL";
+    /** The number of sales the phone took today, refunds and voids excluded. */
+    public static final String KEY_DAILY_COUNT = "DAILY_COUNT";
+    public static final String KEY_WEEK_TOTAL = "WEEK_TOTAL";
+    public static final String KEY_MONTH_TOTAL = "MONTH_TOTAL";
+
+    /**
+     * Prefix of the per-hour totals, e.g. {@code HOUR_TOTAL_13} for sales between 13:00 and
+     * 14:00; see {@link #getHourTotalKey}.
+     */
+    public static final String KEY_HOUR_TOTAL_PREFIX = "HOUR_TOTAL_";
+
+    /**
+     * Prefix of the totals of past days that changed after the fact, e.g.
+     * {@code DAY_TOTAL_2026-10-16}; see {@link #getDayTotalKey}.
+     */
+    public static final String KEY_DAY_TOTAL_PREFIX = "DAY_TOTAL_";
+
+    /** Phone time, in milliseconds, at which the live data or checkpoint values were current. */
+    public static final String KEY_DATA_TIME = "DATA_TIME";
+
+    /** The local day, formatted by {@link #formatDayKey}, that a partition holds. */
+    public static final String KEY_DAY = "DAY";
+
+    /** Sequence number of a live data message, echoed back on {@link #PATH_LIVE_DATA_ACK}. */
+    public static final String KEY_SEQUENCE = "SEQUENCE";
+
+    /**
+     * The id of the employee wearing a watch, or {@link #NO_ID}, published with its
+     * {@link #KEY_WATCH_STATE watch state}. Only that employee's total is sent to the watch.
+     */
+    public static final String KEY_EMPLOYEE_ID = "EMPLOYEE_ID";
+
+    /**
+     * The id of the store location a watch is used at, or {@link #NO_ID}, published like
+     * {@link #KEY_EMPLOYEE_ID}.
+     */
+    public static final String KEY_LOCATION_ID = "LOCATION_ID";
+
+    /** Employee or location id meaning none is set. */
+    public static final int NO_ID = 0;
+
+    /** Prefix of the per-employee totals, e.g. {@code EMPLOYEE_TOTAL_42}. */
+    public static final String KEY_EMPLOYEE_TOTAL_PREFIX = "EMPLOYEE_TOTAL_";
+
+    /** Prefix of the per-location totals, e.g. {@code LOCATION_TOTAL_3}. */
+    public static final String KEY_LOCATION_TOTAL_PREFIX = "LOCATION_TOTAL_";
+
+    /**
+     * This phone's slot of the store-wide PN-counter the watch merges across phones: a long array
+     * of the {@link #getDayNumber day}, the cents added that day by sales and the cents taken
+     * away by refunds and voids, in the {@link #getStoreCurrency store's currency}. Both amounts
+     * only ever grow during a day.
+     */
+    public static final String KEY_REGISTER_COUNTER = "REGISTER_COUNTER";
+
+    /**
+     * The store-wide counter merged by the store aggregator from every phone's
+     * {@link #KEY_REGISTER_COUNTER}: a long array of the day, the increments and decrements in
+     * cents, and the number of phones merged.
+     */
+    public static final String KEY_STORE_COUNTER = "STORE_COUNTER";
+
+    /**
+     * The day's best-selling items on this phone: a string array of up to
+     * {@link #TOP_ITEM_COUNT} SKUs, best first, with their estimated units sold in the long array
+     * {@link #KEY_TOP_ITEM_COUNTS}.
+     */
+    public static final String KEY_TOP_ITEMS = "TOP_ITEMS";
+    public static final String KEY_TOP_ITEM_COUNTS = "TOP_ITEM_COUNTS";
+    public static final int TOP_ITEM_COUNT = 3;
+
+    /**
+     * Exchange rates are the value of one unit of a currency in the store's currency, in
+     * millionths. Totals sent to the watch are all converted on the phone, leaving out sales
+     * without a rate yet, so the watch never converts anything.
+     */
+    public static final long FX_RATE_SCALE = 1000000;
+
+    /** The store's currency if the phone's locale doesn't have one. */
+    private static final String DEFAULT_STORE_CURRENCY = "USD";
+
+    /** The face is visible and interactive, so updates show up immediately. */
+    public static final int WATCH_STATE_LIVE = 0;
+
+    /** The face is visible but ambient or muted, so it only redraws once a minute. */
+    public static final int WATCH_STATE_MINUTE = 1;
+
+    /** The face isn't visible; it fetches the latest config when it becomes visible again. */
+    public static final int WATCH_STATE_HIDDEN = 2;
+
+    /**
+     * Returns the key of the local day containing {@code timeMs}, e.g. {@code 2026-10-16}. Keys
+     * sort in chronological order.
+     */
+    public static String formatDayKey(long timeMs) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(timeMs);
+        return String.format(Locale.US, "%04d-%02d-%02d", calendar.get(Calendar.YEAR),
+                calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.DAY_OF_MONTH));
+    }
+
+    /** Returns the local day containing {@code timeMs} as a number, e.g. {@code 20261016}. */
+    public static int getDayNumber(long timeMs) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(timeMs);
+        return calendar.get(Calendar.YEAR) * 10000 + (calendar.get(Calendar.MONTH) + 1) * 100
+                + calendar.get(Calendar.DAY_OF_MONTH);
+    }
+
+    /** Returns the ISO 4217 code of the store's currency, that of the phone's locale. */
+    public static String getStoreCurrency() {
+        try {
+            return Currency.getInstance(Locale.getDefault()).getCurrencyCode();
+        } catch (IllegalArgumentException e) {
+            // A locale without a country.
+            return DEFAULT_STORE_CURRENCY;
+        }
+    }
+
+    /**
+     * Converts {@code amount} hundredths of a currency worth {@code rate} millionths
+     * ({@link #FX_RATE_SCALE}) of the store's currency into hundredths of the store's currency,
+     * rounding towards zero.
+     */
+    public static long convertCents(long amount, long rate) {
+        // Split so neither product can overflow for any realistic amount and rate.
+        return amount / FX_RATE_SCALE * rate + amount % FX_RATE_SCALE * rate / FX_RATE_SCALE;
+    }
+
+    /** Returns the path of the {@link #PATH_TOTALS} partition for {@code dayKey}. */
+    public static String getDayPartitionPath(String dayKey) {
+        return PATH_TOTALS + "/" + dayKey;
+    }
+
+    /** Returns the key of the total for {@code hourOfDay}, from 0 to 23. */
+    public static String getHourTotalKey(int hourOfDay) {
+        return KEY_HOUR_TOTAL_PREFIX + hourOfDay;
+    }
+
+    /** Returns the key of the total of the day {@code dayKey}. */
+    public static String getDayTotalKey(String dayKey) {
+        return KEY_DAY_TOTAL_PREFIX + dayKey;
+    }
+
+    /** Returns the key of the day's total for {@code employeeId}. */
+    public static String getEmployeeTotalKey(int employeeId) {
+        return KEY_EMPLOYEE_TOTAL_PREFIX + employeeId;
+    }
+
+    /** Returns the key of the day's total for {@code locationId}. */
+    public static String getLocationTotalKey(int locationId) {
+        return KEY_LOCATION_TOTAL_PREFIX + locationId;
+    }
+
+    private DigitalWatchFaceCompanionUtil() { }
+}
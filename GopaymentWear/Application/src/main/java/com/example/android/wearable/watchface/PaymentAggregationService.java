@@ -0,0 +1,700 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Process;
+import android.support.v4.content.LocalBroadcastManager;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.google.android.gms.wearable.DataMap;
+import com.intuit.gopayment.android.event.GoPaymentDataEvent;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A long-lived service keeping the running {@link DailyAggregates} of the day's payments and
+ * pushing the aggregates that changed to the watch face through {@link WatchUpdateSender}.
+ * <p>
+ * Payments are read from a {@link TransactionSource}: the {@link TransactionDatabase} that
+ * {@link #recordPayment} appends to or, for development and load testing, a
+ * {@link SyntheticTransactionSource} started with {@link #setSyntheticSalesRate}. The service
+ * keeps the id of the last payment it aggregated as a cursor and only reads the payments after
+ * it, in batches. The aggregates and the cursor are saved after every batch, so a restarted
+ * service catches up from where it stopped instead of recomputing the day. Every change is also
+ * broadcast locally as {@link GoPaymentDataEvent#DAILY_TOTAL_UPDATED}.
+ * <p>
+ * Week and month totals are read from the database's day rollups after each batch.
+ * <p>
+ * Past payments added with {@link #importPayments} or changed with {@link #correctPayment}, and
+ * payments only converted into the store's currency once {@link #setFxRates} gives a rate for
+ * theirs, don't go through the cursor. Instead, a {@link RollupRebuilder} recomputes the rollups
+ * of their days on a separate thread, so live payments keep being pushed meanwhile. Then only the
+ * day totals that changed are pushed.
+ * <p>
+ * In stores with several phones, each can also report to a store aggregator set with
+ * {@link #setStoreAggregator}, which pushes back the merged store-wide counter for the watch.
+ */
+public class PaymentAggregationService extends Service {
+    private static final String TAG = "PaymentAggregation";
+
+    private static final String ACTION_RECORD_PAYMENT =
+            "com.example.android.wearable.watchface.action.RECORD_PAYMENT";
+    private static final String ACTION_SET_SYNTHETIC_SALES_RATE =
+            "com.example.android.wearable.watchface.action.SET_SYNTHETIC_SALES_RATE";
+    private static final String EXTRA_AMOUNT_CENTS = "amount_cents";
+    private static final String EXTRA_TIME = "time";
+    private static final String EXTRA_EMPLOYEE_ID = "employee_id";
+    private static final String EXTRA_LOCATION_ID = "location_id";
+    private static final String EXTRA_SKUS = "skus";
+    private static final String EXTRA_CURRENCY = "currency";
+    private static final String ACTION_SET_FX_RATES =
+            "com.example.android.wearable.watchface.action.SET_FX_RATES";
+    private static final String EXTRA_CURRENCIES = "currencies";
+    private static final String EXTRA_RATES = "rates";
+    private static final String ACTION_IMPORT_PAYMENTS =
+            "com.example.android.wearable.watchface.action.IMPORT_PAYMENTS";
+    private static final String ACTION_CORRECT_PAYMENT =
+            "com.example.android.wearable.watchface.action.CORRECT_PAYMENT";
+    private static final String EXTRA_SALES_PER_MINUTE = "sales_per_minute";
+    private static final String EXTRA_TIMES = "times";
+    private static final String EXTRA_AMOUNTS_CENTS = "amounts_cents";
+    private static final String EXTRA_EMPLOYEE_IDS = "employee_ids";
+    private static final String EXTRA_LOCATION_IDS = "location_ids";
+    private static final String EXTRA_ID = "id";
+    private static final String ACTION_SET_STORE_AGGREGATOR =
+            "com.example.android.wearable.watchface.action.SET_STORE_AGGREGATOR";
+    private static final String EXTRA_HOST = "host";
+    private static final String EXTRA_PORT = "port";
+
+    private static final String STATE_FILE_NAME = "daily_aggregates";
+
+    /**
+     * Id of the last payment included in the saved aggregates. Renamed from {@code CURSOR}, which
+     * pointed into the earlier file log, so the database starts with a fresh cursor.
+     */
+    private static final String KEY_CURSOR = "DB_CURSOR";
+
+    /**
+     * The append-only log payments were recorded in before the database, imported into it once
+     * by {@link #importFileLog}.
+     */
+    private static final String FILE_LOG_NAME = "transactions";
+
+    /** Time and amount of a sale in the file log, both longs. */
+    private static final int FILE_LOG_RECORD_SIZE = 16;
+
+    /** Random id of this phone as a register, generated once. */
+    private static final String KEY_REGISTER_ID = "REGISTER_ID";
+    private static final String KEY_AGGREGATOR_HOST = "AGGREGATOR_HOST";
+    private static final String KEY_AGGREGATOR_PORT = "AGGREGATOR_PORT";
+
+    /** Maximum number of payments read from the source at once. */
+    private static final int READ_BATCH_SIZE = 256;
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private HandlerThread mRebuildThread;
+    private Handler mRebuildHandler;
+    private AtomicFile mStateFile;
+    private TransactionDatabase mLog;
+    private RollupRebuilder mRebuilder;
+
+    // Only accessed on the service thread.
+    private DailyAggregates mAggregates;
+    private long mCursor;
+    private SyntheticTransactionSource mSyntheticSource;
+    private String mRegisterId;
+    private String mAggregatorHost;
+    private int mAggregatorPort;
+    private StoreAggregatorClient mAggregatorClient;
+
+    private final StoreAggregatorClient.Listener mAggregatorListener =
+            new StoreAggregatorClient.Listener() {
+                @Override
+                public void onSnapshot(int day, long incrementsCents, long decrementsCents,
+                        int registerCount) {
+                    DataMap update = new DataMap();
+                    update.putLongArray(DigitalWatchFaceCompanionUtil.KEY_STORE_COUNTER,
+                            new long[] {day, incrementsCents, decrementsCents, registerCount});
+                    WatchUpdateSender.getInstance(PaymentAggregationService.this).send(update);
+                }
+            };
+
+    private final TransactionSource.Listener mSourceListener = new TransactionSource.Listener() {
+        @Override
+        public void onTransactionsAvailable() {
+            mHandler.removeCallbacks(mDrainRunnable);
+            mHandler.post(mDrainRunnable);
+        }
+    };
+
+    private final Runnable mDrainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * Records a payment of {@code amountCents} completed at {@code timeMs} by
+     * {@code employeeId} at {@code locationId}, either of which may be
+     * {@link DigitalWatchFaceCompanionUtil#NO_ID}.
+     */
+    public static void recordPayment(Context context, long amountCents, long timeMs,
+            int employeeId, int locationId) {
+        recordPayment(context, amountCents, timeMs, employeeId, locationId, null);
+    }
+
+    /**
+     * Like {@link #recordPayment(Context, long, long, int, int)}, with the SKUs of the
+     * payment's line items, one per unit sold, which count towards the day's top items.
+     */
+    public static void recordPayment(Context context, long amountCents, long timeMs,
+            int employeeId, int locationId, String[] skus) {
+        recordPayment(context, amountCents, timeMs, employeeId, locationId, skus, null);
+    }
+
+    /**
+     * Like {@link #recordPayment(Context, long, long, int, int, String[])}, for a payment of
+     * {@code amountCents} hundredths of the currency with ISO 4217 code {@code currency}, or of
+     * the store's currency if null. It counts towards the totals once converted into the store's
+     * currency with the rates last set by {@link #setFxRates}.
+     */
+    public static void recordPayment(Context context, long amountCents, long timeMs,
+            int employeeId, int locationId, String[] skus, String currency) {
+        Intent intent = new Intent(context, PaymentAggregationService.class);
+        intent.setAction(ACTION_RECORD_PAYMENT);
+        intent.putExtra(EXTRA_AMOUNT_CENTS, amountCents);
+        intent.putExtra(EXTRA_TIME, timeMs);
+        intent.putExtra(EXTRA_EMPLOYEE_ID, employeeId);
+        intent.putExtra(EXTRA_LOCATION_ID, locationId);
+        intent.putExtra(EXTRA_SKUS, skus);
+        intent.putExtra(EXTRA_CURRENCY, currency);
+        context.startService(intent);
+    }
+
+    /**
+     * Sets today's exchange rates: one unit of the currency with ISO 4217 code
+     * {@code currencies[i]} is worth {@code rates[i]} units of the store's currency. Payments
+     * recorded without a rate for their currency are converted and counted, and the rates are
+     * synced to the watch, which caches them. Meant to be called once a day, when the rates are
+     * published.
+     */
+    public static void setFxRates(Context context, String[] currencies, double[] rates) {
+        Intent intent = new Intent(context, PaymentAggregationService.class);
+        intent.setAction(ACTION_SET_FX_RATES);
+        intent.putExtra(EXTRA_CURRENCIES, currencies);
+        intent.putExtra(EXTRA_RATES, rates);
+        context.startService(intent);
+    }
+
+    /**
+     * Generates about {@code salesPerMinute} synthetic payments a minute on top of real ones,
+     * or stops generating them if {@code salesPerMinute} is 0.
+     */
+    public static void setSyntheticSalesRate(Context context, double salesPerMinute) {
+        Intent intent = new Intent(context, PaymentAggregationService.class);
+        intent.setAction(ACTION_SET_SYNTHETIC_SALES_RATE);
+        intent.putExtra(EXTRA_SALES_PER_MINUTE, salesPerMinute);
+        context.startService(intent);
+    }
+
+    /**
+     * Adds past payments, the {@code i}th completed at {@code timesMs[i]} for
+     * {@code amountsCents[i]} by {@code employeeIds[i]} at {@code locationIds[i]}, and
+     * recomputes the rollups of their days.
+     */
+    public static void importPayments(Context context, long[] timesMs, long[] amountsCents,
+            int[] employeeIds, int[] locationIds) {
+        Intent intent = new Intent(context, PaymentAggregationService.class);
+        intent.setAction(ACTION_IMPORT_PAYMENTS);
+        intent.putExtra(EXTRA_TIMES, timesMs);
+        intent.putExtra(EXTRA_AMOUNTS_CENTS, amountsCents);
+        intent.putExtra(EXTRA_EMPLOYEE_IDS, employeeIds);
+        intent.putExtra(EXTRA_LOCATION_IDS, locationIds);
+        context.startService(intent);
+    }
+
+    /** Changes the amount of payment {@code id} and recomputes the rollups of its day. */
+    public static void correctPayment(Context context, long id, long amountCents) {
+        Intent intent = new Intent(context, PaymentAggregationService.class);
+        intent.setAction(ACTION_CORRECT_PAYMENT);
+        intent.putExtra(EXTRA_ID, id);
+        intent.putExtra(EXTRA_AMOUNT_CENTS, amountCents);
+        context.startService(intent);
+    }
+
+    /**
+     * Reports this phone's totals to the store aggregator at {@code host}:{@code port} and
+     * forwards the store-wide total it pushes back to the watch, or stops doing so if
+     * {@code host} is null. Remembered across restarts.
+     */
+    public static void setStoreAggregator(Context context, String host, int port) {
+        Intent intent = new Intent(context, PaymentAggregationService.class);
+        intent.setAction(ACTION_SET_STORE_AGGREGATOR);
+        intent.putExtra(EXTRA_HOST, host);
+        intent.putExtra(EXTRA_PORT, port);
+        context.startService(intent);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mRebuildThread = new HandlerThread(TAG + "Rebuild", Process.THREAD_PRIORITY_BACKGROUND);
+        mRebuildThread.start();
+        mRebuildHandler = new Handler(mRebuildThread.getLooper());
+        mStateFile = new AtomicFile(new File(getFilesDir(), STATE_FILE_NAME));
+        mLog = new TransactionDatabase(this);
+        mRebuilder = new RollupRebuilder(mLog);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mAggregates = new DailyAggregates(System.currentTimeMillis());
+                readState();
+                if (mRegisterId == null) {
+                    mRegisterId = UUID.randomUUID().toString();
+                    writeState();
+                }
+                connectAggregator();
+                mLog.setListener(mSourceListener);
+                // Catch up on anything recorded while the service wasn't running.
+                drain();
+            }
+        });
+        mRebuildHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                importFileLog();
+            }
+        });
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent == null) {
+            return START_STICKY;
+        }
+        if (ACTION_RECORD_PAYMENT.equals(intent.getAction())) {
+            final long amountCents = intent.getLongExtra(EXTRA_AMOUNT_CENTS, 0);
+            final long timeMs = intent.getLongExtra(EXTRA_TIME, System.currentTimeMillis());
+            final int employeeId = intent.getIntExtra(EXTRA_EMPLOYEE_ID,
+                    DigitalWatchFaceCompanionUtil.NO_ID);
+            final int locationId = intent.getIntExtra(EXTRA_LOCATION_ID,
+                    DigitalWatchFaceCompanionUtil.NO_ID);
+            final String[] skus = intent.getStringArrayExtra(EXTRA_SKUS);
+            final String currency = intent.getStringExtra(EXTRA_CURRENCY);
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mLog.append(timeMs, amountCents, employeeId, locationId, skus, currency);
+                }
+            });
+        } else if (ACTION_SET_FX_RATES.equals(intent.getAction())) {
+            final String[] currencies = intent.getStringArrayExtra(EXTRA_CURRENCIES);
+            double[] rates = intent.getDoubleArrayExtra(EXTRA_RATES);
+            if (currencies == null || rates == null || rates.length != currencies.length) {
+                Log.w(TAG, "Ignoring malformed exchange rates");
+                return START_STICKY;
+            }
+            final long[] scaledRates = new long[rates.length];
+            for (int i = 0; i < rates.length; i++) {
+                scaledRates[i] =
+                        Math.round(rates[i] * DigitalWatchFaceCompanionUtil.FX_RATE_SCALE);
+            }
+            mRebuildHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    long[] convertedTimesMs = mLog.setFxRates(currencies, scaledRates);
+                    if (convertedTimesMs != null) {
+                        rebuildRollups(convertedTimesMs[0], convertedTimesMs[1]);
+                    }
+                }
+            });
+        } else if (ACTION_SET_SYNTHETIC_SALES_RATE.equals(intent.getAction())) {
+            final double salesPerMinute = intent.getDoubleExtra(EXTRA_SALES_PER_MINUTE, 0);
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    setSyntheticSalesRate(salesPerMinute);
+                }
+            });
+        } else if (ACTION_IMPORT_PAYMENTS.equals(intent.getAction())) {
+            final long[] timesMs = intent.getLongArrayExtra(EXTRA_TIMES);
+            final long[] amountsCents = intent.getLongArrayExtra(EXTRA_AMOUNTS_CENTS);
+            final int[] employeeIds = intent.getIntArrayExtra(EXTRA_EMPLOYEE_IDS);
+            final int[] locationIds = intent.getIntArrayExtra(EXTRA_LOCATION_IDS);
+            if (timesMs == null || timesMs.length == 0 || amountsCents == null
+                    || amountsCents.length != timesMs.length || employeeIds == null
+                    || employeeIds.length != timesMs.length || locationIds == null
+                    || locationIds.length != timesMs.length) {
+                Log.w(TAG, "Ignoring malformed import");
+                return START_STICKY;
+            }
+            mRebuildHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mLog.importAll(timesMs, amountsCents, employeeIds, locationIds);
+                    long fromMs = Long.MAX_VALUE;
+                    long toMs = Long.MIN_VALUE;
+                    for (long timeMs : timesMs) {
+                        fromMs = Math.min(fromMs, timeMs);
+                        toMs = Math.max(toMs, timeMs);
+                    }
+                    rebuildRollups(fromMs, toMs);
+                }
+            });
+        } else if (ACTION_SET_STORE_AGGREGATOR.equals(intent.getAction())) {
+            final String host = intent.getStringExtra(EXTRA_HOST);
+            final int port = intent.getIntExtra(EXTRA_PORT, 0);
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mAggregatorHost = host;
+                    mAggregatorPort = port;
+                    writeState();
+                    connectAggregator();
+                }
+            });
+        } else if (ACTION_CORRECT_PAYMENT.equals(intent.getAction())) {
+            final long id = intent.getLongExtra(EXTRA_ID, -1);
+            final long amountCents = intent.getLongExtra(EXTRA_AMOUNT_CENTS, 0);
+            mRebuildHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    long timeMs = mLog.correctAmount(id, amountCents);
+                    if (timeMs < 0) {
+                        Log.w(TAG, "No payment to correct with id " + id);
+                        return;
+                    }
+                    rebuildRollups(timeMs, timeMs);
+                }
+            });
+        }
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        mRebuildHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mRebuilder.quit();
+            }
+        });
+        mRebuildThread.quitSafely();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                setSyntheticSalesRate(0);
+                if (mAggregatorClient != null) {
+                    mAggregatorClient.close();
+                }
+                mLog.setListener(null);
+                mLog.close();
+            }
+        });
+        mThread.quitSafely();
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    private void setSyntheticSalesRate(double salesPerMinute) {
+        if (salesPerMinute > 0) {
+            if (mSyntheticSource == null) {
+                mSyntheticSource = new SyntheticTransactionSource(mLog, salesPerMinute);
+            } else {
+                mSyntheticSource.setSalesPerMinute(salesPerMinute);
+            }
+        } else if (mSyntheticSource != null) {
+            mSyntheticSource.close();
+            mSyntheticSource = null;
+        }
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Synthetic sales per minute: " + salesPerMinute);
+        }
+    }
+
+    /** (Re)connects to the configured store aggregator, or disconnects if there's none. */
+    private void connectAggregator() {
+        if (mAggregatorClient != null) {
+            mAggregatorClient.close();
+            mAggregatorClient = null;
+        }
+        if (mAggregatorHost == null) {
+            return;
+        }
+        mAggregatorClient = new StoreAggregatorClient(mRegisterId, mAggregatorHost,
+                mAggregatorPort, mAggregatorListener);
+        mAggregatorClient.update(mAggregates.getRegisterCounter());
+    }
+
+    /** Reports this phone's counter to the store aggregator if {@code update} changed it. */
+    private void reportRegisterCounter(DataMap update) {
+        if (mAggregatorClient != null
+                && update.containsKey(DigitalWatchFaceCompanionUtil.KEY_REGISTER_COUNTER)) {
+            mAggregatorClient.update(
+                    update.getLongArray(DigitalWatchFaceCompanionUtil.KEY_REGISTER_COUNTER));
+        }
+    }
+
+    /**
+     * Imports the payments of the file log recorded in before the database, if it's still there,
+     * like {@link #importPayments} does, and deletes it. The cursor into it didn't carry over, so
+     * it's imported whole and the rebuilt rollups replace the aggregates it was counted in. Runs
+     * on the rebuild thread.
+     */
+    private void importFileLog() {
+        File file = new File(getFilesDir(), FILE_LOG_NAME);
+        if (!file.exists()) {
+            return;
+        }
+        byte[] buffer;
+        RandomAccessFile log = null;
+        try {
+            log = new RandomAccessFile(file, "r");
+            // A record torn by a crash mid-append is left out.
+            buffer = new byte[(int) (log.length() / FILE_LOG_RECORD_SIZE * FILE_LOG_RECORD_SIZE)];
+            log.readFully(buffer);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read " + file + ", retrying on the next start", e);
+            return;
+        } finally {
+            if (log != null) {
+                try {
+                    log.close();
+                } catch (IOException e) {
+                    // Ignore.
+                }
+            }
+        }
+        int count = buffer.length / FILE_LOG_RECORD_SIZE;
+        long[] timesMs = new long[count];
+        long[] amountsCents = new long[count];
+        // The file log had no employees or locations.
+        int[] employeeIds = new int[count];
+        int[] locationIds = new int[count];
+        Arrays.fill(employeeIds, DigitalWatchFaceCompanionUtil.NO_ID);
+        Arrays.fill(locationIds, DigitalWatchFaceCompanionUtil.NO_ID);
+        long fromMs = Long.MAX_VALUE;
+        long toMs = Long.MIN_VALUE;
+        ByteBuffer records = ByteBuffer.wrap(buffer);
+        for (int i = 0; i < count; i++) {
+            timesMs[i] = records.getLong();
+            amountsCents[i] = records.getLong();
+            fromMs = Math.min(fromMs, timesMs[i]);
+            toMs = Math.max(toMs, timesMs[i]);
+        }
+        if (count > 0) {
+            // One database transaction, so the log is either imported whole or not at all.
+            mLog.importAll(timesMs, amountsCents, employeeIds, locationIds);
+        }
+        if (!file.delete()) {
+            Log.w(TAG, "Failed to delete " + file);
+        }
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Imported " + count + " payments from " + file);
+        }
+        if (count > 0) {
+            rebuildRollups(fromMs, toMs);
+        }
+    }
+
+    /** Runs on the rebuild thread and hands the changed day totals to the service thread. */
+    private void rebuildRollups(long fromMs, long toMs) {
+        final Map<String, Long> changedTotals = mRebuilder.rebuild(fromMs, toMs);
+        if (changedTotals.isEmpty()) {
+            return;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                onRollupsRebuilt(changedTotals);
+            }
+        });
+    }
+
+    /** Pushes the day totals a rebuild changed, reloading today's aggregates if needed. */
+    private void onRollupsRebuilt(Map<String, Long> changedTotals) {
+        DataMap update = new DataMap();
+        long nowMs = System.currentTimeMillis();
+        String todayKey = DigitalWatchFaceCompanionUtil.formatDayKey(nowMs);
+        for (Map.Entry<String, Long> changedTotal : changedTotals.entrySet()) {
+            if (!changedTotal.getKey().equals(todayKey)) {
+                update.putInt(DigitalWatchFaceCompanionUtil.getDayTotalKey(changedTotal.getKey()),
+                        (int) (changedTotal.getValue() / 100));
+            }
+        }
+        boolean todayChanged = changedTotals.containsKey(todayKey);
+        if (todayChanged) {
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(nowMs);
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
+            calendar.set(Calendar.MINUTE, 0);
+            calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MILLISECOND, 0);
+            long dayStartMs = calendar.getTimeInMillis();
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+            TransactionDatabase.DaySnapshot today =
+                    mLog.readDay(todayKey, dayStartMs, calendar.getTimeInMillis());
+            update.putAll(mAggregates.replace(todayKey, today.mTotalCents, today.mCount,
+                    today.mHourTotalsCents, today.mEmployeeTotalsCents,
+                    today.mLocationTotalsCents));
+            // The rollups already include every live payment up to here.
+            mCursor = today.mLastLiveId;
+            writeState();
+        }
+        reportRegisterCounter(update);
+        putRangeTotals(update);
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Rollups rebuilt, pushing " + update);
+        }
+        WatchUpdateSender.getInstance(this).send(update);
+        if (todayChanged) {
+            broadcastDailyTotal();
+        }
+    }
+
+    private TransactionSource getSource() {
+        return mSyntheticSource != null ? mSyntheticSource : mLog;
+    }
+
+    /** Aggregates the payments after the cursor and pushes what changed. */
+    private void drain() {
+        DataMap changed = new DataMap();
+        long startCursor = mCursor;
+        try {
+            List<GoPaymentDataEvent> events;
+            do {
+                events = getSource().readSince(mCursor, READ_BATCH_SIZE);
+                for (GoPaymentDataEvent event : events) {
+                    // Later changes to the same key overwrite earlier ones.
+                    changed.putAll(mAggregates.add(event.getAmountCents(),
+                            event.getStoreAmountCents(), event.getTimeMs(),
+                            event.getEmployeeId(), event.getLocationId(), event.getSkus()));
+                    mCursor = event.getId();
+                }
+            } while (events.size() == READ_BATCH_SIZE);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read payments after " + mCursor, e);
+        }
+        if (mCursor == startCursor) {
+            return;
+        }
+        writeState();
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Aggregated payments " + (startCursor + 1) + " to " + mCursor
+                    + ", pushing " + changed);
+        }
+        if (changed.isEmpty()) {
+            // Only payments from earlier days, which don't affect today's aggregates.
+            return;
+        }
+        reportRegisterCounter(changed);
+        putRangeTotals(changed);
+        WatchUpdateSender.getInstance(this).send(changed);
+        broadcastDailyTotal();
+    }
+
+    private void broadcastDailyTotal() {
+        Intent event = new Intent(GoPaymentDataEvent.DAILY_TOTAL_UPDATED);
+        event.putExtra(GoPaymentDataEvent.DAILY_TOTAL, mAggregates.getTotalCents());
+        event.putExtra(GoPaymentDataEvent.DAILY_COUNT, mAggregates.getCount());
+        LocalBroadcastManager.getInstance(this).sendBroadcast(event);
+    }
+
+    /** Adds this week's and this month's totals, up to today, to {@code update}. */
+    private void putRangeTotals(DataMap update) {
+        long nowMs = System.currentTimeMillis();
+        String todayKey = DigitalWatchFaceCompanionUtil.formatDayKey(nowMs);
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(nowMs);
+        int daysIntoWeek = (calendar.get(Calendar.DAY_OF_WEEK) - calendar.getFirstDayOfWeek()
+                + 7) % 7;
+        calendar.add(Calendar.DAY_OF_MONTH, -daysIntoWeek);
+        String weekStartKey = DigitalWatchFaceCompanionUtil.formatDayKey(
+                calendar.getTimeInMillis());
+        calendar.setTimeInMillis(nowMs);
+        calendar.set(Calendar.DAY_OF_MONTH, 1);
+        String monthStartKey = DigitalWatchFaceCompanionUtil.formatDayKey(
+                calendar.getTimeInMillis());
+
+        update.putInt(DigitalWatchFaceCompanionUtil.KEY_WEEK_TOTAL,
+                (int) (mLog.queryDays(weekStartKey, todayKey).getTotalCents() / 100));
+        update.putInt(DigitalWatchFaceCompanionUtil.KEY_MONTH_TOTAL,
+                (int) (mLog.queryDays(monthStartKey, todayKey).getTotalCents() / 100));
+    }
+
+    private void readState() {
+        try {
+            DataMap state = DataMap.fromByteArray(mStateFile.readFully());
+            mAggregates.readFrom(state);
+            mCursor = state.getLong(KEY_CURSOR);
+            mRegisterId = state.getString(KEY_REGISTER_ID);
+            mAggregatorHost = state.getString(KEY_AGGREGATOR_HOST);
+            mAggregatorPort = state.getInt(KEY_AGGREGATOR_PORT);
+        } catch (FileNotFoundException e) {
+            // Nothing has been recorded yet.
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read daily aggregates", e);
+        }
+    }
+
+    private void writeState() {
+        DataMap state = mAggregates.toDataMap();
+        state.putLong(KEY_CURSOR, mCursor);
+        state.putString(KEY_REGISTER_ID, mRegisterId);
+        if (mAggregatorHost != null) {
+            state.putString(KEY_AGGREGATOR_HOST, mAggregatorHost);
+            state.putInt(KEY_AGGREGATOR_PORT, mAggregatorPort);
+        }
+        FileOutputStream out = null;
+        try {
+            out = mStateFile.startWrite();
+            out.write(state.toByteArray());
+            mStateFile.finishWrite(out);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write daily aggregates", e);
+            if (out != null) {
+                mStateFile.failWrite(out);
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Recomputes the {@link TransactionDatabase} rollups of a range of days after past sales were
+ * imported or corrected.
+ * <p>
+ * The range is split into one partition per local day, and the partitions are aggregated from
+ * the raw sales in parallel on a thread pool, each reading only its own day through the time
+ * index. The results are then merged into the rollup tables in a single transaction, which also
+ * picks up any sales recorded while the partitions were being aggregated.
+ */
+final class RollupRebuilder {
+    private static final String TAG = "RollupRebuilder";
+
+    private final TransactionDatabase mDatabase;
+    private final ExecutorService mExecutor;
+
+    RollupRebuilder(TransactionDatabase database) {
+        mDatabase = database;
+        mExecutor = Executors.newFixedThreadPool(
+                Math.max(2, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Rebuilds the rollups of every local day overlapping {@code fromMs} to {@code toMs}. Blocks
+     * until they're committed.
+     *
+     * @return the new totals of the days whose total changed, by day key; empty if the rebuild
+     *     failed
+     */
+    Map<String, Long> rebuild(long fromMs, long toMs) {
+        long startMs = System.currentTimeMillis();
+        final long lastId = mDatabase.getLastId();
+
+        List<Callable<TransactionDatabase.DayRollup>> partitions =
+                new ArrayList<Callable<TransactionDatabase.DayRollup>>();
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(fromMs);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        while (calendar.getTimeInMillis() <= toMs) {
+            final long dayStartMs = calendar.getTimeInMillis();
+            // Adding a day, rather than 24 hours, keeps DST days whole.
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+            final long dayEndMs = calendar.getTimeInMillis();
+            final String dayKey = DigitalWatchFaceCompanionUtil.formatDayKey(dayStartMs);
+            partitions.add(new Callable<TransactionDatabase.DayRollup>() {
+                @Override
+                public TransactionDatabase.DayRollup call() {
+                    return mDatabase.aggregateDay(dayKey, dayStartMs, dayEndMs, lastId);
+                }
+            });
+        }
+
+        List<TransactionDatabase.DayRollup> days =
+                new ArrayList<TransactionDatabase.DayRollup>(partitions.size());
+        try {
+            for (Future<TransactionDatabase.DayRollup> day : mExecutor.invokeAll(partitions)) {
+                days.add(day.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Collections.emptyMap();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Failed to aggregate rollups", e.getCause());
+            return Collections.emptyMap();
+        }
+
+        Map<String, Long> changedTotals = mDatabase.replaceRollups(days, lastId);
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Rebuilt " + days.size() + " days in "
+                    + (System.currentTimeMillis() - startMs) + " ms, changed: " + changedTotals);
+        }
+        return changedTotals;
+    }
+
+    /** Stops the worker threads. */
+    void quit() {
+        mExecutor.shutdown();
+    }
+}
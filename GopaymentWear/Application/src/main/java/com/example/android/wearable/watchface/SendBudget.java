@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+/**
+ * A pair of token buckets limiting how many messages and how many bytes {@link WatchUpdateSender}
+ * may send per minute. Both buckets start full and refill continuously, so a quiet period allows
+ * a short burst of up to one minute's worth of budget.
+ * <p>
+ * Not thread-safe; {@link WatchUpdateSender} only uses it on its own thread.
+ */
+final class SendBudget {
+    private static final long MINUTE_MS = 60 * 1000;
+
+    private int mMaxMessagesPerMinute;
+    private int mMaxBytesPerMinute;
+
+    private double mMessageTokens;
+    private double mByteTokens;
+    private long mLastRefillMs;
+
+    SendBudget(int maxMessagesPerMinute, int maxBytesPerMinute, long nowMs) {
+        setLimits(maxMessagesPerMinute, maxBytesPerMinute);
+        mMessageTokens = maxMessagesPerMinute;
+        mByteTokens = maxBytesPerMinute;
+        mLastRefillMs = nowMs;
+    }
+
+    void setLimits(int maxMessagesPerMinute, int maxBytesPerMinute) {
+        if (maxMessagesPerMinute <= 0 || maxBytesPerMinute <= 0) {
+            throw new IllegalArgumentException("Limits must be positive: "
+                    + maxMessagesPerMinute + " messages, " + maxBytesPerMinute + " bytes");
+        }
+        mMaxMessagesPerMinute = maxMessagesPerMinute;
+        mMaxBytesPerMinute = maxBytesPerMinute;
+        mMessageTokens = Math.min(mMessageTokens, maxMessagesPerMinute);
+        mByteTokens = Math.min(mByteTokens, maxBytesPerMinute);
+    }
+
+    /** Returns whether a send of this size fits in one minute's budget at all. */
+    boolean fits(int messages, int bytes) {
+        return messages <= mMaxMessagesPerMinute && bytes <= mMaxBytesPerMinute;
+    }
+
+    /**
+     * Returns how long to wait until {@code messages} messages carrying {@code bytes} bytes in
+     * total can be sent, or 0 if they can be sent now. Assumes {@link #fits} is true.
+     */
+    long millisUntilAvailable(int messages, int bytes, long nowMs) {
+        refill(nowMs);
+        double messageDeficit = messages - mMessageTokens;
+        double byteDeficit = bytes - mByteTokens;
+        long waitMs = 0;
+        if (messageDeficit > 0) {
+            waitMs = Math.max(waitMs,
+                    (long) Math.ceil(messageDeficit * MINUTE_MS / mMaxMessagesPerMinute));
+        }
+        if (byteDeficit > 0) {
+            waitMs = Math.max(waitMs,
+                    (long) Math.ceil(byteDeficit * MINUTE_MS / mMaxBytesPerMinute));
+        }
+        return waitMs;
+    }
+
+    /** Spends the budget for a send. Call only when {@link #millisUntilAvailable} returned 0. */
+    void consume(int messages, int bytes) {
+        mMessageTokens -= messages;
+        mByteTokens -= bytes;
+    }
+
+    private void refill(long nowMs) {
+        long elapsedMs = Math.max(0, nowMs - mLastRefillMs);
+        mLastRefillMs = nowMs;
+        mMessageTokens = Math.min(mMaxMessagesPerMinute,
+                mMessageTokens + (double) elapsedMs * mMaxMessagesPerMinute / MINUTE_MS);
+        mByteTokens = Math.min(mMaxBytesPerMinute,
+                mByteTokens + (double) elapsedMs * mMaxBytesPerMinute / MINUTE_MS);
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connects this phone, as one register, to the store's aggregator (the {@code StoreAggregator}
+ * module) over a socket on the store's network. It sends this phone's slot of the store-wide
+ * PN-counter whenever it changes and passes the merged snapshots the aggregator pushes back to
+ * a {@link Listener}.
+ * <p>
+ * Only the latest slot is kept: updates made while disconnected or while a send is in progress
+ * are merged into one send, and the latest slot is resent after every reconnection. The counter
+ * only grows, so resending is always safe.
+ * <p>
+ * The frames mirror the aggregator's {@code Protocol}: a 4-byte length, then a type byte and the
+ * fields.
+ */
+final class StoreAggregatorClient {
+    private static final String TAG = "StoreAggregatorClient";
+
+    private static final byte TYPE_REGISTER_UPDATE = 1;
+    private static final byte TYPE_SNAPSHOT = 2;
+    private static final int MAX_FRAME_LENGTH = 1024;
+
+    private static final int CONNECT_TIMEOUT_MS = (int) TimeUnit.SECONDS.toMillis(10);
+    private static final long MIN_RETRY_DELAY_MS = TimeUnit.SECONDS.toMillis(1);
+    private static final long MAX_RETRY_DELAY_MS = TimeUnit.MINUTES.toMillis(1);
+
+    /** Receives the merged counter of the whole store. Called on the client's reader thread. */
+    interface Listener {
+        void onSnapshot(int day, long incrementsCents, long decrementsCents, int registerCount);
+    }
+
+    private final String mRegisterId;
+    private final String mHost;
+    private final int mPort;
+    private final Listener mListener;
+    private final Thread mThread;
+
+    // Guarded by this.
+    /** The latest {day, increments, decrements} to send, or null if it was sent. */
+    private long[] mPendingCounter;
+    /** The latest counter given to {@link #update}, resent after reconnecting. */
+    private long[] mLatestCounter;
+    private Socket mSocket;
+    private boolean mClosed;
+
+    StoreAggregatorClient(String registerId, String host, int port, Listener listener) {
+        mRegisterId = registerId;
+        mHost = host;
+        mPort = port;
+        mListener = listener;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runConnections();
+            }
+        }, TAG);
+        mThread.start();
+    }
+
+    /**
+     * Sends {@code registerCounter}, this phone's {@code {day, increments, decrements}}, as soon
+     * as the connection allows.
+     */
+    synchronized void update(long[] registerCounter) {
+        mLatestCounter = registerCounter;
+        mPendingCounter = registerCounter;
+        notifyAll();
+    }
+
+    /** Disconnects for good. */
+    void close() {
+        synchronized (this) {
+            mClosed = true;
+            closeSocket();
+            notifyAll();
+        }
+        mThread.interrupt();
+    }
+
+    /** Connects, sends and reconnects with exponential backoff until closed. */
+    private void runConnections() {
+        long retryDelayMs = MIN_RETRY_DELAY_MS;
+        while (!isClosed()) {
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(mHost, mPort), CONNECT_TIMEOUT_MS);
+                socket.setTcpNoDelay(true);
+                synchronized (this) {
+                    if (mClosed) {
+                        socket.close();
+                        return;
+                    }
+                    mSocket = socket;
+                    mPendingCounter = mLatestCounter;
+                }
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, "Connected to " + mHost + ":" + mPort);
+                }
+                retryDelayMs = MIN_RETRY_DELAY_MS;
+                startReader(socket);
+                sendUntilDisconnected(socket);
+            } catch (IOException e) {
+                Log.w(TAG, "Connection to " + mHost + ":" + mPort + " failed: " + e);
+            } finally {
+                synchronized (this) {
+                    if (mSocket == socket) {
+                        closeSocket();
+                    }
+                }
+                closeQuietly(socket);
+            }
+            try {
+                Thread.sleep(retryDelayMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+            retryDelayMs = Math.min(retryDelayMs * 2, MAX_RETRY_DELAY_MS);
+        }
+    }
+
+    private void sendUntilDisconnected(Socket socket) throws IOException {
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        while (true) {
+            long[] counter;
+            synchronized (this) {
+                while (mPendingCounter == null && mSocket == socket) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (mSocket != socket) {
+                    // Closed, or the reader saw the connection drop.
+                    return;
+                }
+                counter = mPendingCounter;
+                mPendingCounter = null;
+            }
+            byte[] registerId = mRegisterId.getBytes("UTF-8");
+            out.writeInt(1 + 2 + registerId.length + 4 + 8 + 8);
+            out.writeByte(TYPE_REGISTER_UPDATE);
+            out.writeShort(registerId.length);
+            out.write(registerId);
+            out.writeInt((int) counter[0]);
+            out.writeLong(counter[1]);
+            out.writeLong(counter[2]);
+            out.flush();
+        }
+    }
+
+    private void startReader(final Socket socket) throws IOException {
+        final DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        int length = in.readInt();
+                        if (length < 1 || length > MAX_FRAME_LENGTH) {
+                            throw new IOException("Bad frame length " + length);
+                        }
+                        byte type = in.readByte();
+                        if (type != TYPE_SNAPSHOT) {
+                            // Skip frames from a newer aggregator.
+                            in.skipBytes(length - 1);
+                            continue;
+                        }
+                        mListener.onSnapshot(in.readInt(), in.readLong(), in.readLong(),
+                                in.readInt());
+                    }
+                } catch (IOException e) {
+                    if (Log.isLoggable(TAG, Log.DEBUG)) {
+                        Log.d(TAG, "Reader stopped: " + e);
+                    }
+                }
+                synchronized (StoreAggregatorClient.this) {
+                    if (mSocket == socket) {
+                        // Wake the sender up to reconnect.
+                        closeSocket();
+                        StoreAggregatorClient.this.notifyAll();
+                    }
+                }
+            }
+        }, TAG + "Reader").start();
+    }
+
+    private synchronized boolean isClosed() {
+        return mClosed;
+    }
+
+    /** Must be called while holding the lock. */
+    private void closeSocket() {
+        if (mSocket != null) {
+            closeQuietly(mSocket);
+            mSocket = null;
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing left to do with it.
+        }
+    }
+}
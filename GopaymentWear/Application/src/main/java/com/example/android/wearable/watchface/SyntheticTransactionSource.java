@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import com.intuit.gopayment.android.event.GoPaymentDataEvent;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A local stand-in for GoPayment that generates synthetic sales at a configurable average rate,
+ * for development and load testing. Sales arrive as a Poisson process with log-normally
+ * distributed amounts, and are appended to a {@link TransactionLog} that also serves the reads,
+ * so the cursor stays valid when switching to or from real sales.
+ */
+public class SyntheticTransactionSource implements TransactionSource {
+    private static final String TAG = "SyntheticSource";
+
+    /** Median sale amount. */
+    private static final double MEDIAN_AMOUNT_CENTS = 2500;
+
+    /** Spread of the log-normal amount distribution. */
+    private static final double AMOUNT_SIGMA = 0.8;
+
+    /** Sales are spread evenly over employees 1 to this, and locations 1 to this. */
+    private static final int EMPLOYEE_COUNT = 8;
+    private static final int LOCATION_COUNT = 2;
+
+    /**
+     * Each sale has 1 to this many line items, from a catalog of {@link #CATALOG_SIZE} SKUs in
+     * which a few sell far more than the rest.
+     */
+    private static final int MAX_LINE_ITEMS = 3;
+    private static final int CATALOG_SIZE = 500;
+
+    /** About one sale in this many is paid in a foreign currency, one of these. */
+    private static final int FOREIGN_SALE_ODDS = 10;
+    private static final String[] FOREIGN_CURRENCIES = {"CAD", "EUR", "MXN"};
+
+    private final TransactionLog mLog;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final Random mRandom = new Random();
+    private volatile double mSalesPerMinute;
+
+    private final Runnable mGenerateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            long amountCents = Math.max(1, Math.round(
+                    MEDIAN_AMOUNT_CENTS * Math.exp(AMOUNT_SIGMA * mRandom.nextGaussian())));
+            String[] skus = new String[1 + mRandom.nextInt(MAX_LINE_ITEMS)];
+            for (int i = 0; i < skus.length; i++) {
+                // Cubing skews the picks towards the start of the catalog.
+                double pick = Math.pow(mRandom.nextDouble(), 3);
+                skus[i] = "SKU-" + (int) (pick * CATALOG_SIZE);
+            }
+            String currency = mRandom.nextInt(FOREIGN_SALE_ODDS) == 0
+                    ? FOREIGN_CURRENCIES[mRandom.nextInt(FOREIGN_CURRENCIES.length)] : null;
+            try {
+                mLog.append(System.currentTimeMillis(), amountCents,
+                        1 + mRandom.nextInt(EMPLOYEE_COUNT), 1 + mRandom.nextInt(LOCATION_COUNT),
+                        skus, currency);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to append synthetic sale", e);
+            }
+            scheduleNext();
+        }
+    };
+
+    /**
+     * Starts generating about {@code salesPerMinute} sales a minute into {@code log}.
+     */
+    public SyntheticTransactionSource(TransactionLog log, double salesPerMinute) {
+        mLog = log;
+        mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        setSalesPerMinute(salesPerMinute);
+    }
+
+    /** Changes the average rate; 0 pauses the generator. */
+    public void setSalesPerMinute(double salesPerMinute) {
+        mSalesPerMinute = salesPerMinute;
+        mHandler.removeCallbacks(mGenerateRunnable);
+        scheduleNext();
+    }
+
+    @Override
+    public List<GoPaymentDataEvent> readSince(long afterId, int maxCount) throws IOException {
+        return mLog.readSince(afterId, maxCount);
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        mLog.setListener(listener);
+    }
+
+    /** Stops generating. The underlying log stays open for its owner. */
+    @Override
+    public void close() {
+        mThread.quit();
+    }
+
+    private void scheduleNext() {
+        double salesPerMinute = mSalesPerMinute;
+        if (salesPerMinute <= 0) {
+            return;
+        }
+        // Exponentially distributed gaps between sales.
+        double gapMinutes = -Math.log(1 - mRandom.nextDouble()) / salesPerMinute;
+        mHandler.postDelayed(mGenerateRunnable,
+                (long) (gapMinutes * TimeUnit.MINUTES.toMillis(1)));
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import java.util.Arrays;
+
+/**
+ * The day's best-selling items in bounded memory: a count-min sketch estimates how many times
+ * each SKU sold, and a small min-heap keeps the {@link #CANDIDATES} SKUs with the highest
+ * estimates. However large the catalog, it takes {@link #DEPTH} x {@link #WIDTH} counters plus
+ * the candidates, whose SKUs are cut to {@link #MAX_SKU_LENGTH} characters.
+ * <p>
+ * Estimates never undercount, and overcount by at most e/{@link #WIDTH} (about 0.3%) of all
+ * items sold with 98% probability; counters are only raised as far as the new estimate
+ * (conservative update), which makes overcounting rarer still. Popular items are by far the most
+ * accurate, which is what a top 3 needs.
+ * <p>
+ * Not thread-safe.
+ */
+final class TopItemsSketch {
+    static final int DEPTH = 4;
+    static final int WIDTH = 1024;
+    static final int CANDIDATES = 16;
+    static final int MAX_SKU_LENGTH = 32;
+
+    /** Counters, row by row. */
+    private final int[] mCounts = new int[DEPTH * WIDTH];
+    private final int[] mIndexes = new int[DEPTH];
+
+    /** Min-heap of candidates by estimated count: the least sold is at 0. */
+    private final String[] mSkus = new String[CANDIDATES];
+    private final int[] mSkuCounts = new int[CANDIDATES];
+    private int mSize;
+
+    /**
+     * Counts one sale of {@code sku}.
+     *
+     * @return whether the candidates changed
+     */
+    boolean add(String sku) {
+        if (sku == null || sku.isEmpty()) {
+            return false;
+        }
+        if (sku.length() > MAX_SKU_LENGTH) {
+            sku = sku.substring(0, MAX_SKU_LENGTH);
+        }
+        int estimate = estimate(sku) + 1;
+        // mIndexes still holds the SKU's counters.
+        for (int row = 0; row < DEPTH; row++) {
+            mCounts[mIndexes[row]] = Math.max(mCounts[mIndexes[row]], estimate);
+        }
+        return offer(sku, estimate);
+    }
+
+    /** Returns up to {@code count} SKUs, best-selling first. */
+    String[] getTopSkus(int count) {
+        int[] order = sortCandidates();
+        String[] skus = new String[Math.min(count, mSize)];
+        for (int i = 0; i < skus.length; i++) {
+            skus[i] = mSkus[order[i]];
+        }
+        return skus;
+    }
+
+    /** Returns the estimated sales of {@link #getTopSkus}, in the same order. */
+    long[] getTopCounts(int count) {
+        int[] order = sortCandidates();
+        long[] counts = new long[Math.min(count, mSize)];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = mSkuCounts[order[i]];
+        }
+        return counts;
+    }
+
+    void clear() {
+        Arrays.fill(mCounts, 0);
+        Arrays.fill(mSkus, null);
+        mSize = 0;
+    }
+
+    /** Returns the counters, for persisting them along with {@link #getTopSkus}. */
+    long[] getCounters() {
+        long[] counters = new long[mCounts.length];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = mCounts[i];
+        }
+        return counters;
+    }
+
+    /**
+     * Restores counters and candidates saved from {@link #getCounters} and
+     * {@link #getTopSkus}({@link #CANDIDATES}). Does nothing if they don't fit this sketch.
+     */
+    void restore(long[] counters, String[] skus) {
+        if (counters == null || skus == null || counters.length != mCounts.length) {
+            return;
+        }
+        clear();
+        for (int i = 0; i < counters.length; i++) {
+            mCounts[i] = (int) counters[i];
+        }
+        for (String sku : skus) {
+            offer(sku, estimate(sku));
+        }
+    }
+
+    /** Returns the current estimate for {@code sku}, leaving its counters in mIndexes. */
+    private int estimate(String sku) {
+        // One independent-enough index per row from two hashes (Kirsch-Mitzenmacher).
+        int hash1 = mix(sku.hashCode());
+        int hash2 = mix(hash1 ^ 0x9e3779b9) | 1;
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            mIndexes[row] = row * WIDTH + ((hash1 + row * hash2) & (WIDTH - 1));
+            estimate = Math.min(estimate, mCounts[mIndexes[row]]);
+        }
+        return estimate;
+    }
+
+    /** Updates or adds {@code sku} among the candidates, evicting the least sold if full. */
+    private boolean offer(String sku, int estimate) {
+        for (int i = 0; i < mSize; i++) {
+            if (mSkus[i].equals(sku)) {
+                // Estimates only grow, so the candidate can only sink down the heap.
+                mSkuCounts[i] = estimate;
+                siftDown(i);
+                return true;
+            }
+        }
+        if (mSize < CANDIDATES) {
+            mSkus[mSize] = sku;
+            mSkuCounts[mSize] = estimate;
+            siftUp(mSize++);
+            return true;
+        }
+        if (estimate <= mSkuCounts[0]) {
+            return false;
+        }
+        mSkus[0] = sku;
+        mSkuCounts[0] = estimate;
+        siftDown(0);
+        return true;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (mSkuCounts[parent] <= mSkuCounts[i]) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            if (left < mSize && mSkuCounts[left] < mSkuCounts[smallest]) {
+                smallest = left;
+            }
+            if (left + 1 < mSize && mSkuCounts[left + 1] < mSkuCounts[smallest]) {
+                smallest = left + 1;
+            }
+            if (smallest == i) {
+                return;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        String sku = mSkus[i];
+        mSkus[i] = mSkus[j];
+        mSkus[j] = sku;
+        int count = mSkuCounts[i];
+        mSkuCounts[i] = mSkuCounts[j];
+        mSkuCounts[j] = count;
+    }
+
+    /** Returns the candidates' positions by decreasing count. */
+    private int[] sortCandidates() {
+        int[] order = new int[mSize];
+        for (int i = 0; i < mSize; i++) {
+            int j = i;
+            // Insertion sort; there are only a handful.
+            while (j > 0 && mSkuCounts[order[j - 1]] < mSkuCounts[i]) {
+                order[j] = order[j - 1];
+                j--;
+            }
+            order[j] = i;
+        }
+        return order;
+    }
+
+    /** Murmur3's finalizer, so similar SKUs land far apart. */
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
@@ -0,0 +1,812 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+import android.util.SparseLongArray;
+
+import com.intuit.gopayment.android.event.GoPaymentDataEvent;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link TransactionLog} storing sales in SQLite, indexed by time, together with per-hour and
+ * per-day rollup tables. The rollups are updated in the same database transaction as the sales
+ * they include, so they're always consistent with them, and totals over any range of hours or
+ * days (today, this week, this month) are a single read of a primary key range instead of a sum
+ * over the raw sales.
+ * <p>
+ * {@link #appendAll} records a batch of sales in one transaction through prepared statements,
+ * updating each affected rollup row once per batch rather than once per sale.
+ * <p>
+ * Imported and corrected sales bypass the rollups; {@link RollupRebuilder} recomputes the
+ * affected days with {@link #aggregateDay}, which may run on several threads at once, and
+ * {@link #replaceRollups}. Imported sales are historical, so {@link #readSince} skips them.
+ * <p>
+ * Refunds and voids are stored as sales of 0 or less. They count towards the rollups' totals but
+ * not towards their counts, which are numbers of sales.
+ * <p>
+ * Sales in other currencies are converted into the store's with the rates last set by
+ * {@link #setFxRates} as they're recorded, so every total is in one currency. Those in a currency
+ * without a rate yet are left out of the totals until {@link #setFxRates} converts them.
+ */
+public class TransactionDatabase extends SQLiteOpenHelper implements TransactionLog {
+    private static final String DATABASE_NAME = "transactions.db";
+    private static final int DATABASE_VERSION = 7;
+
+    private static final long HOUR_MS = TimeUnit.HOURS.toMillis(1);
+
+    private static final String TABLE_TRANSACTIONS = "transactions";
+    private static final String TABLE_HOURLY_ROLLUPS = "hourly_rollups";
+    private static final String TABLE_DAILY_ROLLUPS = "daily_rollups";
+    private static final String TABLE_FX_RATES = "fx_rates";
+
+    private static final String COLUMN_ID = "_id";
+    private static final String COLUMN_TIME = "time";
+    private static final String COLUMN_AMOUNT_CENTS = "amount_cents";
+    /** Who made the sale and where, 0 if unknown. */
+    private static final String COLUMN_EMPLOYEE_ID = "employee_id";
+    private static final String COLUMN_LOCATION_ID = "location_id";
+    /** SKUs of the sale's line items, joined by {@link #SKU_SEPARATOR}; null if unknown. */
+    private static final String COLUMN_SKUS = "skus";
+    /** ISO 4217 code of the amount's currency; null for the store's own. */
+    private static final String COLUMN_CURRENCY = "currency";
+    /**
+     * The amount converted into the store's currency when recorded, which every total sums; null
+     * while there's no rate for its currency.
+     */
+    private static final String COLUMN_STORE_AMOUNT_CENTS = "store_amount_cents";
+    /**
+     * Value of one unit of a currency in the store's, in millionths
+     * ({@link DigitalWatchFaceCompanionUtil#FX_RATE_SCALE}).
+     */
+    private static final String COLUMN_RATE = "rate";
+    /** 1 for sales added by {@link #importAll}, 0 for live ones. */
+    private static final String COLUMN_IMPORTED = "imported";
+    /** Start of the local hour, in milliseconds. */
+    private static final String COLUMN_HOUR_START = "hour_start";
+    /** Local day, formatted by {@link DigitalWatchFaceCompanionUtil#formatDayKey}. */
+    private static final String COLUMN_DAY = "day";
+    private static final String COLUMN_TOTAL_CENTS = "total_cents";
+    private static final String COLUMN_COUNT = "count";
+
+    private static final String SKU_SEPARATOR = "\n";
+
+    /** Sums of the sales in a range of rollups. */
+    public static final class Totals {
+        private final long mTotalCents;
+        private final long mCount;
+
+        Totals(long totalCents, long count) {
+            mTotalCents = totalCents;
+            mCount = count;
+        }
+
+        public long getTotalCents() {
+            return mTotalCents;
+        }
+
+        /** Returns the number of sales, refunds and voids excluded. */
+        public long getCount() {
+            return mCount;
+        }
+    }
+
+    /** Rollups of one local day, as computed from its sales by {@link #aggregateDay}. */
+    static final class DayRollup {
+        final String mDayKey;
+        final long mStartMs;
+        final long mEndMs;
+        /** {total, count} by hour start. */
+        final Map<Long, long[]> mHours = new HashMap<Long, long[]>();
+        long mTotalCents;
+        long mCount;
+
+        DayRollup(String dayKey, long startMs, long endMs) {
+            mDayKey = dayKey;
+            mStartMs = startMs;
+            mEndMs = endMs;
+        }
+
+        void add(Calendar calendar, long timeMs, long amountCents) {
+            addDelta(mHours, getHourStart(calendar, timeMs), amountCents);
+            mTotalCents += amountCents;
+            if (amountCents > 0) {
+                mCount++;
+            }
+        }
+    }
+
+    /** A consistent view of a day's rollups and the id of the last live sale they include. */
+    static final class DaySnapshot {
+        final long mTotalCents;
+        final int mCount;
+        final long[] mHourTotalsCents;
+        final SparseLongArray mEmployeeTotalsCents;
+        final SparseLongArray mLocationTotalsCents;
+        final long mLastLiveId;
+
+        DaySnapshot(long totalCents, int count, long[] hourTotalsCents,
+                SparseLongArray employeeTotalsCents, SparseLongArray locationTotalsCents,
+                long lastLiveId) {
+            mTotalCents = totalCents;
+            mCount = count;
+            mHourTotalsCents = hourTotalsCents;
+            mEmployeeTotalsCents = employeeTotalsCents;
+            mLocationTotalsCents = locationTotalsCents;
+            mLastLiveId = lastLiveId;
+        }
+    }
+
+    private Listener mListener;
+    /** Rates by currency code, loaded on first use. */
+    private Map<String, Long> mFxRates;
+
+    // Prepared on first use and reused for every batch.
+    private SQLiteStatement mInsertTransaction;
+    private SQLiteStatement mInsertHourlyRollup;
+    private SQLiteStatement mUpdateHourlyRollup;
+    private SQLiteStatement mInsertDailyRollup;
+    private SQLiteStatement mUpdateDailyRollup;
+    private SQLiteStatement mInsertImportedTransaction;
+
+    public TransactionDatabase(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_TRANSACTIONS + " ("
+                + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COLUMN_TIME + " INTEGER NOT NULL, "
+                + COLUMN_AMOUNT_CENTS + " INTEGER NOT NULL, "
+                + COLUMN_IMPORTED + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_EMPLOYEE_ID + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_LOCATION_ID + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_SKUS + " TEXT, "
+                + COLUMN_CURRENCY + " TEXT, "
+                + COLUMN_STORE_AMOUNT_CENTS + " INTEGER)");
+        db.execSQL("CREATE INDEX " + TABLE_TRANSACTIONS + "_" + COLUMN_TIME + " ON "
+                + TABLE_TRANSACTIONS + " (" + COLUMN_TIME + ")");
+        db.execSQL("CREATE TABLE " + TABLE_HOURLY_ROLLUPS + " ("
+                + COLUMN_HOUR_START + " INTEGER PRIMARY KEY, "
+                + COLUMN_TOTAL_CENTS + " INTEGER NOT NULL, "
+                + COLUMN_COUNT + " INTEGER NOT NULL)");
+        db.execSQL("CREATE TABLE " + TABLE_DAILY_ROLLUPS + " ("
+                + COLUMN_DAY + " TEXT PRIMARY KEY, "
+                + COLUMN_TOTAL_CENTS + " INTEGER NOT NULL, "
+                + COLUMN_COUNT + " INTEGER NOT NULL)");
+        createFxRatesTable(db);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // Lets the rebuild read several days at once while sales keep being recorded.
+        db.enableWriteAheadLogging();
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            db.execSQL("ALTER TABLE " + TABLE_TRANSACTIONS + " ADD COLUMN " + COLUMN_IMPORTED
+                    + " INTEGER NOT NULL DEFAULT 0");
+        }
+        if (oldVersion < 3) {
+            db.execSQL("ALTER TABLE " + TABLE_TRANSACTIONS + " ADD COLUMN " + COLUMN_EMPLOYEE_ID
+                    + " INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE " + TABLE_TRANSACTIONS + " ADD COLUMN " + COLUMN_LOCATION_ID
+                    + " INTEGER NOT NULL DEFAULT 0");
+        }
+        if (oldVersion < 4) {
+            db.execSQL("ALTER TABLE " + TABLE_TRANSACTIONS + " ADD COLUMN " + COLUMN_SKUS
+                    + " TEXT");
+        }
+        if (oldVersion < 5) {
+            db.execSQL("ALTER TABLE " + TABLE_TRANSACTIONS + " ADD COLUMN " + COLUMN_CURRENCY
+                    + " TEXT");
+        }
+        if (oldVersion < 7) {
+            db.execSQL("ALTER TABLE " + TABLE_TRANSACTIONS + " ADD COLUMN "
+                    + COLUMN_STORE_AMOUNT_CENTS + " INTEGER");
+            db.execSQL("UPDATE " + TABLE_TRANSACTIONS + " SET " + COLUMN_STORE_AMOUNT_CENTS
+                    + " = " + COLUMN_AMOUNT_CENTS + " WHERE " + COLUMN_CURRENCY + " IS NULL OR "
+                    + COLUMN_CURRENCY + " = ?",
+                    new Object[] {DigitalWatchFaceCompanionUtil.getStoreCurrency()});
+            createFxRatesTable(db);
+            // Also recounts databases from before version 6, whose counts included refunds and
+            // voids.
+            recomputeRollups(db);
+        }
+    }
+
+    @Override
+    public GoPaymentDataEvent append(long timeMs, long amountCents, int employeeId,
+            int locationId, String[] skus, String currency) {
+        long[] ids = appendAll(new long[] {timeMs}, new long[] {amountCents},
+                new int[] {employeeId}, new int[] {locationId}, new String[][] {skus},
+                new String[] {currency});
+        long storeAmountCents;
+        synchronized (this) {
+            storeAmountCents = toStoreCents(currency, amountCents);
+        }
+        return new GoPaymentDataEvent(ids[0], timeMs, amountCents, employeeId, locationId,
+                skus, currency, storeAmountCents);
+    }
+
+    /**
+     * Records a batch of sales, the {@code i}th made at {@code timesMs[i]} for
+     * {@code amountsCents[i]} by {@code employeeIds[i]} at {@code locationIds[i]}, and updates
+     * the rollups in the same transaction. The amounts are in the store's currency.
+     *
+     * @return the ids given to the sales
+     */
+    public long[] appendAll(long[] timesMs, long[] amountsCents, int[] employeeIds,
+            int[] locationIds) {
+        return appendAll(timesMs, amountsCents, employeeIds, locationIds, null, null);
+    }
+
+    /**
+     * Like {@link #appendAll(long[], long[], int[], int[])}, with each sale's SKUs and currency
+     * if known.
+     */
+    private long[] appendAll(long[] timesMs, long[] amountsCents, int[] employeeIds,
+            int[] locationIds, String[][] skus, String[] currencies) {
+        checkBatch(timesMs, amountsCents, employeeIds, locationIds);
+        long[] ids = new long[timesMs.length];
+        Listener listener;
+        synchronized (this) {
+            SQLiteDatabase db = getWritableDatabase();
+            prepareStatements(db);
+            Map<Long, long[]> hourlyDeltas = new HashMap<Long, long[]>();
+            Map<String, long[]> dailyDeltas = new HashMap<String, long[]>();
+            Calendar calendar = Calendar.getInstance();
+            db.beginTransaction();
+            try {
+                for (int i = 0; i < timesMs.length; i++) {
+                    mInsertTransaction.bindLong(1, timesMs[i]);
+                    mInsertTransaction.bindLong(2, amountsCents[i]);
+                    mInsertTransaction.bindLong(3, employeeIds[i]);
+                    mInsertTransaction.bindLong(4, locationIds[i]);
+                    if (skus != null && skus[i] != null) {
+                        mInsertTransaction.bindString(5, TextUtils.join(SKU_SEPARATOR, skus[i]));
+                    } else {
+                        mInsertTransaction.bindNull(5);
+                    }
+                    if (currencies != null && currencies[i] != null) {
+                        mInsertTransaction.bindString(6, currencies[i]);
+                    } else {
+                        mInsertTransaction.bindNull(6);
+                    }
+                    long storeAmountCents = toStoreCents(
+                            currencies != null ? currencies[i] : null, amountsCents[i]);
+                    bindStoreAmount(mInsertTransaction, 7, storeAmountCents);
+                    ids[i] = mInsertTransaction.executeInsert();
+
+                    if (storeAmountCents == GoPaymentDataEvent.NO_STORE_AMOUNT) {
+                        continue;
+                    }
+                    addDelta(hourlyDeltas, getHourStart(calendar, timesMs[i]), storeAmountCents);
+                    addDelta(dailyDeltas, DigitalWatchFaceCompanionUtil.formatDayKey(timesMs[i]),
+                            storeAmountCents);
+                }
+                for (Map.Entry<Long, long[]> delta : hourlyDeltas.entrySet()) {
+                    mInsertHourlyRollup.bindLong(1, delta.getKey());
+                    mInsertHourlyRollup.execute();
+                    applyDelta(mUpdateHourlyRollup, delta.getValue());
+                    mUpdateHourlyRollup.bindLong(3, delta.getKey());
+                    mUpdateHourlyRollup.execute();
+                }
+                for (Map.Entry<String, long[]> delta : dailyDeltas.entrySet()) {
+                    mInsertDailyRollup.bindString(1, delta.getKey());
+                    mInsertDailyRollup.execute();
+                    applyDelta(mUpdateDailyRollup, delta.getValue());
+                    mUpdateDailyRollup.bindString(3, delta.getKey());
+                    mUpdateDailyRollup.execute();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            listener = mListener;
+        }
+        if (listener != null) {
+            listener.onTransactionsAvailable();
+        }
+        return ids;
+    }
+
+    /**
+     * Records past sales without updating the rollups or notifying the listener; rebuild the
+     * rollups of their days afterwards.
+     */
+    public synchronized void importAll(long[] timesMs, long[] amountsCents, int[] employeeIds,
+            int[] locationIds) {
+        checkBatch(timesMs, amountsCents, employeeIds, locationIds);
+        SQLiteDatabase db = getWritableDatabase();
+        prepareStatements(db);
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < timesMs.length; i++) {
+                mInsertImportedTransaction.bindLong(1, timesMs[i]);
+                mInsertImportedTransaction.bindLong(2, amountsCents[i]);
+                mInsertImportedTransaction.bindLong(3, employeeIds[i]);
+                mInsertImportedTransaction.bindLong(4, locationIds[i]);
+                mInsertImportedTransaction.bindLong(5, amountsCents[i]);
+                mInsertImportedTransaction.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Changes the amount of sale {@code id} without updating the rollups; rebuild the rollups of
+     * its day afterwards.
+     *
+     * @return the time of the sale, or -1 if there's no such sale
+     */
+    public synchronized long correctAmount(long id, long amountCents) {
+        SQLiteDatabase db = getWritableDatabase();
+        String[] idArgs = {Long.toString(id)};
+        Cursor cursor = db.rawQuery("SELECT " + COLUMN_TIME + ", " + COLUMN_CURRENCY + " FROM "
+                + TABLE_TRANSACTIONS + " WHERE " + COLUMN_ID + " = ?", idArgs);
+        try {
+            if (!cursor.moveToFirst()) {
+                return -1;
+            }
+            long storeAmountCents = toStoreCents(cursor.getString(1), amountCents);
+            Long storeAmount = storeAmountCents != GoPaymentDataEvent.NO_STORE_AMOUNT
+                    ? storeAmountCents : null;
+            db.execSQL("UPDATE " + TABLE_TRANSACTIONS + " SET " + COLUMN_AMOUNT_CENTS + " = ?, "
+                    + COLUMN_STORE_AMOUNT_CENTS + " = ? WHERE " + COLUMN_ID + " = ?",
+                    new Object[] {amountCents, storeAmount, id});
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Returns the largest id given to a sale so far, live or imported. */
+    public synchronized long getLastId() {
+        return queryLong("SELECT IFNULL(MAX(" + COLUMN_ID + "), 0) FROM " + TABLE_TRANSACTIONS,
+                null);
+    }
+
+    /**
+     * Computes the rollups of the day from {@code startMs} to {@code endMs} from the sales with
+     * ids up to {@code lastId}. Only reads, and isn't synchronized, so several days can be
+     * aggregated in parallel.
+     */
+    DayRollup aggregateDay(String dayKey, long startMs, long endMs, long lastId) {
+        DayRollup day = new DayRollup(dayKey, startMs, endMs);
+        addSales(day, COLUMN_ID + " <= ?", Long.toString(lastId));
+        return day;
+    }
+
+    /**
+     * Replaces the rollups of {@code days} in one transaction. Sales recorded after
+     * {@code lastId}, which the days were aggregated up to, are added in first.
+     *
+     * @return the new totals of the days whose total changed, by day key
+     */
+    synchronized Map<String, Long> replaceRollups(List<DayRollup> days, long lastId) {
+        Map<String, Long> changedTotals = new HashMap<String, Long>();
+        SQLiteDatabase db = getWritableDatabase();
+        prepareStatements(db);
+        db.beginTransaction();
+        try {
+            for (DayRollup day : days) {
+                addSales(day, COLUMN_ID + " > ?", Long.toString(lastId));
+                String[] dayArgs = {day.mDayKey};
+                long oldTotalCents = queryLong("SELECT IFNULL(MAX(" + COLUMN_TOTAL_CENTS
+                        + "), 0) FROM " + TABLE_DAILY_ROLLUPS + " WHERE " + COLUMN_DAY + " = ?",
+                        dayArgs);
+
+                db.delete(TABLE_HOURLY_ROLLUPS, COLUMN_HOUR_START + " >= ? AND "
+                        + COLUMN_HOUR_START + " < ?", new String[] {
+                                Long.toString(day.mStartMs), Long.toString(day.mEndMs)});
+                db.delete(TABLE_DAILY_ROLLUPS, COLUMN_DAY + " = ?", dayArgs);
+                for (Map.Entry<Long, long[]> hour : day.mHours.entrySet()) {
+                    mInsertHourlyRollup.bindLong(1, hour.getKey());
+                    mInsertHourlyRollup.execute();
+                    applyDelta(mUpdateHourlyRollup, hour.getValue());
+                    mUpdateHourlyRollup.bindLong(3, hour.getKey());
+                    mUpdateHourlyRollup.execute();
+                }
+                if (!day.mHours.isEmpty()) {
+                    mInsertDailyRollup.bindString(1, day.mDayKey);
+                    mInsertDailyRollup.execute();
+                    applyDelta(mUpdateDailyRollup, new long[] {day.mTotalCents, day.mCount});
+                    mUpdateDailyRollup.bindString(3, day.mDayKey);
+                    mUpdateDailyRollup.execute();
+                }
+                if (day.mTotalCents != oldTotalCents) {
+                    changedTotals.put(day.mDayKey, day.mTotalCents);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return changedTotals;
+    }
+
+    /**
+     * Reads the rollups of the day from {@code startMs} to {@code endMs} together with the id of
+     * the last live sale, so that a reader can continue with {@link #readSince} without counting
+     * any sale twice.
+     */
+    synchronized DaySnapshot readDay(String dayKey, long startMs, long endMs) {
+        Totals totals = queryDays(dayKey, dayKey);
+        long[] hourTotalsCents = new long[24];
+        Calendar calendar = Calendar.getInstance();
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT " + COLUMN_HOUR_START + ", "
+                + COLUMN_TOTAL_CENTS + " FROM " + TABLE_HOURLY_ROLLUPS + " WHERE "
+                + COLUMN_HOUR_START + " >= ? AND " + COLUMN_HOUR_START + " < ?",
+                new String[] {Long.toString(startMs), Long.toString(endMs)});
+        try {
+            while (cursor.moveToNext()) {
+                calendar.setTimeInMillis(cursor.getLong(0));
+                hourTotalsCents[calendar.get(Calendar.HOUR_OF_DAY)] += cursor.getLong(1);
+            }
+        } finally {
+            cursor.close();
+        }
+        long lastLiveId = queryLong("SELECT IFNULL(MAX(" + COLUMN_ID + "), 0) FROM "
+                + TABLE_TRANSACTIONS + " WHERE " + COLUMN_IMPORTED + " = 0", null);
+        return new DaySnapshot(totals.getTotalCents(), (int) totals.getCount(), hourTotalsCents,
+                sumSalesBy(COLUMN_EMPLOYEE_ID, startMs, endMs),
+                sumSalesBy(COLUMN_LOCATION_ID, startMs, endMs), lastLiveId);
+    }
+
+    @Override
+    public synchronized List<GoPaymentDataEvent> readSince(long afterId, int maxCount) {
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT " + COLUMN_ID + ", "
+                + COLUMN_TIME + ", " + COLUMN_AMOUNT_CENTS + ", " + COLUMN_EMPLOYEE_ID + ", "
+                + COLUMN_LOCATION_ID + ", " + COLUMN_SKUS + ", " + COLUMN_CURRENCY + ", "
+                + COLUMN_STORE_AMOUNT_CENTS + " FROM " + TABLE_TRANSACTIONS
+                + " WHERE " + COLUMN_ID + " > ? AND " + COLUMN_IMPORTED + " = 0 ORDER BY "
+                + COLUMN_ID + " LIMIT ?",
+                new String[] {Long.toString(afterId), Integer.toString(maxCount)});
+        try {
+            List<GoPaymentDataEvent> events = new ArrayList<GoPaymentDataEvent>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                String[] skus = cursor.isNull(5) ? null
+                        : TextUtils.split(cursor.getString(5), SKU_SEPARATOR);
+                events.add(new GoPaymentDataEvent(cursor.getLong(0), cursor.getLong(1),
+                        cursor.getLong(2), cursor.getInt(3), cursor.getInt(4), skus,
+                        cursor.getString(6),
+                        cursor.isNull(7) ? GoPaymentDataEvent.NO_STORE_AMOUNT : cursor.getLong(7)));
+            }
+            return events;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Returns the totals of the days from {@code fromDayKey} to {@code toDayKey}, inclusive. */
+    public synchronized Totals queryDays(String fromDayKey, String toDayKey) {
+        return queryTotals(TABLE_DAILY_ROLLUPS, COLUMN_DAY + " BETWEEN ? AND ?",
+                new String[] {fromDayKey, toDayKey});
+    }
+
+    /**
+     * Returns the totals of the hours starting at or after {@code fromMs} and before
+     * {@code toMs}.
+     */
+    public synchronized Totals queryHours(long fromMs, long toMs) {
+        return queryTotals(TABLE_HOURLY_ROLLUPS,
+                COLUMN_HOUR_START + " >= ? AND " + COLUMN_HOUR_START + " < ?",
+                new String[] {Long.toString(fromMs), Long.toString(toMs)});
+    }
+
+    /**
+     * Replaces the exchange rates: one unit of the currency with ISO 4217 code
+     * {@code currencies[i]} is worth {@code rates[i]} millionths
+     * ({@link DigitalWatchFaceCompanionUtil#FX_RATE_SCALE}) of the store's currency. Sales
+     * recorded without a rate for their currency are converted, without updating the rollups;
+     * rebuild the rollups of their days afterwards.
+     *
+     * @return the times of the first and last sales converted, or null if there were none
+     */
+    public synchronized long[] setFxRates(String[] currencies, long[] rates) {
+        SQLiteDatabase db = getWritableDatabase();
+        Map<String, Long> fxRates = new HashMap<String, Long>();
+        long[] convertedTimesMs = null;
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_FX_RATES, null, null);
+            for (int i = 0; i < currencies.length; i++) {
+                db.execSQL("INSERT OR REPLACE INTO " + TABLE_FX_RATES + " VALUES (?, ?)",
+                        new Object[] {currencies[i], rates[i]});
+                fxRates.put(currencies[i], rates[i]);
+            }
+            mFxRates = fxRates;
+
+            Cursor cursor = db.rawQuery("SELECT " + COLUMN_ID + ", " + COLUMN_TIME + ", "
+                    + COLUMN_AMOUNT_CENTS + ", " + COLUMN_CURRENCY + " FROM " + TABLE_TRANSACTIONS
+                    + " WHERE " + COLUMN_STORE_AMOUNT_CENTS + " IS NULL", null);
+            try {
+                while (cursor.moveToNext()) {
+                    long storeAmountCents = toStoreCents(cursor.getString(3), cursor.getLong(2));
+                    if (storeAmountCents == GoPaymentDataEvent.NO_STORE_AMOUNT) {
+                        continue;
+                    }
+                    db.execSQL("UPDATE " + TABLE_TRANSACTIONS + " SET "
+                            + COLUMN_STORE_AMOUNT_CENTS + " = ? WHERE " + COLUMN_ID + " = ?",
+                            new Object[] {storeAmountCents, cursor.getLong(0)});
+                    long timeMs = cursor.getLong(1);
+                    if (convertedTimesMs == null) {
+                        convertedTimesMs = new long[] {timeMs, timeMs};
+                    } else {
+                        convertedTimesMs[0] = Math.min(convertedTimesMs[0], timeMs);
+                        convertedTimesMs[1] = Math.max(convertedTimesMs[1], timeMs);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return convertedTimesMs;
+    }
+
+    @Override
+    public synchronized void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (mInsertTransaction != null) {
+            mInsertTransaction.close();
+            mInsertHourlyRollup.close();
+            mUpdateHourlyRollup.close();
+            mInsertDailyRollup.close();
+            mUpdateDailyRollup.close();
+            mInsertImportedTransaction.close();
+            mInsertTransaction = null;
+        }
+        super.close();
+    }
+
+    /** Adds the sales of {@code day} matching {@code selection} on one id argument. */
+    private void addSales(DayRollup day, String selection, String idArg) {
+        Calendar calendar = Calendar.getInstance();
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT " + COLUMN_TIME + ", "
+                + COLUMN_STORE_AMOUNT_CENTS + " FROM " + TABLE_TRANSACTIONS + " WHERE "
+                + COLUMN_TIME + " >= ? AND " + COLUMN_TIME + " < ? AND "
+                + COLUMN_STORE_AMOUNT_CENTS + " IS NOT NULL AND " + selection, new String[] {
+                        Long.toString(day.mStartMs), Long.toString(day.mEndMs), idArg});
+        try {
+            while (cursor.moveToNext()) {
+                day.add(calendar, cursor.getLong(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the totals of the sales from {@code startMs} to {@code endMs} by the id in
+     * {@code idColumn}, in the store's currency, leaving out unknown ids and sales not converted
+     * yet. Reads through the time index.
+     */
+    private SparseLongArray sumSalesBy(String idColumn, long startMs, long endMs) {
+        SparseLongArray totals = new SparseLongArray();
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT " + idColumn + ", SUM("
+                + COLUMN_STORE_AMOUNT_CENTS + ") FROM " + TABLE_TRANSACTIONS + " WHERE "
+                + COLUMN_TIME + " >= ? AND " + COLUMN_TIME + " < ? AND " + idColumn + " != 0 AND "
+                + COLUMN_STORE_AMOUNT_CENTS + " IS NOT NULL GROUP BY " + idColumn,
+                new String[] {Long.toString(startMs), Long.toString(endMs)});
+        try {
+            while (cursor.moveToNext()) {
+                totals.put(cursor.getInt(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return totals;
+    }
+
+    private long queryLong(String sql, String[] selectionArgs) {
+        Cursor cursor = getReadableDatabase().rawQuery(sql, selectionArgs);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Totals queryTotals(String table, String selection, String[] selectionArgs) {
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT IFNULL(SUM(" + COLUMN_TOTAL_CENTS
+                + "), 0), IFNULL(SUM(" + COLUMN_COUNT + "), 0) FROM " + table + " WHERE "
+                + selection, selectionArgs);
+        try {
+            cursor.moveToFirst();
+            return new Totals(cursor.getLong(0), cursor.getLong(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void prepareStatements(SQLiteDatabase db) {
+        if (mInsertTransaction != null) {
+            return;
+        }
+        mInsertTransaction = db.compileStatement("INSERT INTO " + TABLE_TRANSACTIONS + " ("
+                + COLUMN_TIME + ", " + COLUMN_AMOUNT_CENTS + ", " + COLUMN_EMPLOYEE_ID + ", "
+                + COLUMN_LOCATION_ID + ", " + COLUMN_SKUS + ", " + COLUMN_CURRENCY + ", "
+                + COLUMN_STORE_AMOUNT_CENTS + ") VALUES (?, ?, ?, ?, ?, ?, ?)");
+        mInsertHourlyRollup = db.compileStatement("INSERT OR IGNORE INTO " + TABLE_HOURLY_ROLLUPS
+                + " VALUES (?, 0, 0)");
+        mUpdateHourlyRollup = db.compileStatement(updateRollupSql(TABLE_HOURLY_ROLLUPS,
+                COLUMN_HOUR_START));
+        mInsertDailyRollup = db.compileStatement("INSERT OR IGNORE INTO " + TABLE_DAILY_ROLLUPS
+                + " VALUES (?, 0, 0)");
+        mUpdateDailyRollup = db.compileStatement(updateRollupSql(TABLE_DAILY_ROLLUPS,
+                COLUMN_DAY));
+        mInsertImportedTransaction = db.compileStatement("INSERT INTO " + TABLE_TRANSACTIONS
+                + " (" + COLUMN_TIME + ", " + COLUMN_AMOUNT_CENTS + ", " + COLUMN_EMPLOYEE_ID
+                + ", " + COLUMN_LOCATION_ID + ", " + COLUMN_STORE_AMOUNT_CENTS + ", "
+                + COLUMN_IMPORTED + ") VALUES (?, ?, ?, ?, ?, 1)");
+    }
+
+    /**
+     * Returns {@code amountCents} of {@code currency}, or of the store's currency if null,
+     * converted into the store's currency, or {@link GoPaymentDataEvent#NO_STORE_AMOUNT} if
+     * there's no rate for it.
+     */
+    private long toStoreCents(String currency, long amountCents) {
+        if (currency == null || currency.equals(DigitalWatchFaceCompanionUtil.getStoreCurrency())) {
+            return amountCents;
+        }
+        if (mFxRates == null) {
+            mFxRates = new HashMap<String, Long>();
+            Cursor cursor = getReadableDatabase().rawQuery("SELECT " + COLUMN_CURRENCY + ", "
+                    + COLUMN_RATE + " FROM " + TABLE_FX_RATES, null);
+            try {
+                while (cursor.moveToNext()) {
+                    mFxRates.put(cursor.getString(0), cursor.getLong(1));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        Long rate = mFxRates.get(currency);
+        return rate != null ? DigitalWatchFaceCompanionUtil.convertCents(amountCents, rate)
+                : GoPaymentDataEvent.NO_STORE_AMOUNT;
+    }
+
+    private static void checkBatch(long[] timesMs, long[] amountsCents, int[] employeeIds,
+            int[] locationIds) {
+        if (amountsCents.length != timesMs.length || employeeIds.length != timesMs.length
+                || locationIds.length != timesMs.length) {
+            throw new IllegalArgumentException("Batch arrays differ in length: "
+                    + timesMs.length + " times, " + amountsCents.length + " amounts, "
+                    + employeeIds.length + " employees, " + locationIds.length + " locations");
+        }
+    }
+
+    private static String updateRollupSql(String table, String keyColumn) {
+        return "UPDATE " + table + " SET "
+                + COLUMN_TOTAL_CENTS + " = " + COLUMN_TOTAL_CENTS + " + ?, "
+                + COLUMN_COUNT + " = " + COLUMN_COUNT + " + ? WHERE " + keyColumn + " = ?";
+    }
+
+    /**
+     * Adds one sale of {@code amountCents} to the {total, count} delta of {@code key}, counting
+     * it only if it isn't a refund or void.
+     */
+    private static <K> void addDelta(Map<K, long[]> deltas, K key, long amountCents) {
+        long[] delta = deltas.get(key);
+        if (delta == null) {
+            delta = new long[2];
+            deltas.put(key, delta);
+        }
+        delta[0] += amountCents;
+        if (amountCents > 0) {
+            delta[1]++;
+        }
+    }
+
+    private static void createFxRatesTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_FX_RATES + " ("
+                + COLUMN_CURRENCY + " TEXT PRIMARY KEY, "
+                + COLUMN_RATE + " INTEGER NOT NULL)");
+    }
+
+    /**
+     * Recomputes the totals and counts of the rollups from the store amounts of their sales, for
+     * databases whose totals added up amounts in any currency.
+     */
+    private static void recomputeRollups(SQLiteDatabase db) {
+        String hourSales = " FROM " + TABLE_TRANSACTIONS + " WHERE " + COLUMN_TIME + " >= "
+                + COLUMN_HOUR_START + " AND " + COLUMN_TIME + " < " + COLUMN_HOUR_START + " + "
+                + HOUR_MS;
+        db.execSQL("UPDATE " + TABLE_HOURLY_ROLLUPS + " SET " + COLUMN_TOTAL_CENTS
+                + " = (SELECT IFNULL(SUM(" + COLUMN_STORE_AMOUNT_CENTS + "), 0)" + hourSales
+                + "), " + COLUMN_COUNT + " = (SELECT COUNT(*)" + hourSales + " AND "
+                + COLUMN_STORE_AMOUNT_CENTS + " > 0)");
+        List<String> dayKeys = new ArrayList<String>();
+        Cursor cursor = db.rawQuery("SELECT " + COLUMN_DAY + " FROM " + TABLE_DAILY_ROLLUPS,
+                null);
+        try {
+            while (cursor.moveToNext()) {
+                dayKeys.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        String dayHours = "), 0) FROM " + TABLE_HOURLY_ROLLUPS + " WHERE " + COLUMN_HOUR_START
+                + " >= ?1 AND " + COLUMN_HOUR_START + " < ?2)";
+        Calendar calendar = Calendar.getInstance();
+        for (String dayKey : dayKeys) {
+            calendar.clear();
+            calendar.set(Integer.parseInt(dayKey.substring(0, 4)),
+                    Integer.parseInt(dayKey.substring(5, 7)) - 1,
+                    Integer.parseInt(dayKey.substring(8, 10)));
+            long startMs = calendar.getTimeInMillis();
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+            db.execSQL("UPDATE " + TABLE_DAILY_ROLLUPS + " SET " + COLUMN_TOTAL_CENTS
+                    + " = (SELECT IFNULL(SUM(" + COLUMN_TOTAL_CENTS + dayHours + ", "
+                    + COLUMN_COUNT + " = (SELECT IFNULL(SUM(" + COLUMN_COUNT + dayHours
+                    + " WHERE " + COLUMN_DAY + " = ?3",
+                    new Object[] {startMs, calendar.getTimeInMillis(), dayKey});
+        }
+    }
+
+    /**
+     * Binds {@code storeAmountCents} to {@code index}, or null if it's
+     * {@link GoPaymentDataEvent#NO_STORE_AMOUNT}.
+     */
+    private static void bindStoreAmount(SQLiteStatement statement, int index,
+            long storeAmountCents) {
+        if (storeAmountCents != GoPaymentDataEvent.NO_STORE_AMOUNT) {
+            statement.bindLong(index, storeAmountCents);
+        } else {
+            statement.bindNull(index);
+        }
+    }
+
+    private static void applyDelta(SQLiteStatement update, long[] delta) {
+        update.bindLong(1, delta[0]);
+        update.bindLong(2, delta[1]);
+    }
+
+    private static long getHourStart(Calendar calendar, long timeMs) {
+        calendar.setTimeInMillis(timeMs);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import com.intuit.gopayment.android.event.GoPaymentDataEvent;
+
+import java.io.IOException;
+
+/** A {@link TransactionSource} that sales can also be recorded into. */
+public interface TransactionLog extends TransactionSource {
+
+    /**
+     * Records a sale of {@code amountCents} made at {@code timeMs} by {@code employeeId} at
+     * {@code locationId}, either of which may be 0 if unknown, and notifies the listener.
+     * {@code skus} are the SKUs of its line items, or null if unknown, and {@code currency} the
+     * ISO 4217 code of the amount's currency, or null for the store's own; logs that can't store
+     * them drop them.
+     *
+     * @return the recorded sale, with the id it was given
+     */
+    GoPaymentDataEvent append(long timeMs, long amountCents, int employeeId, int locationId,
+            String[] skus, String currency) throws IOException;
+}
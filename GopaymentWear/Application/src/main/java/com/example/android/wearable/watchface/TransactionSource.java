@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import com.intuit.gopayment.android.event.GoPaymentDataEvent;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Where {@link PaymentAggregationService} reads completed sales from. Reads are incremental: the
+ * caller keeps the id of the last sale it has seen as a cursor and only ever asks for the sales
+ * after it, so the cost of a read doesn't grow with the length of the trading day.
+ */
+public interface TransactionSource {
+
+    /** Notified when sales may be available after the last cursor read. */
+    interface Listener {
+        /** Called on an arbitrary thread. */
+        void onTransactionsAvailable();
+    }
+
+    /**
+     * Returns up to {@code maxCount} sales whose id is greater than {@code afterId}, oldest
+     * first. Pass 0 to read from the beginning. Blocks, so must not be called on the main thread.
+     */
+    List<GoPaymentDataEvent> readSince(long afterId, int maxCount) throws IOException;
+
+    /** Sets the listener notified of new sales, or clears it if {@code listener} is null. */
+    void setListener(Listener listener);
+
+    /** Releases the resources held by this source. */
+    void close();
+}
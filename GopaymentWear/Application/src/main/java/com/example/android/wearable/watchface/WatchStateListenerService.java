@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import android.net.Uri;
+import android.util.Log;
+
+import com.google.android.gms.wearable.DataEvent;
+import com.google.android.gms.wearable.DataEventBuffer;
+import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.MessageEvent;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.WearableListenerService;
+
+/**
+ * A {@link WearableListenerService} forwarding to {@link WatchUpdateSender} what it needs to know
+ * about the watches: the watch state each watch face publishes, which throttles the pushes and
+ * carries the employee and location the watch subscribes to, the acknowledgements of live data
+ * messages, and watches connecting and disconnecting.
+ */
+public class WatchStateListenerService extends WearableListenerService {
+    private static final String TAG = "WatchStateListener";
+
+    @Override // WearableListenerService
+    public void onDataChanged(DataEventBuffer dataEvents) {
+        try {
+            for (DataEvent dataEvent : dataEvents) {
+                Uri uri = dataEvent.getDataItem().getUri();
+                if (!DigitalWatchFaceCompanionUtil.PATH_WATCH_STATE.equals(uri.getPath())) {
+                    continue;
+                }
+                // A deleted item means the watch face was uninstalled or replaced.
+                int watchState = DigitalWatchFaceCompanionUtil.WATCH_STATE_HIDDEN;
+                int employeeId = DigitalWatchFaceCompanionUtil.NO_ID;
+                int locationId = DigitalWatchFaceCompanionUtil.NO_ID;
+                if (dataEvent.getType() == DataEvent.TYPE_CHANGED) {
+                    DataMap dataMap = DataMapItem.fromDataItem(dataEvent.getDataItem())
+                            .getDataMap();
+                    watchState = dataMap.getInt(DigitalWatchFaceCompanionUtil.KEY_WATCH_STATE,
+                            DigitalWatchFaceCompanionUtil.WATCH_STATE_LIVE);
+                    employeeId = dataMap.getInt(DigitalWatchFaceCompanionUtil.KEY_EMPLOYEE_ID,
+                            DigitalWatchFaceCompanionUtil.NO_ID);
+                    locationId = dataMap.getInt(DigitalWatchFaceCompanionUtil.KEY_LOCATION_ID,
+                            DigitalWatchFaceCompanionUtil.NO_ID);
+                }
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, "Watch state of " + uri.getAuthority() + ": " + watchState
+                            + ", employee " + employeeId + ", location " + locationId);
+                }
+                WatchUpdateSender sender = WatchUpdateSender.getInstance(this);
+                sender.onSubscriptionChanged(uri.getAuthority(), employeeId, locationId);
+                sender.onWatchStateChanged(uri.getAuthority(), watchState);
+            }
+        } finally {
+            dataEvents.close();
+        }
+    }
+
+    @Override // WearableListenerService
+    public void onMessageReceived(MessageEvent messageEvent) {
+        if (!DigitalWatchFaceCompanionUtil.PATH_LIVE_DATA_ACK.equals(messageEvent.getPath())) {
+            return;
+        }
+        long sequence = DataMap.fromByteArray(messageEvent.getData())
+                .getLong(DigitalWatchFaceCompanionUtil.KEY_SEQUENCE);
+        WatchUpdateSender.getInstance(this)
+                .onAcknowledged(messageEvent.getSourceNodeId(), sequence);
+    }
+
+    @Override // WearableListenerService
+    public void onPeerConnected(Node peer) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Peer connected: " + peer.getId());
+        }
+        WatchUpdateSender.getInstance(this).onPeerConnected(peer.getId());
+    }
+
+    @Override // WearableListenerService
+    public void onPeerDisconnected(Node peer) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Peer disconnected: " + peer.getId());
+        }
+        WatchUpdateSender.getInstance(this).onPeerDisconnected(peer.getId());
+    }
+}
@@ -0,0 +1,766 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.NodeApi;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes live data updates (e.g. the daily total) from the phone to the watch face, throttled by
+ * the watch state each watch publishes in {@link DigitalWatchFaceCompanionUtil#PATH_WATCH_STATE}.
+ * <p>
+ * Live updates go out as fire-and-forget messages on
+ * {@link DigitalWatchFaceCompanionUtil#PATH_LIVE_DATA}, which are cheap but lost if no face is
+ * listening. For eventual consistency the latest values are also checkpointed at most every
+ * {@link #CHECKPOINT_INTERVAL_MS} to the day's {@link DigitalWatchFaceCompanionUtil#PATH_TOTALS}
+ * partition, which the watch face reads when it connects. Both carry
+ * {@link DigitalWatchFaceCompanionUtil#KEY_DATA_TIME}, the time their newest value was passed to
+ * {@link #send}, so the face never goes back to older values. Once a day, a
+ * {@link DayPartitionJanitor} deletes partitions past the retention window.
+ * <p>
+ * All the values belong to the current local day. When a new day starts, the final checkpoint of
+ * the previous one is written, retried until it succeeds, and every value is forgotten, so a
+ * watch connecting before the day's first update isn't sent the previous day's values as if they
+ * were today's. Watches already connected are sent the new
+ * {@link DigitalWatchFaceCompanionUtil#KEY_DAY}, so they drop the previous day's values too.
+ * <ul>
+ * <li>While a face is live, updates are pushed right away.</li>
+ * <li>While every face is ambient or muted, and so only redraws once a minute, updates are
+ * merged and pushed once a minute.</li>
+ * <li>While no face is visible, updates are only stored; they're pushed as soon as a face
+ * becomes visible again.</li>
+ * </ul>
+ * Pending updates are merged key by key, so only the latest value of each key is ever sent, and
+ * a burst of updates within the coalescing window goes out as one message. Sends are further
+ * limited by a messages-per-minute and bytes-per-minute {@link SendBudget}; while over budget,
+ * updates keep being merged and the latest values go out once the budget allows.
+ * <p>
+ * Several watches may be paired with one phone. The connected nodes are fetched once and then
+ * kept current by {@link #onPeerConnected} and {@link #onPeerDisconnected}. Every change to the
+ * values bumps a sequence number, each watch acknowledges the sequence number of the messages it
+ * receives ({@link #onAcknowledged}), and each watch is sent only the keys that changed after the
+ * last sequence number it acknowledged. A lost message is thus made up for by the next one, and
+ * a newly connected watch gets every value. A watch the message couldn't be sent to is retried
+ * with exponential backoff.
+ * <p>
+ * Per-employee and per-location totals are filtered per watch: each watch subscribes to its
+ * employee and location ids ({@link #onSubscriptionChanged}) and is only sent those two totals,
+ * however many employees share the phone. The day's checkpoint still holds all of them.
+ * <p>
+ * Every update passed to {@link #send} ends up counted exactly once, as sent (it was the last
+ * update merged into a message that went out), coalesced (it was merged into a message together
+ * with later updates) or dropped (it carried nothing new, or could never fit the budget).
+ * <p>
+ * All work happens on a background thread.
+ */
+public final class WatchUpdateSender {
+    private static final String TAG = "WatchUpdateSender";
+
+    /** Push every update right away. */
+    public static final int MODE_REALTIME = 0;
+
+    /** Merge updates and push them once a minute. */
+    public static final int MODE_BATCHED = 1;
+
+    /** Keep updates until a watch face becomes visible. */
+    public static final int MODE_STORE_ONLY = 2;
+
+    /** Interval between pushes in {@link #MODE_BATCHED}, matching the watch's ambient redraws. */
+    private static final long BATCH_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+
+    /** Default time {@link #MODE_REALTIME} waits for more updates before pushing. */
+    public static final long DEFAULT_COALESCE_WINDOW_MS = 500;
+
+    /** Default number of messages (counted per watch) that may be sent per minute. */
+    public static final int DEFAULT_MAX_MESSAGES_PER_MINUTE = 30;
+
+    /** Default number of payload bytes (counted per watch) that may be sent per minute. */
+    public static final int DEFAULT_MAX_BYTES_PER_MINUTE = 8 * 1024;
+
+    /** Minimum interval between two checkpoints. */
+    private static final long CHECKPOINT_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final long CONNECT_TIMEOUT_SECONDS = 30;
+
+    /** Delay before resending to watches a message couldn't be sent to. */
+    private static final long INITIAL_RETRY_BACKOFF_MS = TimeUnit.SECONDS.toMillis(5);
+
+    /** Upper bound for the resend delay. */
+    private static final long MAX_RETRY_BACKOFF_MS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final int MSG_FLUSH = 0;
+    private static final int MSG_CHECKPOINT = 1;
+
+    private static WatchUpdateSender sInstance;
+
+    private final GoogleApiClient mGoogleApiClient;
+    private final Handler mHandler;
+
+    // Only accessed on the sender thread.
+    private final Map<String, Integer> mWatchStates = new HashMap<String, Integer>();
+    /** The employee and location ids each watch subscribed to, by node id. */
+    private final Map<String, Subscription> mSubscriptions = new HashMap<String, Subscription>();
+    /** Latest value of every key passed to {@link #send}. */
+    private final DataMap mValues = new DataMap();
+    /** Sequence number at which each key of {@link #mValues} last changed. */
+    private final Map<String, Long> mKeySequences = new HashMap<String, Long>();
+    /** Time at which each key of {@link #mValues} last changed, as passed to {@link #send}. */
+    private final Map<String, Long> mKeyTimes = new HashMap<String, Long>();
+    private long mSequence;
+    /** The connected watches, by node id. */
+    private final Map<String, NodeState> mNodes = new HashMap<String, NodeState>();
+    private boolean mNodesLoaded;
+    /** Latest value of every key passed to {@link #send} during {@link #mCheckpointDayKey}. */
+    private final DataMap mCheckpoint = new DataMap();
+    private String mCheckpointDayKey;
+    /**
+     * Final checkpoints of the days that ended, by day key, until they're written. Normally at
+     * most one, written as the next day starts.
+     */
+    private final Map<String, DataMap> mRolloverCheckpoints = new LinkedHashMap<String, DataMap>();
+    private final DayPartitionJanitor mJanitor = new DayPartitionJanitor();
+    private String mLastJanitorDayKey;
+    private final SendBudget mBudget = new SendBudget(DEFAULT_MAX_MESSAGES_PER_MINUTE,
+            DEFAULT_MAX_BYTES_PER_MINUTE, System.currentTimeMillis());
+    private long mCoalesceWindowMs = DEFAULT_COALESCE_WINDOW_MS;
+    private int mPendingUpdateCount;
+    private long mRetryBackoffMs = INITIAL_RETRY_BACKOFF_MS;
+
+    // Written on the sender thread only, read from anywhere.
+    private volatile int mMode = MODE_REALTIME;
+    private volatile long mSentUpdateCount;
+    private volatile long mCoalescedUpdateCount;
+    private volatile long mDroppedUpdateCount;
+    private volatile long mSentMessageCount;
+    private volatile long mSentByteCount;
+
+    public static synchronized WatchUpdateSender getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WatchUpdateSender(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private WatchUpdateSender(Context context) {
+        mGoogleApiClient = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .build();
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper()) {
+            @Override
+            public void handleMessage(Message message) {
+                switch (message.what) {
+                    case MSG_FLUSH:
+                        flush();
+                        break;
+                    case MSG_CHECKPOINT:
+                        writeCheckpoint();
+                        break;
+                }
+            }
+        };
+    }
+
+    /**
+     * Queues {@code update} for the watch face. Keys already pending are overwritten, so the
+     * watch only ever receives the latest value of each key.
+     */
+    public void send(final DataMap update) {
+        final long timeMs = System.currentTimeMillis();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                startDayIfNeeded(timeMs);
+                if (mergeValues(update, timeMs)) {
+                    mPendingUpdateCount++;
+                    scheduleFlush();
+                } else {
+                    mDroppedUpdateCount++;
+                }
+                mCheckpoint.putAll(update);
+                if (!mHandler.hasMessages(MSG_CHECKPOINT)) {
+                    mHandler.sendEmptyMessageDelayed(MSG_CHECKPOINT, CHECKPOINT_INTERVAL_MS);
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets how long {@link #MODE_REALTIME} waits for further updates before pushing, and the
+     * per-minute limits on messages and payload bytes, both counted per watch.
+     */
+    public void setLimits(final long coalesceWindowMs, final int maxMessagesPerMinute,
+            final int maxBytesPerMinute) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mCoalesceWindowMs = coalesceWindowMs;
+                mBudget.setLimits(maxMessagesPerMinute, maxBytesPerMinute);
+            }
+        });
+    }
+
+    /**
+     * Records the watch state published by {@code nodeId} and switches the push mode to the one
+     * required by the most active watch.
+     */
+    public void onWatchStateChanged(final String nodeId, final int watchState) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mWatchStates.put(nodeId, watchState);
+                updateMode(nodeId + " is " + watchState);
+            }
+        });
+    }
+
+    /**
+     * Records that {@code nodeId} wants the totals of {@code employeeId} and {@code locationId},
+     * either of which may be {@link DigitalWatchFaceCompanionUtil#NO_ID}. A watch whose
+     * subscription changed is sent every value again, filtered by the new subscription.
+     */
+    public void onSubscriptionChanged(final String nodeId, final int employeeId,
+            final int locationId) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Subscription subscription = mSubscriptions.get(nodeId);
+                if (subscription != null && subscription.mEmployeeId == employeeId
+                        && subscription.mLocationId == locationId) {
+                    return;
+                }
+                mSubscriptions.put(nodeId, new Subscription(employeeId, locationId));
+                NodeState node = mNodes.get(nodeId);
+                if (node != null) {
+                    node.mAckedSequence = 0;
+                    node.mSentSequence = 0;
+                    scheduleFlush();
+                }
+            }
+        });
+    }
+
+    /** Starts tracking a newly connected watch, which is then sent every value. */
+    public void onPeerConnected(final String nodeId) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mNodes.put(nodeId, new NodeState());
+                scheduleFlush();
+            }
+        });
+    }
+
+    /** Stops sending to a watch that disconnected and forgets its state and subscription. */
+    public void onPeerDisconnected(final String nodeId) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mNodes.remove(nodeId);
+                mSubscriptions.remove(nodeId);
+                // A watch that's gone mustn't keep the others in its mode.
+                if (mWatchStates.remove(nodeId) != null) {
+                    updateMode(nodeId + " disconnected");
+                }
+            }
+        });
+    }
+
+    /** Records that {@code nodeId} received the message with sequence number {@code sequence}. */
+    public void onAcknowledged(final String nodeId, final long sequence) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                NodeState node = mNodes.get(nodeId);
+                if (node != null) {
+                    node.mAckedSequence = Math.max(node.mAckedSequence, sequence);
+                }
+            }
+        });
+    }
+
+    /** Switches to the mode the watch states call for, if it changed because {@code reason}. */
+    private void updateMode(String reason) {
+        int mode = modeForWatchStates();
+        if (mode == mMode) {
+            return;
+        }
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Push mode " + mMode + " -> " + mode + " (" + reason + ")");
+        }
+        mMode = mode;
+        // Entering a faster mode flushes what was held back; a slower one re-arms.
+        mHandler.removeMessages(MSG_FLUSH);
+        scheduleFlush();
+    }
+
+    private int modeForWatchStates() {
+        if (mWatchStates.isEmpty()) {
+            // We haven't heard from any watch yet, so don't hold anything back.
+            return MODE_REALTIME;
+        }
+        int mostActiveState = DigitalWatchFaceCompanionUtil.WATCH_STATE_HIDDEN;
+        for (int watchState : mWatchStates.values()) {
+            mostActiveState = Math.min(mostActiveState, watchState);
+        }
+        switch (mostActiveState) {
+            case DigitalWatchFaceCompanionUtil.WATCH_STATE_LIVE:
+                return MODE_REALTIME;
+            case DigitalWatchFaceCompanionUtil.WATCH_STATE_MINUTE:
+                return MODE_BATCHED;
+            default:
+                return MODE_STORE_ONLY;
+        }
+    }
+
+    private void scheduleFlush() {
+        if (!hasUnsentValues()) {
+            return;
+        }
+        switch (mMode) {
+            case MODE_REALTIME:
+                // Give a burst of sales the coalescing window to settle into one push.
+                if (!mHandler.hasMessages(MSG_FLUSH)) {
+                    mHandler.sendEmptyMessageDelayed(MSG_FLUSH, mCoalesceWindowMs);
+                }
+                break;
+            case MODE_BATCHED:
+                if (!mHandler.hasMessages(MSG_FLUSH)) {
+                    // Land on the minute boundary, in step with the watch's ambient redraws.
+                    long timeMs = System.currentTimeMillis();
+                    long delayMs = BATCH_INTERVAL_MS - (timeMs % BATCH_INTERVAL_MS);
+                    mHandler.sendEmptyMessageDelayed(MSG_FLUSH, delayMs);
+                }
+                break;
+            case MODE_STORE_ONLY:
+                mHandler.removeMessages(MSG_FLUSH);
+                break;
+        }
+    }
+
+    private void flush() {
+        startDayIfNeeded(System.currentTimeMillis());
+        if (mMode == MODE_STORE_ONLY || !hasUnsentValues()) {
+            return;
+        }
+        if (!connect()) {
+            return;
+        }
+        if (!mNodesLoaded) {
+            NodeApi.GetConnectedNodesResult nodesResult =
+                    Wearable.NodeApi.getConnectedNodes(mGoogleApiClient).await();
+            for (Node node : nodesResult.getNodes()) {
+                if (!mNodes.containsKey(node.getId())) {
+                    mNodes.put(node.getId(), new NodeState());
+                }
+            }
+            mNodesLoaded = true;
+        }
+
+        // Build each watch's delta: what changed after the last message it acknowledged.
+        List<String> targets = new ArrayList<String>();
+        List<byte[]> payloads = new ArrayList<byte[]>();
+        int bytes = 0;
+        for (Map.Entry<String, NodeState> entry : mNodes.entrySet()) {
+            NodeState node = entry.getValue();
+            if (node.mSentSequence >= mSequence) {
+                continue;
+            }
+            DataMap delta = getValuesSince(node.mAckedSequence,
+                    mSubscriptions.get(entry.getKey()));
+            if (delta.isEmpty()) {
+                node.mSentSequence = mSequence;
+                continue;
+            }
+            delta.putLong(DigitalWatchFaceCompanionUtil.KEY_DATA_TIME,
+                    getDataTime(delta.keySet()));
+            delta.putLong(DigitalWatchFaceCompanionUtil.KEY_SEQUENCE, mSequence);
+            byte[] rawData = delta.toByteArray();
+            targets.add(entry.getKey());
+            payloads.add(rawData);
+            bytes += rawData.length;
+        }
+        if (targets.isEmpty()) {
+            // No watch in range, or they all have everything; kept for when one connects.
+            return;
+        }
+
+        int messages = targets.size();
+        if (!mBudget.fits(messages, bytes)) {
+            // The watches catch up from the checkpoint instead, so write it now. They haven't
+            // received anything, so their next delta still starts from what they acknowledged.
+            Log.w(TAG, "Dropping update of " + bytes + " bytes, it exceeds the budget");
+            for (String nodeId : targets) {
+                mNodes.get(nodeId).mSentSequence = mSequence;
+            }
+            if (mHandler.hasMessages(MSG_CHECKPOINT)) {
+                mHandler.removeMessages(MSG_CHECKPOINT);
+                writeCheckpoint();
+            }
+            mDroppedUpdateCount += mPendingUpdateCount;
+            mPendingUpdateCount = 0;
+            return;
+        }
+        long waitMs = mBudget.millisUntilAvailable(messages, bytes, System.currentTimeMillis());
+        if (waitMs > 0) {
+            // Over budget: keep merging updates and send the latest values once it refills.
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Over budget, deferring push by " + waitMs + " ms");
+            }
+            mHandler.sendEmptyMessageDelayed(MSG_FLUSH, waitMs);
+            return;
+        }
+
+        boolean sent = false;
+        boolean failed = false;
+        int sentMessages = 0;
+        int sentBytes = 0;
+        for (int i = 0; i < messages; i++) {
+            String nodeId = targets.get(i);
+            byte[] rawData = payloads.get(i);
+            MessageApi.SendMessageResult result = Wearable.MessageApi.sendMessage(
+                    mGoogleApiClient, nodeId, DigitalWatchFaceCompanionUtil.PATH_LIVE_DATA,
+                    rawData).await();
+            if (result.getStatus().isSuccess()) {
+                sent = true;
+                mNodes.get(nodeId).mSentSequence = mSequence;
+                sentMessages++;
+                sentBytes += rawData.length;
+            } else {
+                Log.w(TAG, "Failed to send update to " + nodeId + ": " + result.getStatus());
+                failed = true;
+            }
+        }
+        // Only what went out counts against the budget.
+        mBudget.consume(sentMessages, sentBytes);
+        mSentMessageCount += sentMessages;
+        mSentByteCount += sentBytes;
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Pushed sequence " + mSequence + " to " + sentMessages + " of " + messages
+                    + " nodes (" + sentBytes + " bytes) in mode " + mMode);
+        }
+        if (failed) {
+            // The failed watches are still behind, so they're picked up by the retry.
+            mHandler.removeMessages(MSG_FLUSH);
+            mHandler.sendEmptyMessageDelayed(MSG_FLUSH, mRetryBackoffMs);
+            mRetryBackoffMs = Math.min(mRetryBackoffMs * 2, MAX_RETRY_BACKOFF_MS);
+        } else {
+            mRetryBackoffMs = INITIAL_RETRY_BACKOFF_MS;
+        }
+        if (sent && mPendingUpdateCount > 0) {
+            mSentUpdateCount++;
+            mCoalescedUpdateCount += mPendingUpdateCount - 1;
+            mPendingUpdateCount = 0;
+        }
+    }
+
+    /**
+     * Writes the final checkpoints of the days that ended, if any are still pending, and then the
+     * latest values to the current day's partition {@code DataItem}. Google Play services syncs
+     * them to the watches whenever they're connected, so this is retried only if a local write
+     * fails. The first checkpoint of each day also runs the janitor.
+     */
+    private void writeCheckpoint() {
+        if (!connect()) {
+            mHandler.sendEmptyMessageDelayed(MSG_CHECKPOINT, CHECKPOINT_INTERVAL_MS);
+            return;
+        }
+        Iterator<Map.Entry<String, DataMap>> rollovers =
+                mRolloverCheckpoints.entrySet().iterator();
+        while (rollovers.hasNext()) {
+            Map.Entry<String, DataMap> rollover = rollovers.next();
+            if (!putCheckpoint(rollover.getKey(), rollover.getValue())) {
+                mHandler.sendEmptyMessageDelayed(MSG_CHECKPOINT, CHECKPOINT_INTERVAL_MS);
+                return;
+            }
+            rollovers.remove();
+        }
+        // Nothing was sent yet today, e.g. right after the day started.
+        if (mCheckpoint.isEmpty()) {
+            return;
+        }
+        if (!putCheckpoint(mCheckpointDayKey, buildCheckpoint())) {
+            mHandler.sendEmptyMessageDelayed(MSG_CHECKPOINT, CHECKPOINT_INTERVAL_MS);
+            return;
+        }
+
+        String todayKey = DigitalWatchFaceCompanionUtil.formatDayKey(System.currentTimeMillis());
+        if (!todayKey.equals(mLastJanitorDayKey)) {
+            mJanitor.deleteExpiredPartitions(mGoogleApiClient, System.currentTimeMillis());
+            mLastJanitorDayKey = todayKey;
+        }
+    }
+
+    /** Returns the checkpoint of the current day: its latest values, day and data time. */
+    private DataMap buildCheckpoint() {
+        DataMap checkpoint = new DataMap();
+        checkpoint.putAll(mCheckpoint);
+        checkpoint.putString(DigitalWatchFaceCompanionUtil.KEY_DAY, mCheckpointDayKey);
+        checkpoint.putLong(DigitalWatchFaceCompanionUtil.KEY_DATA_TIME,
+                getDataTime(mCheckpoint.keySet()));
+        return checkpoint;
+    }
+
+    /**
+     * Writes {@code checkpoint} to the partition of {@code dayKey}.
+     *
+     * @return whether the write succeeded
+     */
+    private boolean putCheckpoint(String dayKey, DataMap checkpoint) {
+        PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(
+                DigitalWatchFaceCompanionUtil.getDayPartitionPath(dayKey));
+        putDataMapRequest.getDataMap().putAll(checkpoint);
+        DataApi.DataItemResult result = Wearable.DataApi
+                .putDataItem(mGoogleApiClient, putDataMapRequest.asPutDataRequest()).await();
+        if (!result.getStatus().isSuccess()) {
+            Log.w(TAG, "Failed to write checkpoint of " + dayKey + ": " + result.getStatus());
+            return false;
+        }
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Wrote checkpoint: " + checkpoint);
+        }
+        return true;
+    }
+
+    private boolean connect() {
+        if (mGoogleApiClient.isConnected()) {
+            return true;
+        }
+        ConnectionResult connectionResult =
+                mGoogleApiClient.blockingConnect(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (!connectionResult.isSuccess()) {
+            Log.e(TAG, "Failed to connect to GoogleApiClient.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Starts the local day of {@code timeMs} if it's later than the current one: keeps the
+     * pending checkpoint of the current day, if any, until it's written, forgets every value and
+     * tells the connected watches about the new day.
+     */
+    private void startDayIfNeeded(long timeMs) {
+        String dayKey = DigitalWatchFaceCompanionUtil.formatDayKey(timeMs);
+        if (dayKey.equals(mCheckpointDayKey)) {
+            return;
+        }
+        boolean checkpointPending = mHandler.hasMessages(MSG_CHECKPOINT);
+        if (checkpointPending && !mCheckpoint.isEmpty()) {
+            // Snapshotted, as the values are about to be forgotten.
+            mRolloverCheckpoints.put(mCheckpointDayKey, buildCheckpoint());
+        }
+        String previousDayKey = mCheckpointDayKey;
+        if (previousDayKey != null && Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Day " + dayKey + " started, forgetting " + mValues.size() + " values");
+        }
+        mCheckpoint.clear();
+        mCheckpointDayKey = dayKey;
+        // Updates still pending were about the previous day and won't be sent.
+        mDroppedUpdateCount += mPendingUpdateCount;
+        mPendingUpdateCount = 0;
+        mValues.clear();
+        mKeySequences.clear();
+        mKeyTimes.clear();
+        if (checkpointPending) {
+            // Finish the previous day's partition before starting the new one.
+            mHandler.removeMessages(MSG_CHECKPOINT);
+            writeCheckpoint();
+        }
+        if (previousDayKey != null) {
+            // A change like any other, so every watch is sent the new day and drops the values
+            // of the previous one.
+            mSequence++;
+            mValues.putString(DigitalWatchFaceCompanionUtil.KEY_DAY, dayKey);
+            mKeySequences.put(DigitalWatchFaceCompanionUtil.KEY_DAY, mSequence);
+            mKeyTimes.put(DigitalWatchFaceCompanionUtil.KEY_DAY, timeMs);
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Merges {@code update}, passed to {@link #send} at {@code timeMs}, into {@link #mValues},
+     * giving the keys whose value changed a new sequence number.
+     *
+     * @return whether any value changed
+     */
+    private boolean mergeValues(DataMap update, long timeMs) {
+        List<String> changedKeys = new ArrayList<String>();
+        for (String key : update.keySet()) {
+            Object value = update.get(key);
+            if (value == null || !valuesEqual(value, mValues.get(key))) {
+                changedKeys.add(key);
+            }
+        }
+        if (changedKeys.isEmpty()) {
+            return false;
+        }
+        mSequence++;
+        mValues.putAll(update);
+        for (String key : changedKeys) {
+            mKeySequences.put(key, mSequence);
+            mKeyTimes.put(key, timeMs);
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether {@code a} and {@code b} are equal values of a {@link DataMap}, comparing
+     * arrays (counters, currency totals, top items, exchange rates...) by content.
+     */
+    private static boolean valuesEqual(Object a, Object b) {
+        if (a instanceof long[] && b instanceof long[]) {
+            return Arrays.equals((long[]) a, (long[]) b);
+        } else if (a instanceof int[] && b instanceof int[]) {
+            return Arrays.equals((int[]) a, (int[]) b);
+        } else if (a instanceof float[] && b instanceof float[]) {
+            return Arrays.equals((float[]) a, (float[]) b);
+        } else if (a instanceof double[] && b instanceof double[]) {
+            return Arrays.equals((double[]) a, (double[]) b);
+        } else if (a instanceof byte[] && b instanceof byte[]) {
+            return Arrays.equals((byte[]) a, (byte[]) b);
+        } else if (a instanceof Object[] && b instanceof Object[]) {
+            return Arrays.equals((Object[]) a, (Object[]) b);
+        }
+        return a.equals(b);
+    }
+
+    /** Returns the time the newest value of {@code keys} changed, 0 if none is known. */
+    private long getDataTime(Iterable<String> keys) {
+        long dataTimeMs = 0;
+        for (String key : keys) {
+            Long timeMs = mKeyTimes.get(key);
+            if (timeMs != null) {
+                dataTimeMs = Math.max(dataTimeMs, timeMs);
+            }
+        }
+        return dataTimeMs;
+    }
+
+    /**
+     * Returns the values that changed after {@code sequence}, leaving out the employee and
+     * location totals other than those of {@code subscription}, if any.
+     */
+    private DataMap getValuesSince(long sequence, Subscription subscription) {
+        String employeeTotalKey = null;
+        String locationTotalKey = null;
+        if (subscription != null) {
+            employeeTotalKey =
+                    DigitalWatchFaceCompanionUtil.getEmployeeTotalKey(subscription.mEmployeeId);
+            locationTotalKey =
+                    DigitalWatchFaceCompanionUtil.getLocationTotalKey(subscription.mLocationId);
+        }
+        DataMap values = new DataMap();
+        values.putAll(mValues);
+        for (Map.Entry<String, Long> keySequence : mKeySequences.entrySet()) {
+            String key = keySequence.getKey();
+            if (keySequence.getValue() <= sequence
+                    || (key.startsWith(DigitalWatchFaceCompanionUtil.KEY_EMPLOYEE_TOTAL_PREFIX)
+                            && !key.equals(employeeTotalKey))
+                    || (key.startsWith(DigitalWatchFaceCompanionUtil.KEY_LOCATION_TOTAL_PREFIX)
+                            && !key.equals(locationTotalKey))) {
+                values.remove(key);
+            }
+        }
+        return values;
+    }
+
+    private boolean hasUnsentValues() {
+        if (!mNodesLoaded) {
+            return mSequence > 0;
+        }
+        for (NodeState node : mNodes.values()) {
+            if (node.mSentSequence < mSequence) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the current push mode, one of the {@code MODE_} constants. */
+    public int getMode() {
+        return mMode;
+    }
+
+    /** Returns the number of updates that went out as the latest value in a message. */
+    public long getSentUpdateCount() {
+        return mSentUpdateCount;
+    }
+
+    /** Returns the number of updates superseded by later ones in the same message. */
+    public long getCoalescedUpdateCount() {
+        return mCoalescedUpdateCount;
+    }
+
+    /** Returns the number of updates discarded as redundant or too large for the budget. */
+    public long getDroppedUpdateCount() {
+        return mDroppedUpdateCount;
+    }
+
+    /** Returns the number of messages sent, counted per watch. */
+    public long getSentMessageCount() {
+        return mSentMessageCount;
+    }
+
+    /** Returns the number of payload bytes sent, counted per watch. */
+    public long getSentByteCount() {
+        return mSentByteCount;
+    }
+
+    /** What a watch subscribed to. */
+    private static class Subscription {
+        final int mEmployeeId;
+        final int mLocationId;
+
+        Subscription(int employeeId, int locationId) {
+            mEmployeeId = employeeId;
+            mLocationId = locationId;
+        }
+    }
+
+    /** What has been sent to and acknowledged by one watch. */
+    private static class NodeState {
+        /** Sequence number of the last message the watch acknowledged, 0 for none. */
+        long mAckedSequence;
+        /** Sequence number of the last message sent to the watch, 0 for none. */
+        long mSentSequence;
+    }
+}
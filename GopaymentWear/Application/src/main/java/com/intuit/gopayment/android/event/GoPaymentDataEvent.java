@@ -0,0 +1,114 @@
+package com.intuit.gopayment.android.event;
+
+import java.io.Serializable;
+
+/**
+ * A completed GoPayment sale, as read from a transaction source. The constants describe the
+ * data that is locally broadcast when the day's aggregates change.
+ */
+public class GoPaymentDataEvent implements Serializable {
+
+    public static final String DAILY_TOTAL = "daily_total";
+    public static final String DAILY_COUNT = "daily_count";
+    public static final String DAILY_TOTAL_UPDATED = "daily_total_updated";
+
+    /** The amount in the store's currency of a sale whose currency has no rate yet. */
+    public static final long NO_STORE_AMOUNT = Long.MIN_VALUE;
+
+    private final long mId;
+    private final long mTimeMs;
+    private final long mAmountCents;
+    private final int mEmployeeId;
+    private final int mLocationId;
+    private final String[] mSkus;
+    private final String mCurrency;
+    private final long mStoreAmountCents;
+
+    /**
+     * @param id the position of the sale in its source, starting at 1; later sales have larger
+     *     ids
+     * @param employeeId who made the sale, or 0 if unknown
+     * @param locationId where the sale was made, or 0 if unknown
+     */
+    public GoPaymentDataEvent(long id, long timeMs, long amountCents, int employeeId,
+            int locationId) {
+        this(id, timeMs, amountCents, employeeId, locationId, null);
+    }
+
+    /** @param skus the SKUs of the sale's line items, null if unknown */
+    public GoPaymentDataEvent(long id, long timeMs, long amountCents, int employeeId,
+            int locationId, String[] skus) {
+        this(id, timeMs, amountCents, employeeId, locationId, skus, null);
+    }
+
+    /**
+     * @param currency the ISO 4217 code of the currency the amount is in, in hundredths, or
+     *     null for the store's own currency
+     */
+    public GoPaymentDataEvent(long id, long timeMs, long amountCents, int employeeId,
+            int locationId, String[] skus, String currency) {
+        this(id, timeMs, amountCents, employeeId, locationId, skus, currency,
+                currency == null ? amountCents : NO_STORE_AMOUNT);
+    }
+
+    /**
+     * @param storeAmountCents the amount converted into the store's currency, in hundredths, or
+     *     {@link #NO_STORE_AMOUNT} if there's no rate for its currency yet
+     */
+    public GoPaymentDataEvent(long id, long timeMs, long amountCents, int employeeId,
+            int locationId, String[] skus, String currency, long storeAmountCents) {
+        mId = id;
+        mTimeMs = timeMs;
+        mAmountCents = amountCents;
+        mEmployeeId = employeeId;
+        mLocationId = locationId;
+        mSkus = skus;
+        mCurrency = currency;
+        mStoreAmountCents = storeAmountCents;
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public long getTimeMs() {
+        return mTimeMs;
+    }
+
+    public long getAmountCents() {
+        return mAmountCents;
+    }
+
+    public int getEmployeeId() {
+        return mEmployeeId;
+    }
+
+    public int getLocationId() {
+        return mLocationId;
+    }
+
+    /** Returns the SKUs of the sale's line items, one per unit sold, or null if unknown. */
+    public String[] getSkus() {
+        return mSkus;
+    }
+
+    /** Returns the ISO 4217 code of the amount's currency, or null for the store's own. */
+    public String getCurrency() {
+        return mCurrency;
+    }
+
+    /**
+     * Returns the amount converted into the store's currency, in hundredths, or
+     * {@link #NO_STORE_AMOUNT} if there's no rate for its currency yet.
+     */
+    public long getStoreAmountCents() {
+        return mStoreAmountCents;
+    }
+
+    @Override
+    public String toString() {
+        return "GoPaymentDataEvent{id=" + mId + ", timeMs=" + mTimeMs + ", amountCents="
+                + mAmountCents + ", employeeId=" + mEmployeeId + ", locationId=" + mLocationId
+                + (mCurrency != null ? ", currency=" + mCurrency : "") + "}";
+    }
+}
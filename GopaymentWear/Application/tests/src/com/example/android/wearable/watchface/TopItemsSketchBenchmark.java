@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+/**
+ * Measures the accuracy and memory of {@link TopItemsSketch} against an exact
+ * {@code HashMap<String, Integer>} of units sold by SKU, for a long trading day over catalogs of
+ * growing size. Item popularity follows a Zipf distribution, as in most stores. The sketch's
+ * memory is fixed while the map's grows with the SKUs sold; the sketch's top 3 should still be
+ * the map's, with estimates that never undercount. Results are logged under {@link #TAG}.
+ */
+public class TopItemsSketchBenchmark extends TestCase {
+    private static final String TAG = "TopItemsBenchmark";
+
+    /** Units sold in the day, e.g. 6000 sales of 2 to 3 items. */
+    private static final int UNITS = 15000;
+    private static final double ZIPF_EXPONENT = 1.1;
+    private static final int TOP = DigitalWatchFaceCompanionUtil.TOP_ITEM_COUNT;
+
+    /** Counters and candidates, each SKU at its longest. */
+    private static final int SKETCH_BYTES = TopItemsSketch.DEPTH * TopItemsSketch.WIDTH * 4
+            + TopItemsSketch.CANDIDATES * (4 + 4 + 40 + 2 * TopItemsSketch.MAX_SKU_LENGTH);
+
+    /**
+     * Estimated bytes per map entry besides the SKU's characters: the entry, the boxed count, the
+     * String and its array headers, and a table slot at the default load factor.
+     */
+    private static final int MAP_ENTRY_BYTES = 32 + 16 + 40 + 8;
+
+    public void testSmallCatalog() {
+        run(200);
+    }
+
+    public void testMediumCatalog() {
+        run(5000);
+    }
+
+    public void testLargeCatalog() {
+        run(100000);
+    }
+
+    /** Sells {@link #UNITS} items from a catalog of {@code catalogSize} SKUs into both. */
+    private void run(int catalogSize) {
+        String[] catalog = new String[catalogSize];
+        for (int i = 0; i < catalogSize; i++) {
+            catalog[i] = String.format("SKU-%08d", i);
+        }
+        // Shuffled, so popularity has nothing to do with the SKUs' hashes.
+        Random random = new Random(42);
+        Collections.shuffle(Arrays.asList(catalog), random);
+        double[] cumulative = new double[catalogSize];
+        double sum = 0;
+        for (int i = 0; i < catalogSize; i++) {
+            sum += 1 / Math.pow(i + 1, ZIPF_EXPONENT);
+            cumulative[i] = sum;
+        }
+
+        String[] sold = new String[UNITS];
+        for (int i = 0; i < UNITS; i++) {
+            sold[i] = catalog[sample(cumulative, random.nextDouble() * sum)];
+        }
+
+        TopItemsSketch sketch = new TopItemsSketch();
+        long startNs = System.nanoTime();
+        for (String sku : sold) {
+            sketch.add(sku);
+        }
+        long sketchNs = System.nanoTime() - startNs;
+        Map<String, Integer> exact = new HashMap<String, Integer>();
+        startNs = System.nanoTime();
+        for (String sku : sold) {
+            Integer count = exact.get(sku);
+            exact.put(sku, count == null ? 1 : count + 1);
+        }
+        long exactNs = System.nanoTime() - startNs;
+
+        List<Entry<String, Integer>> exactTop = new ArrayList<Entry<String, Integer>>(
+                exact.entrySet());
+        Collections.sort(exactTop, new Comparator<Entry<String, Integer>>() {
+            @Override
+            public int compare(Entry<String, Integer> a, Entry<String, Integer> b) {
+                return b.getValue() - a.getValue();
+            }
+        });
+        String[] skus = sketch.getTopSkus(TOP);
+        long[] estimates = sketch.getTopCounts(TOP);
+        int hits = 0;
+        double maxErrorRatio = 0;
+        for (int i = 0; i < skus.length; i++) {
+            for (int j = 0; j < TOP; j++) {
+                if (exactTop.get(j).getKey().equals(skus[i])) {
+                    hits++;
+                }
+            }
+            int exactCount = exact.get(skus[i]);
+            assertTrue(skus[i] + " estimated at " + estimates[i] + ", sold " + exactCount,
+                    estimates[i] >= exactCount);
+            maxErrorRatio = Math.max(maxErrorRatio,
+                    (double) (estimates[i] - exactCount) / exactCount);
+        }
+
+        long mapBytes = 0;
+        for (String sku : exact.keySet()) {
+            mapBytes += MAP_ENTRY_BYTES + 2 * sku.length();
+        }
+        Log.i(TAG, String.format("%d SKUs, %d sold: top %d hits %d/%d, max overcount %.2f%%;"
+                + " sketch %d bytes, %.0f ns/add; map ~%d bytes, %.0f ns/add", catalogSize,
+                exact.size(), TOP, hits, TOP, maxErrorRatio * 100, SKETCH_BYTES,
+                (double) sketchNs / UNITS, mapBytes, (double) exactNs / UNITS));
+        assertEquals("best seller", exactTop.get(0).getKey(), skus[0]);
+        assertEquals("top " + TOP + " hits", TOP, hits);
+    }
+
+    /** Returns the index of the first {@code cumulative} weight above {@code target}. */
+    private static int sample(double[] cumulative, double target) {
+        int low = 0;
+        int high = cumulative.length - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (cumulative[middle] <= target) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
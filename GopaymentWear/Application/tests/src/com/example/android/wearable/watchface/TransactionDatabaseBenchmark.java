@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import java.util.Calendar;
+import java.util.Random;
+
+/**
+ * Measures {@link TransactionDatabase} with 100k sales spread over the last 31 days: how fast
+ * batches of them are appended, rollups included, and how long today's, this week's and this
+ * month's totals take to read from the rollups compared with summing the raw sales. Checks that
+ * the rollups add up to the sales. Runs against a separate database, so it can run on a device
+ * in use:
+ * <pre>
+ * adb shell am instrument -w -e class \
+ *         com.example.android.wearable.watchface.TransactionDatabaseBenchmark \
+ *         com.example.android.wearable.watchface.test/android.test.InstrumentationTestRunner
+ * </pre>
+ * Results are logged under {@link #TAG}.
+ */
+public class TransactionDatabaseBenchmark extends AndroidTestCase {
+    private static final String TAG = "TransactionDbBenchmark";
+
+    private static final String DATABASE_NAME = "transactions.db";
+    private static final int ROWS = 100000;
+    private static final int DAYS = 31;
+    /** Matches the service's read batches. */
+    private static final int BATCH_SIZE = 256;
+    private static final int QUERY_REPEATS = 20;
+
+    private RenamingDelegatingContext mContext;
+    private TransactionDatabase mDatabase;
+    private long mNowMs;
+    private long[] mTimesMs;
+    private long[] mAmountsCents;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = new RenamingDelegatingContext(getContext(), "benchmark_");
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDatabase = new TransactionDatabase(mContext);
+
+        // Sales of 1.00 to 99.99, evenly spaced and in time order like live ones.
+        mNowMs = System.currentTimeMillis();
+        long startMs = addDays(mNowMs, 1 - DAYS);
+        mTimesMs = new long[ROWS];
+        mAmountsCents = new long[ROWS];
+        Random random = new Random(42);
+        for (int i = 0; i < ROWS; i++) {
+            mTimesMs[i] = startMs + (mNowMs - startMs) * i / ROWS;
+            mAmountsCents[i] = 100 + random.nextInt(9900);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDatabase.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testAppendAndQuery100kRows() {
+        long startNs = System.nanoTime();
+        for (int from = 0; from < ROWS; from += BATCH_SIZE) {
+            int size = Math.min(BATCH_SIZE, ROWS - from);
+            long[] timesMs = new long[size];
+            long[] amountsCents = new long[size];
+            System.arraycopy(mTimesMs, from, timesMs, 0, size);
+            System.arraycopy(mAmountsCents, from, amountsCents, 0, size);
+            int[] noIds = new int[size];
+            mDatabase.appendAll(timesMs, amountsCents, noIds, noIds);
+        }
+        double appendSeconds = (System.nanoTime() - startNs) / 1e9;
+        Log.i(TAG, String.format("Appended %d rows in batches of %d in %.3f s: %.0f rows/s",
+                ROWS, BATCH_SIZE, appendSeconds, ROWS / appendSeconds));
+
+        checkRange("today", 1);
+        checkRange("week", 7);
+        checkRange("month", DAYS);
+    }
+
+    /**
+     * Checks that the daily and hourly rollups of the last {@code days} days, today included,
+     * add up to their sales, and logs how long each read takes compared with summing the raw
+     * sales.
+     */
+    private void checkRange(String name, int days) {
+        long fromMs = addDays(mNowMs, 1 - days);
+        long toMs = addDays(mNowMs, 1);
+        String fromDayKey = DigitalWatchFaceCompanionUtil.formatDayKey(fromMs);
+        String toDayKey = DigitalWatchFaceCompanionUtil.formatDayKey(mNowMs);
+        long expectedTotalCents = 0;
+        long expectedCount = 0;
+        for (int i = 0; i < ROWS; i++) {
+            if (mTimesMs[i] >= fromMs && mTimesMs[i] < toMs) {
+                expectedTotalCents += mAmountsCents[i];
+                expectedCount++;
+            }
+        }
+
+        TransactionDatabase.Totals dayTotals = null;
+        long startNs = System.nanoTime();
+        for (int i = 0; i < QUERY_REPEATS; i++) {
+            dayTotals = mDatabase.queryDays(fromDayKey, toDayKey);
+        }
+        long daysNs = (System.nanoTime() - startNs) / QUERY_REPEATS;
+
+        TransactionDatabase.Totals hourTotals = null;
+        startNs = System.nanoTime();
+        for (int i = 0; i < QUERY_REPEATS; i++) {
+            hourTotals = mDatabase.queryHours(fromMs, toMs);
+        }
+        long hoursNs = (System.nanoTime() - startNs) / QUERY_REPEATS;
+
+        long rawTotalCents = 0;
+        startNs = System.nanoTime();
+        for (int i = 0; i < QUERY_REPEATS; i++) {
+            rawTotalCents = sumRawSales(fromMs, toMs);
+        }
+        long rawNs = (System.nanoTime() - startNs) / QUERY_REPEATS;
+
+        Log.i(TAG, String.format("%s (%d rows): daily rollups %.3f ms, hourly rollups %.3f ms,"
+                + " raw sum %.3f ms", name, expectedCount, daysNs / 1e6, hoursNs / 1e6,
+                rawNs / 1e6));
+        assertEquals(name + " raw total", expectedTotalCents, rawTotalCents);
+        assertEquals(name + " hourly total", expectedTotalCents, hourTotals.getTotalCents());
+        assertEquals(name + " hourly count", expectedCount, hourTotals.getCount());
+        assertEquals(name + " daily total", expectedTotalCents, dayTotals.getTotalCents());
+        assertEquals(name + " daily count", expectedCount, dayTotals.getCount());
+    }
+
+    /** Sums the sales from {@code fromMs} to {@code toMs} the way it was done before rollups. */
+    private long sumRawSales(long fromMs, long toMs) {
+        Cursor cursor = mDatabase.getReadableDatabase().rawQuery(
+                "SELECT SUM(amount_cents) FROM transactions WHERE time >= ? AND time < ?",
+                new String[] {Long.toString(fromMs), Long.toString(toMs)});
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Returns the start of the local day {@code days} days after that of {@code timeMs}. */
+    private static long addDays(long timeMs, int days) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(timeMs);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.add(Calendar.DAY_OF_MONTH, days);
+        return calendar.getTimeInMillis();
+    }
+}
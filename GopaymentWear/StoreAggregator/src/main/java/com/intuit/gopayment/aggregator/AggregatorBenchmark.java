@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intuit.gopayment.aggregator;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many sales per second an {@link AggregatorServer} merges. Starts a server on the
+ * loopback interface and that many simulated registers, each on its own connection and thread,
+ * sending one register update per sale as fast as it can while draining the snapshots pushed
+ * back. Stops when the merged counter includes every sale.
+ * <pre>
+ * java -cp StoreAggregator.jar com.intuit.gopayment.aggregator.AggregatorBenchmark \
+ *         [--registers 300] [--sales 2000] [--batch-window-ms 20] [--max-batch 4096]
+ * </pre>
+ */
+public final class AggregatorBenchmark {
+    private static final int DAY = 20261016;
+    private static final long TIMEOUT_MINUTES = 5;
+
+    public static void main(String[] args) throws Exception {
+        int registers = 300;
+        int salesPerRegister = 2000;
+        long batchWindowMs = AggregatorServer.DEFAULT_BATCH_WINDOW_MS;
+        int maxBatchSize = AggregatorServer.DEFAULT_MAX_BATCH_SIZE;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if ("--registers".equals(args[i])) {
+                registers = Integer.parseInt(args[i + 1]);
+            } else if ("--sales".equals(args[i])) {
+                salesPerRegister = Integer.parseInt(args[i + 1]);
+            } else if ("--batch-window-ms".equals(args[i])) {
+                batchWindowMs = Long.parseLong(args[i + 1]);
+            } else if ("--max-batch".equals(args[i])) {
+                maxBatchSize = Integer.parseInt(args[i + 1]);
+            } else {
+                System.err.println("Unknown option " + args[i]);
+                System.exit(2);
+            }
+        }
+
+        AggregatorServer server = new AggregatorServer(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), batchWindowMs,
+                maxBatchSize);
+        server.start();
+
+        // Each sale is 1.00 to 99.99; every 50th is refunded instead.
+        long expectedValueCents = 0;
+        long[][] amountsCents = new long[registers][salesPerRegister];
+        Random random = new Random(42);
+        for (int r = 0; r < registers; r++) {
+            for (int s = 0; s < salesPerRegister; s++) {
+                long amountCents = 100 + random.nextInt(9900);
+                amountsCents[r][s] = s % 50 == 49 ? -amountCents : amountCents;
+                expectedValueCents += amountsCents[r][s];
+            }
+        }
+
+        final CountDownLatch connected = new CountDownLatch(registers);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        List<Socket> sockets = new ArrayList<Socket>();
+        for (int r = 0; r < registers; r++) {
+            final Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                    server.getLocalPort());
+            socket.setTcpNoDelay(true);
+            sockets.add(socket);
+            Thread drainer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    drain(socket);
+                }
+            });
+            drainer.setDaemon(true);
+            drainer.start();
+            final String registerId = "register-" + r;
+            final long[] registerAmountsCents = amountsCents[r];
+            Thread register = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    sell(socket, registerId, registerAmountsCents, connected, start);
+                }
+            });
+            register.start();
+            threads.add(register);
+        }
+        connected.await();
+
+        long startNs = System.nanoTime();
+        start.countDown();
+        long deadlineNs = startNs + TimeUnit.MINUTES.toNanos(TIMEOUT_MINUTES);
+        RegisterCounters.Snapshot snapshot;
+        while (true) {
+            snapshot = server.getSnapshot();
+            if (snapshot != null && snapshot.getRegisterCount() == registers
+                    && server.getMergedUpdateCount() == (long) registers * salesPerRegister) {
+                break;
+            }
+            if (System.nanoTime() > deadlineNs) {
+                throw new IllegalStateException("Timed out at " + snapshot);
+            }
+            Thread.sleep(1);
+        }
+        long elapsedNs = System.nanoTime() - startNs;
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        server.close();
+
+        long sales = (long) registers * salesPerRegister;
+        double seconds = elapsedNs / 1e9;
+        System.out.println(String.format("%d registers x %d sales in %.3f s: %.0f sales/s, "
+                + "%d batches (%.1f updates each)", registers, salesPerRegister, seconds,
+                sales / seconds, server.getBatchCount(),
+                (double) server.getMergedUpdateCount() / server.getBatchCount()));
+        if (snapshot.getValueCents() != expectedValueCents) {
+            throw new IllegalStateException("Merged " + snapshot.getValueCents()
+                    + " cents, expected " + expectedValueCents);
+        }
+    }
+
+    /** Sends one register update per sale, each carrying the register's running counter. */
+    private static void sell(Socket socket, String registerId, long[] amountsCents,
+            CountDownLatch connected, CountDownLatch start) {
+        try {
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            connected.countDown();
+            start.await();
+            long incrementsCents = 0;
+            long decrementsCents = 0;
+            for (long amountCents : amountsCents) {
+                if (amountCents > 0) {
+                    incrementsCents += amountCents;
+                } else {
+                    decrementsCents -= amountCents;
+                }
+                out.write(Protocol.encodeRegisterUpdate(registerId, DAY, incrementsCents,
+                        decrementsCents));
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Reads and discards the snapshots pushed to a register, as a phone would apply them. */
+    private static void drain(Socket socket) {
+        byte[] buffer = new byte[4096];
+        try {
+            InputStream in = socket.getInputStream();
+            while (in.read(buffer) >= 0) {
+                // Discard.
+            }
+        } catch (IOException e) {
+            // Closed at the end of the run.
+        }
+    }
+
+    private AggregatorBenchmark() { }
+}
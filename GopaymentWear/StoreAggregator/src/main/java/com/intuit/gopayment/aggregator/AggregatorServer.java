@@ -0,0 +1,394 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intuit.gopayment.aggregator;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Accepts register connections and merges their {@link Protocol#TYPE_REGISTER_UPDATE updates}
+ * into the store's {@link RegisterCounters}, pushing a {@link Protocol#TYPE_SNAPSHOT snapshot} of
+ * the merged counter back to every register after each change.
+ * <p>
+ * Work is split between two threads, so hundreds of registers are served without a thread
+ * each:
+ * <ul>
+ * <li>An I/O thread multiplexes every connection with a {@link Selector}. It decodes all the
+ * frames a read returned and hands them over in one go.</li>
+ * <li>A merge thread takes the pending updates as a batch, lingering up to the batch window for
+ * a burst to settle, merges them and encodes a single snapshot frame for the whole batch.</li>
+ * </ul>
+ * Snapshots supersede each other, so each connection only holds on to the newest one not yet
+ * written; a slow register skips intermediate snapshots instead of queueing them.
+ */
+public final class AggregatorServer {
+    private static final Logger LOG = Logger.getLogger(AggregatorServer.class.getName());
+
+    /** Default time the merge thread waits for more updates before merging a batch. */
+    public static final long DEFAULT_BATCH_WINDOW_MS = 20;
+
+    /** Default number of updates merged as soon as they're pending, window or not. */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 4096;
+
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    private final long mBatchWindowMs;
+    private final int mMaxBatchSize;
+    private final ServerSocketChannel mServerChannel;
+    private final Selector mSelector;
+    private final Thread mIoThread;
+    private final Thread mMergeThread;
+
+    // Guarded by mLock.
+    private final Object mLock = new Object();
+    /** Updates decoded by the I/O thread and not yet merged. */
+    private List<RegisterUpdate> mPending = new ArrayList<RegisterUpdate>();
+    /** The list the merge thread last drained, reused as the next pending list. */
+    private List<RegisterUpdate> mSpare = new ArrayList<RegisterUpdate>();
+    private boolean mClosed;
+
+    // Only accessed on the I/O thread.
+    private final List<Connection> mConnections = new ArrayList<Connection>();
+
+    // Only accessed on the merge thread.
+    private final RegisterCounters mCounters = new RegisterCounters();
+
+    // Written on one thread only, read from anywhere.
+    private volatile RegisterCounters.Snapshot mSnapshot;
+    private volatile ByteBuffer mSnapshotFrame;
+    private volatile long mReceivedUpdateCount;
+    private volatile long mMergedUpdateCount;
+    private volatile long mBatchCount;
+    private volatile int mConnectionCount;
+
+    /**
+     * Binds to {@code address}; a port of 0 picks a free one. Call {@link #start} to begin
+     * serving.
+     */
+    public AggregatorServer(InetSocketAddress address, long batchWindowMs, int maxBatchSize)
+            throws IOException {
+        mBatchWindowMs = batchWindowMs;
+        mMaxBatchSize = maxBatchSize;
+        mSelector = Selector.open();
+        mServerChannel = ServerSocketChannel.open();
+        mServerChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        mServerChannel.bind(address, 1024);
+        mServerChannel.configureBlocking(false);
+        mServerChannel.register(mSelector, SelectionKey.OP_ACCEPT);
+        mIoThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "AggregatorIo");
+        mMergeThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mergeBatches();
+            }
+        }, "AggregatorMerge");
+    }
+
+    public void start() {
+        mIoThread.start();
+        mMergeThread.start();
+    }
+
+    public int getLocalPort() {
+        return mServerChannel.socket().getLocalPort();
+    }
+
+    /** Stops serving and closes every connection. */
+    public void close() throws InterruptedException {
+        synchronized (mLock) {
+            mClosed = true;
+            mLock.notifyAll();
+        }
+        mSelector.wakeup();
+        mIoThread.join();
+        mMergeThread.join();
+    }
+
+    /** Returns the latest merged counter, or null if no register reported yet. */
+    public RegisterCounters.Snapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    /** Returns the number of register updates decoded. */
+    public long getReceivedUpdateCount() {
+        return mReceivedUpdateCount;
+    }
+
+    /** Returns the number of register updates merged, whether or not they changed anything. */
+    public long getMergedUpdateCount() {
+        return mMergedUpdateCount;
+    }
+
+    /** Returns the number of batches merged. */
+    public long getBatchCount() {
+        return mBatchCount;
+    }
+
+    public int getConnectionCount() {
+        return mConnectionCount;
+    }
+
+    private void serve() {
+        List<RegisterUpdate> decoded = new ArrayList<RegisterUpdate>();
+        try {
+            while (!isClosed()) {
+                mSelector.select();
+                Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.read(decoded);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+                    } catch (IOException e) {
+                        LOG.log(Level.FINE, "Closing " + connection, e);
+                        closeConnection(connection);
+                    }
+                }
+                if (!decoded.isEmpty()) {
+                    handOver(decoded);
+                    decoded.clear();
+                }
+                // Pick up snapshots the merge thread published since the last round.
+                for (int i = mConnections.size() - 1; i >= 0; i--) {
+                    mConnections.get(i).updateInterest();
+                }
+            }
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Aggregator failed", e);
+        } finally {
+            for (Connection connection : new ArrayList<Connection>(mConnections)) {
+                closeConnection(connection);
+            }
+            closeQuietly(mServerChannel);
+            closeQuietly(mSelector);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = mServerChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Connection connection = new Connection(channel);
+        connection.mKey = channel.register(mSelector, SelectionKey.OP_READ, connection);
+        mConnections.add(connection);
+        // Brought up to date with the latest snapshot at the end of this round.
+        mConnectionCount = mConnections.size();
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine("Accepted " + connection);
+        }
+    }
+
+    private void closeConnection(Connection connection) {
+        connection.mKey.cancel();
+        closeQuietly(connection.mChannel);
+        mConnections.remove(connection);
+        mConnectionCount = mConnections.size();
+    }
+
+    private void handOver(List<RegisterUpdate> decoded) {
+        synchronized (mLock) {
+            boolean wasEmpty = mPending.isEmpty();
+            mPending.addAll(decoded);
+            if (wasEmpty || mPending.size() >= mMaxBatchSize) {
+                mLock.notifyAll();
+            }
+        }
+        mReceivedUpdateCount += decoded.size();
+    }
+
+    private void mergeBatches() {
+        while (true) {
+            List<RegisterUpdate> batch;
+            synchronized (mLock) {
+                try {
+                    while (mPending.isEmpty() && !mClosed) {
+                        mLock.wait();
+                    }
+                    // Linger so a burst of updates is merged, and pushed, as one batch.
+                    long deadlineMs = System.currentTimeMillis() + mBatchWindowMs;
+                    long waitMs;
+                    while (!mClosed && mPending.size() < mMaxBatchSize
+                            && (waitMs = deadlineMs - System.currentTimeMillis()) > 0) {
+                        mLock.wait(waitMs);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (mClosed) {
+                    return;
+                }
+                batch = mPending;
+                mPending = mSpare;
+                mSpare = null;
+            }
+
+            boolean changed = false;
+            for (int i = 0; i < batch.size(); i++) {
+                changed |= mCounters.merge(batch.get(i));
+            }
+            mMergedUpdateCount += batch.size();
+            mBatchCount++;
+            batch.clear();
+            synchronized (mLock) {
+                mSpare = batch;
+            }
+            if (changed) {
+                publish(mCounters.getSnapshot());
+            }
+        }
+    }
+
+    /** Makes {@code snapshot} the next frame of every connection, replacing any unsent one. */
+    private void publish(RegisterCounters.Snapshot snapshot) {
+        mSnapshot = snapshot;
+        mSnapshotFrame = Protocol.encodeSnapshot(snapshot);
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine("Publishing " + snapshot);
+        }
+        // The I/O thread hands it to each connection after waking up.
+        mSelector.wakeup();
+    }
+
+    private boolean isClosed() {
+        synchronized (mLock) {
+            return mClosed;
+        }
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing left to do with it.
+        }
+    }
+
+    /** One register's connection. Only accessed on the I/O thread. */
+    private final class Connection {
+        final SocketChannel mChannel;
+        SelectionKey mKey;
+        final ByteBuffer mIn = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        /** The frame being written, or null. */
+        ByteBuffer mOut;
+        /** The newest snapshot frame not yet started, or null. */
+        ByteBuffer mNextFrame;
+        /** The snapshot frame this connection was last given. */
+        ByteBuffer mLastFrame;
+
+        Connection(SocketChannel channel) {
+            mChannel = channel;
+        }
+
+        /** Reads what's available, adding the register updates decoded to {@code decoded}. */
+        void read(List<RegisterUpdate> decoded) throws IOException {
+            if (mChannel.read(mIn) < 0) {
+                throw new IOException("Register disconnected");
+            }
+            mIn.flip();
+            while (mIn.remaining() >= 4) {
+                int length = mIn.getInt(mIn.position());
+                if (length < 1 || length > Protocol.MAX_FRAME_LENGTH) {
+                    throw new IOException("Bad frame length " + length);
+                }
+                if (mIn.remaining() < 4 + length) {
+                    break;
+                }
+                ByteBuffer body = mIn.slice();
+                body.position(4);
+                body.limit(4 + length);
+                mIn.position(mIn.position() + 4 + length);
+                byte type = body.get();
+                if (type == Protocol.TYPE_REGISTER_UPDATE) {
+                    try {
+                        decoded.add(Protocol.decodeRegisterUpdate(body));
+                    } catch (IllegalArgumentException e) {
+                        throw new IOException("Malformed register update", e);
+                    }
+                }
+                // Unknown types are skipped, for newer registers.
+            }
+            mIn.compact();
+        }
+
+        void write() throws IOException {
+            while (true) {
+                if (mOut == null || !mOut.hasRemaining()) {
+                    mOut = mNextFrame;
+                    mNextFrame = null;
+                    if (mOut == null) {
+                        mKey.interestOps(SelectionKey.OP_READ);
+                        return;
+                    }
+                }
+                mChannel.write(mOut);
+                if (mOut.hasRemaining()) {
+                    // The socket buffer is full; carry on when it drains.
+                    return;
+                }
+            }
+        }
+
+        /** Queues the latest published snapshot, if new to this connection, and asks to write. */
+        void updateInterest() {
+            ByteBuffer snapshotFrame = mSnapshotFrame;
+            if (snapshotFrame != null && snapshotFrame != mLastFrame) {
+                mLastFrame = snapshotFrame;
+                mNextFrame = snapshotFrame.duplicate();
+            }
+            if (mNextFrame != null || (mOut != null && mOut.hasRemaining())) {
+                mKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Connection{" + mChannel.socket().getRemoteSocketAddress() + "}";
+        }
+    }
+}
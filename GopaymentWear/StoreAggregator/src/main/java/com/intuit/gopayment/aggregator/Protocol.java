@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intuit.gopayment.aggregator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * The frames exchanged between registers and the {@link AggregatorServer}. Every frame is a
+ * 4-byte big-endian length followed by that many bytes: a type byte and the frame's fields.
+ * <ul>
+ * <li>{@link #TYPE_REGISTER_UPDATE}, register to aggregator: register id (modified UTF-8),
+ * day (int, e.g. {@code 20261016}), increments and decrements in cents (longs). The register's
+ * slot of the store's PN-counter; both amounts only grow during a day.</li>
+ * <li>{@link #TYPE_SNAPSHOT}, aggregator to register: day, merged increments and decrements in
+ * cents, number of registers merged (int).</li>
+ * </ul>
+ * The phone's {@code StoreAggregatorClient} has its own copy of these.
+ */
+public final class Protocol {
+    /** Port the aggregator listens on by default. */
+    public static final int DEFAULT_PORT = 7420;
+
+    public static final byte TYPE_REGISTER_UPDATE = 1;
+    public static final byte TYPE_SNAPSHOT = 2;
+
+    /** Frames longer than this are rejected, and their connection closed. */
+    public static final int MAX_FRAME_LENGTH = 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Returns a {@link #TYPE_REGISTER_UPDATE} frame, length included. */
+    public static byte[] encodeRegisterUpdate(String registerId, int day, long incrementsCents,
+            long decrementsCents) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0);
+            out.writeByte(TYPE_REGISTER_UPDATE);
+            out.writeUTF(registerId);
+            out.writeInt(day);
+            out.writeLong(incrementsCents);
+            out.writeLong(decrementsCents);
+            out.close();
+            byte[] frame = bytes.toByteArray();
+            ByteBuffer.wrap(frame).putInt(frame.length - 4);
+            return frame;
+        } catch (IOException e) {
+            // Can't happen, it's all in memory.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Returns a {@link #TYPE_SNAPSHOT} frame, length included, ready to be written. */
+    public static ByteBuffer encodeSnapshot(RegisterCounters.Snapshot snapshot) {
+        ByteBuffer frame = ByteBuffer.allocate(4 + 1 + 4 + 8 + 8 + 4);
+        frame.putInt(frame.capacity() - 4);
+        frame.put(TYPE_SNAPSHOT);
+        frame.putInt(snapshot.mDay);
+        frame.putLong(snapshot.mIncrementsCents);
+        frame.putLong(snapshot.mDecrementsCents);
+        frame.putInt(snapshot.mRegisterCount);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Decodes the body of a {@link #TYPE_REGISTER_UPDATE} frame, positioned just after its type
+     * byte.
+     *
+     * @throws IllegalArgumentException if the frame is malformed
+     */
+    public static RegisterUpdate decodeRegisterUpdate(ByteBuffer body) {
+        if (body.remaining() < 2) {
+            throw new IllegalArgumentException("Truncated register id");
+        }
+        int idLength = body.getShort() & 0xffff;
+        if (body.remaining() != idLength + 4 + 8 + 8) {
+            throw new IllegalArgumentException("Bad register update length " + body.remaining());
+        }
+        byte[] id = new byte[idLength];
+        body.get(id);
+        // Register ids are plain ASCII, for which modified UTF-8 and UTF-8 agree.
+        String registerId = new String(id, UTF_8);
+        return new RegisterUpdate(registerId, body.getInt(), body.getLong(), body.getLong());
+    }
+
+    private Protocol() { }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intuit.gopayment.aggregator;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The store's PN-counter for one day: one slot per register holding the cents it added and the
+ * cents it took away, merged by element-wise maximum. Merging is commutative, associative and
+ * idempotent, so updates may arrive late, twice or out of order, and a register that reconnects
+ * can simply resend its slot. The sums are kept alongside the slots, so each merge and each
+ * {@link #getSnapshot} is O(1) however many registers there are.
+ * <p>
+ * An update from a later day starts a new counter; one from an earlier day is ignored.
+ * <p>
+ * Not thread-safe.
+ */
+public final class RegisterCounters {
+    private int mDay;
+    /** {increments, decrements} in cents, by register id. */
+    private final Map<String, long[]> mSlots = new HashMap<String, long[]>();
+    private long mIncrementsCents;
+    private long mDecrementsCents;
+
+    /**
+     * Merges {@code update} into the counter.
+     *
+     * @return whether the counter changed
+     */
+    public boolean merge(RegisterUpdate update) {
+        if (update.mDay < mDay) {
+            return false;
+        }
+        if (update.mDay > mDay) {
+            mDay = update.mDay;
+            mSlots.clear();
+            mIncrementsCents = 0;
+            mDecrementsCents = 0;
+        }
+        long[] slot = mSlots.get(update.mRegisterId);
+        if (slot == null) {
+            slot = new long[2];
+            mSlots.put(update.mRegisterId, slot);
+        }
+        boolean changed = false;
+        if (update.mIncrementsCents > slot[0]) {
+            mIncrementsCents += update.mIncrementsCents - slot[0];
+            slot[0] = update.mIncrementsCents;
+            changed = true;
+        }
+        if (update.mDecrementsCents > slot[1]) {
+            mDecrementsCents += update.mDecrementsCents - slot[1];
+            slot[1] = update.mDecrementsCents;
+            changed = true;
+        }
+        return changed;
+    }
+
+    public Snapshot getSnapshot() {
+        return new Snapshot(mDay, mIncrementsCents, mDecrementsCents, mSlots.size());
+    }
+
+    /** The merged counter at one point in time. */
+    public static final class Snapshot {
+        final int mDay;
+        final long mIncrementsCents;
+        final long mDecrementsCents;
+        final int mRegisterCount;
+
+        Snapshot(int day, long incrementsCents, long decrementsCents, int registerCount) {
+            mDay = day;
+            mIncrementsCents = incrementsCents;
+            mDecrementsCents = decrementsCents;
+            mRegisterCount = registerCount;
+        }
+
+        public int getDay() {
+            return mDay;
+        }
+
+        /** Returns the store-wide total in cents. */
+        public long getValueCents() {
+            return mIncrementsCents - mDecrementsCents;
+        }
+
+        public long getIncrementsCents() {
+            return mIncrementsCents;
+        }
+
+        public int getRegisterCount() {
+            return mRegisterCount;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{day=" + mDay + ", +" + mIncrementsCents + "/-" + mDecrementsCents
+                    + ", registers=" + mRegisterCount + "}";
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intuit.gopayment.aggregator;
+
+/** One register's slot of the store's PN-counter, as received in a register update. */
+public final class RegisterUpdate {
+    final String mRegisterId;
+    final int mDay;
+    final long mIncrementsCents;
+    final long mDecrementsCents;
+
+    public RegisterUpdate(String registerId, int day, long incrementsCents,
+            long decrementsCents) {
+        mRegisterId = registerId;
+        mDay = day;
+        mIncrementsCents = incrementsCents;
+        mDecrementsCents = decrementsCents;
+    }
+
+    @Override
+    public String toString() {
+        return "RegisterUpdate{" + mRegisterId + ", day=" + mDay + ", +" + mIncrementsCents
+                + "/-" + mDecrementsCents + "}";
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intuit.gopayment.aggregator;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * Runs an {@link AggregatorServer} until killed, for stores with several registers. Point each
+ * phone at it with {@code PaymentAggregationService.setStoreAggregator}.
+ * <pre>
+ * java -jar StoreAggregator.jar [--port 7420] [--batch-window-ms 20] [--max-batch 4096]
+ * </pre>
+ */
+public final class StoreAggregator {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = Protocol.DEFAULT_PORT;
+        long batchWindowMs = AggregatorServer.DEFAULT_BATCH_WINDOW_MS;
+        int maxBatchSize = AggregatorServer.DEFAULT_MAX_BATCH_SIZE;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if ("--port".equals(args[i])) {
+                port = Integer.parseInt(args[i + 1]);
+            } else if ("--batch-window-ms".equals(args[i])) {
+                batchWindowMs = Long.parseLong(args[i + 1]);
+            } else if ("--max-batch".equals(args[i])) {
+                maxBatchSize = Integer.parseInt(args[i + 1]);
+            } else {
+                System.err.println("Unknown option " + args[i]);
+                System.exit(2);
+            }
+        }
+
+        final AggregatorServer server = new AggregatorServer(new InetSocketAddress(port),
+                batchWindowMs, maxBatchSize);
+        server.start();
+        System.out.println("Store aggregator listening on port " + server.getLocalPort());
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                try {
+                    server.close();
+                } catch (InterruptedException e) {
+                    // Exiting anyway.
+                }
+            }
+        });
+        while (true) {
+            Thread.sleep(60 * 1000);
+            System.out.println(server.getConnectionCount() + " registers connected, "
+                    + server.getSnapshot());
+        }
+    }
+
+    private StoreAggregator() { }
+}
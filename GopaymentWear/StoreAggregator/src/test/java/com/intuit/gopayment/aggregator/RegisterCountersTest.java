@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intuit.gopayment.aggregator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RegisterCountersTest {
+    private static final int DAY = 20261016;
+
+    private static final RegisterUpdate A1 = new RegisterUpdate("a", DAY, 1000, 0);
+    private static final RegisterUpdate A2 = new RegisterUpdate("a", DAY, 2500, 300);
+    private static final RegisterUpdate B1 = new RegisterUpdate("b", DAY, 700, 100);
+    private static final RegisterUpdate C1 = new RegisterUpdate("c", DAY, 50, 0);
+
+    @Test
+    public void mergeIsCommutative() {
+        RegisterCounters forward = merge(A1, A2, B1, C1);
+        RegisterCounters backward = merge(C1, B1, A2, A1);
+        RegisterCounters shuffled = merge(B1, A2, C1, A1);
+
+        assertSnapshot(forward, DAY, 2500 + 700 + 50, 300 + 100, 3);
+        assertSameSnapshot(forward, backward);
+        assertSameSnapshot(forward, shuffled);
+    }
+
+    @Test
+    public void mergeIsIdempotent() {
+        RegisterCounters counters = merge(A1, A2, B1, C1);
+
+        assertFalse(counters.merge(A1));
+        assertFalse(counters.merge(A2));
+        assertFalse(counters.merge(B1));
+        assertFalse(counters.merge(C1));
+        assertSameSnapshot(merge(A1, A2, B1, C1), counters);
+        assertSameSnapshot(counters, merge(A1, A1, A2, A2, B1, B1, C1, C1));
+    }
+
+    @Test
+    public void mergeKeepsEachSlotsMaximum() {
+        RegisterCounters counters = merge(A2);
+
+        // An older slot state, e.g. resent after a reconnect, changes nothing.
+        assertFalse(counters.merge(A1));
+        // Only one of the two grew; the other keeps its maximum.
+        assertTrue(counters.merge(new RegisterUpdate("a", DAY, 2400, 500)));
+        assertSnapshot(counters, DAY, 2500, 500, 1);
+    }
+
+    @Test
+    public void laterDayReplacesCounter() {
+        RegisterCounters counters = merge(A2, B1);
+
+        assertTrue(counters.merge(new RegisterUpdate("c", DAY + 1, 400, 0)));
+        assertSnapshot(counters, DAY + 1, 400, 0, 1);
+    }
+
+    @Test
+    public void earlierDayIsIgnored() {
+        RegisterCounters counters = merge(new RegisterUpdate("c", DAY + 1, 400, 0));
+
+        assertFalse(counters.merge(A2));
+        assertSnapshot(counters, DAY + 1, 400, 0, 1);
+    }
+
+    private static RegisterCounters merge(RegisterUpdate... updates) {
+        RegisterCounters counters = new RegisterCounters();
+        for (RegisterUpdate update : updates) {
+            counters.merge(update);
+        }
+        return counters;
+    }
+
+    private static void assertSnapshot(RegisterCounters counters, int day, long incrementsCents,
+            long decrementsCents, int registerCount) {
+        RegisterCounters.Snapshot snapshot = counters.getSnapshot();
+        assertEquals(day, snapshot.getDay());
+        assertEquals(incrementsCents, snapshot.getIncrementsCents());
+        assertEquals(incrementsCents - decrementsCents, snapshot.getValueCents());
+        assertEquals(registerCount, snapshot.getRegisterCount());
+    }
+
+    private static void assertSameSnapshot(RegisterCounters expected, RegisterCounters actual) {
+        assertEquals(expected.getSnapshot().toString(), actual.getSnapshot().toString());
+    }
+}
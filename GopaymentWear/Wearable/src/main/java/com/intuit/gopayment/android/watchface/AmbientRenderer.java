@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intuit.gopayment.android.watchface;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+
+/**
+ * Draws the face in ambient mode with as few lit pixels as it can, on black: the time in
+ * outlined digits, the day's total in light type and the goal wave as an outline instead of a
+ * filled block. The goal arcs, the sparkline and the other details are left out.
+ * <p>
+ * On OLED displays every lit pixel costs power, so what's drawn here should stay well within
+ * {@link LitPixelAnalyzer#DEFAULT_BUDGET}.
+ */
+public final class AmbientRenderer {
+    private static final Typeface NORMAL_TYPEFACE =
+            Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL);
+    private static final Typeface LIGHT_TYPEFACE =
+            Typeface.create("sans-serif-light", Typeface.NORMAL);
+
+    private final Paint mBackgroundPaint = new Paint();
+    private final Paint mTimePaint = new Paint();
+    private final Paint mTotalPaint = new Paint();
+    private final Paint mWavePaint = new Paint();
+    private int mWaveColor;
+    private int mGoalMetWaveColor;
+
+    /**
+     * @param strokeWidth the width of the outlines of the digits and of the wave
+     * @param waveColor the color of the wave's outline until the goal is met
+     * @param goalMetWaveColor its color once the goal is met
+     */
+    public AmbientRenderer(float strokeWidth, int waveColor, int goalMetWaveColor) {
+        mBackgroundPaint.setColor(Color.BLACK);
+        mTimePaint.setColor(Color.WHITE);
+        mTimePaint.setTypeface(NORMAL_TYPEFACE);
+        // Solid digits this size light about 12% of a round face on their own; outlines, half.
+        mTimePaint.setStyle(Paint.Style.STROKE);
+        mTimePaint.setStrokeWidth(strokeWidth);
+        mTotalPaint.setColor(Color.WHITE);
+        mTotalPaint.setTypeface(LIGHT_TYPEFACE);
+        mWavePaint.setStyle(Paint.Style.STROKE);
+        mWavePaint.setStrokeWidth(strokeWidth);
+        mWaveColor = waveColor;
+        mGoalMetWaveColor = goalMetWaveColor;
+        setLowBitAmbient(false);
+    }
+
+    public void setTextSizes(float timeTextSize, float totalTextSize) {
+        mTimePaint.setTextSize(timeTextSize);
+        mTotalPaint.setTextSize(totalTextSize);
+    }
+
+    /** Turns anti-aliasing off for displays with fewer bits per color in ambient mode. */
+    public void setLowBitAmbient(boolean lowBitAmbient) {
+        mTimePaint.setAntiAlias(!lowBitAmbient);
+        mTotalPaint.setAntiAlias(!lowBitAmbient);
+        mWavePaint.setAntiAlias(!lowBitAmbient);
+    }
+
+    /**
+     * Draws a frame in {@code bounds}, down to {@code visibleBottom}: {@code timeString} and
+     * {@code totalString}, if not null, centered on their baselines {@code timeY} and
+     * {@code totalY}, and the wave at {@code progress} towards the daily goal, if there's a goal.
+     */
+    public void draw(Canvas canvas, Rect bounds, float visibleBottom, String timeString,
+            float timeY, String totalString, float totalY, boolean hasGoal, float progress) {
+        canvas.drawRect(0, 0, bounds.width(), visibleBottom, mBackgroundPaint);
+        if (hasGoal) {
+            float inset = mWavePaint.getStrokeWidth() / 2;
+            float waveTop = bounds.height() - Math.min(progress, 1) * bounds.height();
+            if (waveTop + inset < visibleBottom) {
+                mWavePaint.setColor(progress >= 1 ? mGoalMetWaveColor : mWaveColor);
+                canvas.drawRect(inset, Math.max(waveTop, inset), bounds.width() - inset,
+                        bounds.height() - inset, mWavePaint);
+            }
+        }
+        float x = bounds.centerX();
+        if (timeString != null) {
+            canvas.drawText(timeString, x - mTimePaint.measureText(timeString) / 2, timeY,
+                    mTimePaint);
+        }
+        if (totalString != null) {
+            canvas.drawText(totalString, x - mTotalPaint.measureText(totalString) / 2, totalY,
+                    mTotalPaint);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intuit.gopayment.android.watchface;
+
+import java.util.Arrays;
+
+/**
+ * Sales totals by day in a Fenwick (binary indexed) tree, so the total of any range of days
+ * takes O(log n), as does changing one day's total.
+ * <p>
+ * Days are counted from the epoch, as returned by {@link DigitalWatchFaceUtil#getEpochDay}. The
+ * tree covers a window of {@code capacity} consecutive days which slides forward, rebuilt in
+ * O(n), when a later day is set; days that fall out of it, or are set before it, count as 0.
+ * <p>
+ * Not thread-safe.
+ */
+public final class DailyTotalsTree {
+    private final int mCapacity;
+    /** Partial sums, 1-based: slot i sums the {@code i & -i} days ending at day i - 1. */
+    private final long[] mTree;
+    private final long[] mTotals;
+    /** Epoch day of the first day of the window, or {@code Integer.MIN_VALUE} if unset. */
+    private int mFirstDay = Integer.MIN_VALUE;
+
+    public DailyTotalsTree(int capacity) {
+        mCapacity = capacity;
+        mTree = new long[capacity + 1];
+        mTotals = new long[capacity];
+    }
+
+    /**
+     * Sets the total of {@code epochDay}.
+     *
+     * @return whether the total changed
+     */
+    public boolean set(int epochDay, long total) {
+        if (mFirstDay == Integer.MIN_VALUE || epochDay >= mFirstDay + mCapacity) {
+            // Keep a quarter of the window ahead so the next slide is months away.
+            slideTo(epochDay - mCapacity * 3 / 4);
+        }
+        if (epochDay < mFirstDay) {
+            return false;
+        }
+        int index = epochDay - mFirstDay;
+        long delta = total - mTotals[index];
+        if (delta == 0) {
+            return false;
+        }
+        mTotals[index] = total;
+        for (int i = index + 1; i <= mCapacity; i += i & -i) {
+            mTree[i] += delta;
+        }
+        return true;
+    }
+
+    /** Returns the total of {@code epochDay}. */
+    public long get(int epochDay) {
+        int index = epochDay - mFirstDay;
+        return mFirstDay == Integer.MIN_VALUE || index < 0 || index >= mCapacity
+                ? 0 : mTotals[index];
+    }
+
+    /** Returns the total of the days from {@code firstEpochDay} to {@code lastEpochDay}. */
+    public long sum(int firstEpochDay, int lastEpochDay) {
+        if (mFirstDay == Integer.MIN_VALUE || lastEpochDay < firstEpochDay) {
+            return 0;
+        }
+        int first = Math.max(firstEpochDay - mFirstDay, 0);
+        int last = Math.min(lastEpochDay - mFirstDay, mCapacity - 1);
+        if (first > last) {
+            return 0;
+        }
+        return prefixSum(last + 1) - prefixSum(first);
+    }
+
+    /** Returns the total of the first {@code count} days of the window. */
+    private long prefixSum(int count) {
+        long sum = 0;
+        for (int i = count; i > 0; i -= i & -i) {
+            sum += mTree[i];
+        }
+        return sum;
+    }
+
+    /** Moves the window to start at {@code firstDay}, keeping the days still inside it. */
+    private void slideTo(int firstDay) {
+        int shift = mFirstDay == Integer.MIN_VALUE ? mCapacity : firstDay - mFirstDay;
+        for (int i = 0; i < mCapacity; i++) {
+            mTotals[i] = i + shift < mCapacity ? mTotals[i + shift] : 0;
+        }
+        mFirstDay = firstDay;
+        Arrays.fill(mTree, 0);
+        // Build the tree bottom-up: each slot passes its sum on to its parent.
+        for (int i = 1; i <= mCapacity; i++) {
+            mTree[i] += mTotals[i - 1];
+            int parent = i + (i & -i);
+            if (parent <= mCapacity) {
+                mTree[parent] += mTree[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intuit.gopayment.android.watchface;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.util.Log;
+
+import java.util.Calendar;
+
+/**
+ * Tells its {@link Callback} when a new local day starts, so the face can archive the day that
+ * ended and zero its live totals once, instead of checking for a new day on every frame.
+ * <p>
+ * The bounds of the current day are worked out once per day, in the current time zone, and a
+ * single alarm wakes the watch at the next midnight. Daylight saving changes in between are part
+ * of the zone's rules, so the alarm already fires at the right instant; only a new time zone or a
+ * clock set by hand moves the bounds, so those are the other times they're recomputed.
+ * <p>
+ * Only used on the main thread.
+ */
+public final class DayRollover {
+    private static final String TAG = "DayRollover";
+
+    /** Action of the midnight alarm, only ever sent to this app. */
+    private static final String ACTION_MIDNIGHT =
+            "com.intuit.gopayment.android.watchface.action.MIDNIGHT";
+
+    /** Receives the start of each new day, on the main thread. */
+    public interface Callback {
+        /**
+         * Called once {@code day} started, at {@code dayStartMs}, when {@code previousDay} was
+         * the current one. Both are {@link DigitalWatchFaceUtil#getDayNumber day numbers};
+         * {@code day} is earlier than {@code previousDay} if the clock was set back.
+         */
+        void onDayStarted(int previousDay, int day, long dayStartMs);
+    }
+
+    private final Context mContext;
+    private final Callback mCallback;
+    private final AlarmManager mAlarmManager;
+    private final PendingIntent mMidnightIntent;
+
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Received " + intent.getAction());
+            }
+            // Even on the same day, a new time zone moves its bounds, and an early alarm
+            // needs arming again.
+            rollOver(System.currentTimeMillis());
+        }
+    };
+
+    private boolean mStarted;
+    private int mDay;
+    private long mDayStartMs;
+    private long mNextDayStartMs;
+
+    public DayRollover(Context context, Callback callback) {
+        mContext = context;
+        mCallback = callback;
+        mAlarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        mMidnightIntent = PendingIntent.getBroadcast(context, 0,
+                new Intent(ACTION_MIDNIGHT).setPackage(context.getPackageName()),
+                PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    /**
+     * Starts on the current day, without calling back for it, and arms the alarm for its end.
+     */
+    public void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        IntentFilter filter = new IntentFilter(ACTION_MIDNIGHT);
+        filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+        filter.addAction(Intent.ACTION_TIME_CHANGED);
+        mContext.registerReceiver(mReceiver, filter);
+        long nowMs = System.currentTimeMillis();
+        mDay = DigitalWatchFaceUtil.getDayNumber(nowMs);
+        computeBounds(nowMs);
+    }
+
+    /** Cancels the alarm; no more days are reported until started again. */
+    public void stop() {
+        if (!mStarted) {
+            return;
+        }
+        mStarted = false;
+        mContext.unregisterReceiver(mReceiver);
+        mAlarmManager.cancel(mMidnightIntent);
+    }
+
+    /**
+     * Catches up with the clock, e.g. after the face was hidden, calling back if the day changed.
+     * Cheap enough to call whenever in doubt, as it only compares the time against the bounds.
+     */
+    public void update(long nowMs) {
+        if (mStarted && (nowMs < mDayStartMs || nowMs >= mNextDayStartMs)) {
+            rollOver(nowMs);
+        }
+    }
+
+    /**
+     * Moves the bounds to the day containing {@code nowMs} and calls back if that's a different
+     * day.
+     */
+    private void rollOver(long nowMs) {
+        int previousDay = mDay;
+        computeBounds(nowMs);
+        mDay = DigitalWatchFaceUtil.getDayNumber(nowMs);
+        if (mDay != previousDay) {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Day " + previousDay + " rolled over to " + mDay);
+            }
+            mCallback.onDayStarted(previousDay, mDay, mDayStartMs);
+        }
+    }
+
+    /** Returns the current local day as a {@link DigitalWatchFaceUtil#getDayNumber day number}. */
+    public int getDay() {
+        return mDay;
+    }
+
+    /** Returns when the current day started, in milliseconds since the epoch. */
+    public long getDayStartMs() {
+        return mDayStartMs;
+    }
+
+    /**
+     * Sets the bounds to those of the local day containing {@code nowMs}, in the current time
+     * zone, and moves the alarm to the end of it.
+     */
+    private void computeBounds(long nowMs) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(nowMs);
+        int year = calendar.get(Calendar.YEAR);
+        int month = calendar.get(Calendar.MONTH);
+        int dayOfMonth = calendar.get(Calendar.DAY_OF_MONTH);
+        mDayStartMs = getStartOfDayMs(calendar, year, month, dayOfMonth);
+        // Lenient, so the 32nd of a month is the 1st of the next.
+        mNextDayStartMs = getStartOfDayMs(calendar, year, month, dayOfMonth + 1);
+        mAlarmManager.setExact(AlarmManager.RTC_WAKEUP, mNextDayStartMs, mMidnightIntent);
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Day runs from " + mDayStartMs + " to " + mNextDayStartMs);
+        }
+    }
+
+    /**
+     * Returns the first instant of the given day. Where a daylight saving change skips midnight,
+     * that's the first time after the gap, e.g. 01:00.
+     */
+    private static long getStartOfDayMs(Calendar calendar, int year, int month, int dayOfMonth) {
+        calendar.clear();
+        calendar.set(year, month, dayOfMonth);
+        return calendar.getTimeInMillis();
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intuit.gopayment.android.watchface;
+
+/**
+ * An event rate that forgets exponentially: each event's weight halves every
+ * {@code halfLifeMs}, so the rate follows the recent past without storing any events. Adding
+ * events and reading the rate are O(1).
+ * <p>
+ * Time is observed from when the rate is created, not from its first event, so a single event
+ * soon after isn't read as a fast rate.
+ * <p>
+ * Not thread-safe.
+ */
+public final class DecayedRate {
+    private final double mDecayPerMs;
+    private final long mStartMs;
+    /** Decayed event count as of {@link #mLastMs}. */
+    private double mWeight;
+    private long mLastMs;
+
+    /** Creates a rate with no events, observed from {@code startMs}. */
+    public DecayedRate(long halfLifeMs, long startMs) {
+        mDecayPerMs = Math.log(2) / halfLifeMs;
+        mStartMs = startMs;
+        mLastMs = startMs;
+    }
+
+    /** Adds {@code count} events that happened at {@code nowMs}. */
+    public void add(long count, long nowMs) {
+        decayTo(nowMs);
+        mWeight += count;
+    }
+
+    /** Returns the events per hour as of {@code nowMs}. */
+    public double getRatePerHour(long nowMs) {
+        double weight = mWeight * Math.exp(-mDecayPerMs * Math.max(nowMs - mLastMs, 0));
+        // The weight converges to rate / decay; until then, scale up by how far it got, so a
+        // young counter isn't read as a slow one.
+        double elapsedMs = Math.max(nowMs - mStartMs, 1);
+        double saturation = -Math.expm1(-mDecayPerMs * elapsedMs);
+        return weight * mDecayPerMs / saturation * 60 * 60 * 1000;
+    }
+
+    private void decayTo(long nowMs) {
+        if (nowMs > mLastMs) {
+            mWeight *= Math.exp(-mDecayPerMs * (nowMs - mLastMs));
+        }
+        mLastMs = Math.max(mLastMs, nowMs);
+    }
+}
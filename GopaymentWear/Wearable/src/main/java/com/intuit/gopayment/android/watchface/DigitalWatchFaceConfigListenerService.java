@@ -51,6 +51,11 @@ public class DigitalWatchFaceConfigListenerService extends WearableListenerServi
             Log.d(TAG, "Received watch face config message: " + configKeysToOverwrite);
         }
 
+        // Record the write before connecting so it isn't lost if the connection fails.
+        DigitalWatchFaceConfigWriteQueue writeQueue =
+                DigitalWatchFaceConfigWriteQueue.getInstance(this);
+        writeQueue.enqueue(configKeysToOverwrite);
+
         if (mGoogleApiClient == null) {
             mGoogleApiClient = new GoogleApiClient.Builder(this).addConnectionCallbacks(this)
                     .addOnConnectionFailedListener(this).addApi(Wearable.API).build();
@@ -60,12 +65,13 @@ public class DigitalWatchFaceConfigListenerService extends WearableListenerServi
                     mGoogleApiClient.blockingConnect(30, TimeUnit.SECONDS);
 
             if (!connectionResult.isSuccess()) {
-                Log.e(TAG, "Failed to connect to GoogleApiClient.");
+                Log.e(TAG, "Failed to connect to GoogleApiClient, "
+                        + writeQueue.getQueueDepth() + " config writes pending.");
                 return;
             }
         }
 
-        DigitalWatchFaceUtil.overwriteKeysInConfigDataMap(mGoogleApiClient, configKeysToOverwrite);
+        writeQueue.flush(mGoogleApiClient);
     }
 
     @Override // GoogleApiClient.ConnectionCallbacks
@@ -0,0 +1,360 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intuit.gopayment.android.watchface;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.DataMap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small on-disk write-ahead queue for {@link DigitalWatchFaceService} config writes.
+ * <p>
+ * Writes are appended to a file before they are sent, so they survive the caller finishing (e.g.
+ * the config activity closing right after a click) or the {@link GoogleApiClient} not being
+ * connected yet. Whoever next gets a connected client calls {@link #flush}, which merges every
+ * pending write into one {@link DataMap} and applies it with a single
+ * {@link DigitalWatchFaceUtil#overwriteKeysInConfigDataMap} call. Failed or unanswered flushes are
+ * retried with exponential backoff while the client stays connected.
+ */
+public final class DigitalWatchFaceConfigWriteQueue {
+    private static final String TAG = "DigitalConfigWriteQueue";
+
+    private static final String FILE_NAME = "pending_config_writes";
+
+    /**
+     * Largest record read back from the file. A config write is a few keys, so anything larger
+     * is a corrupt length.
+     */
+    private static final int MAX_RECORD_BYTES = 64 * 1024;
+
+    /** Delay before the first retry of a flush that hasn't succeeded. */
+    private static final long INITIAL_BACKOFF_MS = TimeUnit.SECONDS.toMillis(2);
+
+    /** Upper bound for the retry delay. */
+    private static final long MAX_BACKOFF_MS = TimeUnit.MINUTES.toMillis(5);
+
+    private static DigitalWatchFaceConfigWriteQueue sInstance;
+
+    private final File mFile;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /** In-memory mirror of the file contents, oldest first. */
+    private final List<PendingWrite> mPending = new ArrayList<PendingWrite>();
+
+    private GoogleApiClient mGoogleApiClient;
+    private long mBackoffMs = INITIAL_BACKOFF_MS;
+    private int mFlushGeneration;
+    private long mNextSequence;
+
+    private int mFlushCount;
+    private int mRetryCount;
+    private long mLastTimeToFlushMs = -1;
+
+    private final Runnable mRetryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            GoogleApiClient client;
+            synchronized (DigitalWatchFaceConfigWriteQueue.this) {
+                client = mGoogleApiClient;
+                mRetryCount++;
+                mBackoffMs = Math.min(mBackoffMs * 2, MAX_BACKOFF_MS);
+            }
+            if (client != null && client.isConnected()) {
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, "Retrying flush, next backoff " + mBackoffMs + " ms");
+                }
+                flush(client);
+            }
+        }
+    };
+
+    public static synchronized DigitalWatchFaceConfigWriteQueue getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DigitalWatchFaceConfigWriteQueue(
+                    new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    private DigitalWatchFaceConfigWriteQueue(File file) {
+        mFile = file;
+        readPendingWrites();
+    }
+
+    /**
+     * Records {@code configKeysToOverwrite} on disk. The write is applied by the next
+     * {@link #flush}.
+     */
+    public synchronized void enqueue(DataMap configKeysToOverwrite) {
+        PendingWrite write = new PendingWrite(mNextSequence++, System.currentTimeMillis(),
+                configKeysToOverwrite.toByteArray());
+        mPending.add(write);
+        appendToFile(write);
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Enqueued config write, queue depth: " + mPending.size());
+        }
+    }
+
+    /**
+     * Convenience for callers that may or may not be connected: records the write and flushes
+     * right away if {@code googleApiClient} is connected.
+     */
+    public void enqueueAndFlush(GoogleApiClient googleApiClient, DataMap configKeysToOverwrite) {
+        enqueue(configKeysToOverwrite);
+        if (googleApiClient != null && googleApiClient.isConnected()) {
+            flush(googleApiClient);
+        }
+    }
+
+    /**
+     * Applies all pending writes in one batch through {@code googleApiClient}, which must be
+     * connected. The writes are removed from disk only once {@code putDataItem} reports success;
+     * otherwise the flush is retried with exponential backoff.
+     */
+    public void flush(GoogleApiClient googleApiClient) {
+        final DataMap batch = new DataMap();
+        final int batchSize;
+        final long lastSequence;
+        final int generation;
+        final long oldestEnqueueTimeMs;
+        synchronized (this) {
+            mGoogleApiClient = googleApiClient;
+            mHandler.removeCallbacks(mRetryRunnable);
+            if (mPending.isEmpty()) {
+                return;
+            }
+            batchSize = mPending.size();
+            lastSequence = mPending.get(batchSize - 1).mSequence;
+            oldestEnqueueTimeMs = mPending.get(0).mEnqueueTimeMs;
+            for (PendingWrite write : mPending) {
+                // Later writes overwrite earlier ones for the same key.
+                batch.putAll(DataMap.fromByteArray(write.mData));
+            }
+            generation = ++mFlushGeneration;
+            // Arm the retry up front: fetchConfigDataMap never calls back on failure, so a flush
+            // that doesn't succeed within the backoff window is treated as failed.
+            mHandler.postDelayed(mRetryRunnable, mBackoffMs);
+        }
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Flushing " + batchSize + " pending config writes: " + batch);
+        }
+
+        DigitalWatchFaceUtil.overwriteKeysInConfigDataMap(googleApiClient, batch,
+                new ResultCallback<DataApi.DataItemResult>() {
+                    @Override
+                    public void onResult(DataApi.DataItemResult dataItemResult) {
+                        if (dataItemResult.getStatus().isSuccess()) {
+                            onFlushSucceeded(generation, lastSequence, oldestEnqueueTimeMs);
+                        } else {
+                            Log.w(TAG, "Flush failed: " + dataItemResult.getStatus());
+                        }
+                    }
+                });
+    }
+
+    private synchronized void onFlushSucceeded(int generation, long lastSequence,
+            long oldestEnqueueTimeMs) {
+        if (generation == mFlushGeneration) {
+            mHandler.removeCallbacks(mRetryRunnable);
+        }
+        // A retry may have re-sent a batch that already landed, so only drop the writes that
+        // were part of this batch and are still queued.
+        int flushed = 0;
+        while (flushed < mPending.size() && mPending.get(flushed).mSequence <= lastSequence) {
+            flushed++;
+        }
+        if (flushed == 0) {
+            return;
+        }
+        mPending.subList(0, flushed).clear();
+        rewriteFile();
+
+        mBackoffMs = INITIAL_BACKOFF_MS;
+        mFlushCount++;
+        mLastTimeToFlushMs = System.currentTimeMillis() - oldestEnqueueTimeMs;
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Flushed " + flushed + " config writes in " + mLastTimeToFlushMs
+                    + " ms, queue depth: " + mPending.size() + ", retries so far: "
+                    + mRetryCount);
+        }
+    }
+
+    /** Returns the number of writes that haven't been applied yet. */
+    public synchronized int getQueueDepth() {
+        return mPending.size();
+    }
+
+    /**
+     * Returns the time between the oldest write of the last successful batch being enqueued and
+     * the batch being applied, or -1 if nothing has been flushed yet.
+     */
+    public synchronized long getLastTimeToFlushMs() {
+        return mLastTimeToFlushMs;
+    }
+
+    /** Returns the number of successful flushes since the process started. */
+    public synchronized int getFlushCount() {
+        return mFlushCount;
+    }
+
+    /** Returns the number of backoff retries since the process started. */
+    public synchronized int getRetryCount() {
+        return mRetryCount;
+    }
+
+    /**
+     * Loads the writes in the file. A torn or corrupt record and everything after it are dropped,
+     * and the file is rewritten without them, so later appends don't land after garbage.
+     */
+    private void readPendingWrites() {
+        long startMs = SystemClock.elapsedRealtime();
+        DataInputStream in = null;
+        long validLength = 0;
+        boolean corrupt = false;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            while (true) {
+                long enqueueTimeMs = in.readLong();
+                int length = in.readInt();
+                if (length < 0 || length > MAX_RECORD_BYTES) {
+                    Log.w(TAG, "Dropping pending config writes from a record of length "
+                            + length);
+                    corrupt = true;
+                    break;
+                }
+                byte[] data = new byte[length];
+                in.readFully(data);
+                try {
+                    DataMap.fromByteArray(data);
+                } catch (IllegalArgumentException e) {
+                    Log.w(TAG, "Dropping pending config writes from an unreadable record", e);
+                    corrupt = true;
+                    break;
+                }
+                mPending.add(new PendingWrite(mNextSequence++, enqueueTimeMs, data));
+                validLength += PendingWrite.HEADER_BYTES + length;
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing has been queued yet.
+        } catch (EOFException e) {
+            // End of file, or a record torn by a crash mid-append; drop the partial record.
+            corrupt = validLength < mFile.length();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read pending config writes", e);
+        } finally {
+            closeQuietly(in);
+        }
+        if (corrupt) {
+            rewriteFile();
+        }
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Loaded " + mPending.size() + " pending config writes in "
+                    + (SystemClock.elapsedRealtime() - startMs) + " ms");
+        }
+    }
+
+    private void appendToFile(PendingWrite write) {
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile, true)));
+            write.writeTo(out);
+            out.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to persist config write", e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private void rewriteFile() {
+        AtomicFile atomicFile = new AtomicFile(mFile);
+        if (mPending.isEmpty()) {
+            atomicFile.delete();
+            return;
+        }
+        FileOutputStream fileOut = null;
+        try {
+            fileOut = atomicFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            for (PendingWrite write : mPending) {
+                write.writeTo(out);
+            }
+            out.flush();
+            atomicFile.finishWrite(fileOut);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to rewrite pending config writes", e);
+            if (fileOut != null) {
+                atomicFile.failWrite(fileOut);
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Ignore.
+            }
+        }
+    }
+
+    private static class PendingWrite {
+        /** Size of the enqueue time and data length written before the data. */
+        static final int HEADER_BYTES = 8 + 4;
+
+        /** In-memory ordering only; not persisted. */
+        final long mSequence;
+        final long mEnqueueTimeMs;
+        final byte[] mData;
+
+        PendingWrite(long sequence, long enqueueTimeMs, byte[] data) {
+            mSequence = sequence;
+            mEnqueueTimeMs = enqueueTimeMs;
+            mData = data;
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeLong(mEnqueueTimeMs);
+            out.writeInt(mData.length);
+            out.write(mData);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intuit.gopayment.android.watchface;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.wearable.DataMap;
+
+import java.util.ArrayDeque;
+
+/**
+ * Decodes the data items and messages {@link DigitalWatchFaceService} receives on a background
+ * thread, in priority lanes, and hands the decoded {@link DataMap}s to their handlers on the main
+ * thread.
+ * <p>
+ * Each lane has its own bounded queue. The worker always decodes the oldest item of the most
+ * important non-empty lane next, so live updates wait for at most one backfill item to finish
+ * decoding, and their results are delivered ahead of backfill results already waiting for the
+ * main thread. When a lane is full its oldest item is dropped: live and config payloads are
+ * superseded by newer ones anyway, and backfill is re-fetched on the next catch-up.
+ * <p>
+ * Each lane keeps its queue depth, drop count and enqueue-to-delivery latency, which are logged
+ * at DEBUG as items are delivered.
+ */
+public final class DigitalWatchFaceIngestionPipeline {
+    private static final String TAG = "DigitalIngestion";
+
+    /** Live updates, such as the daily total after a sale. */
+    public static final int LANE_LIVE = 0;
+
+    /** Watch face config changes. */
+    public static final int LANE_CONFIG = 1;
+
+    /** Checkpoints, history and other catch-up data. */
+    public static final int LANE_BACKFILL = 2;
+
+    private static final int LANE_COUNT = 3;
+    private static final String[] LANE_NAMES = {"live", "config", "backfill"};
+    private static final int[] LANE_CAPACITIES = {8, 8, 64};
+
+    /** Weight of the newest sample in each lane's moving average latency. */
+    private static final float LATENCY_SMOOTHING = 0.125f;
+
+    /** Applies a decoded {@link DataMap} on the main thread. */
+    public interface DataMapHandler {
+        /** @param sourceNodeId the node the payload came from */
+        void onDataMap(String sourceNodeId, DataMap dataMap);
+    }
+
+    /** Where payloads received on one path go: a lane and the handler for decoded payloads. */
+    public static final class Route {
+        final int mLane;
+        final DataMapHandler mHandler;
+
+        public Route(int lane, DataMapHandler handler) {
+            if (lane < 0 || lane >= LANE_COUNT) {
+                throw new IllegalArgumentException("Unknown lane: " + lane);
+            }
+            mLane = lane;
+            mHandler = handler;
+        }
+    }
+
+    private final Object mLock = new Object();
+    private final Lane[] mLanes = new Lane[LANE_COUNT];
+    private final HandlerThread mWorkerThread;
+    private final Handler mWorkerHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final Runnable mDrainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Work work;
+            while ((work = pollMostImportant()) != null) {
+                deliver(work, DataMap.fromByteArray(work.mData));
+            }
+        }
+    };
+
+    public DigitalWatchFaceIngestionPipeline() {
+        for (int i = 0; i < LANE_COUNT; i++) {
+            mLanes[i] = new Lane(LANE_CAPACITIES[i]);
+        }
+        mWorkerThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mWorkerThread.start();
+        mWorkerHandler = new Handler(mWorkerThread.getLooper());
+    }
+
+    /**
+     * Queues {@code data}, a serialized {@link DataMap} received from {@code sourceNodeId}, for
+     * decoding in the lane of {@code route}. May be called from any thread.
+     */
+    public void enqueue(Route route, String sourceNodeId, byte[] data) {
+        Work work = new Work(route, sourceNodeId, data, SystemClock.elapsedRealtime());
+        synchronized (mLock) {
+            Lane lane = mLanes[route.mLane];
+            if (lane.mQueue.size() == lane.mCapacity) {
+                lane.mQueue.removeFirst();
+                lane.mDropped++;
+                Log.w(TAG, LANE_NAMES[route.mLane] + " lane full, dropped its oldest item ("
+                        + lane.mDropped + " so far)");
+            }
+            lane.mQueue.addLast(work);
+        }
+        mWorkerHandler.post(mDrainRunnable);
+    }
+
+    /** Stops the worker thread. Queued items are discarded. */
+    public void quit() {
+        mWorkerThread.quit();
+        mMainHandler.removeCallbacksAndMessages(null);
+    }
+
+    /** Returns the number of items waiting to be decoded in {@code lane}. */
+    public int getQueueDepth(int lane) {
+        synchronized (mLock) {
+            return mLanes[lane].mQueue.size();
+        }
+    }
+
+    /** Returns the number of items {@code lane} dropped because it was full. */
+    public int getDroppedCount(int lane) {
+        synchronized (mLock) {
+            return mLanes[lane].mDropped;
+        }
+    }
+
+    /** Returns the moving average enqueue-to-delivery latency of {@code lane}. */
+    public float getAverageLatencyMs(int lane) {
+        synchronized (mLock) {
+            return mLanes[lane].mAverageLatencyMs;
+        }
+    }
+
+    private Work pollMostImportant() {
+        synchronized (mLock) {
+            for (Lane lane : mLanes) {
+                Work work = lane.mQueue.pollFirst();
+                if (work != null) {
+                    return work;
+                }
+            }
+            return null;
+        }
+    }
+
+    private void deliver(final Work work, final DataMap dataMap) {
+        Runnable delivery = new Runnable() {
+            @Override
+            public void run() {
+                recordLatency(work);
+                work.mRoute.mHandler.onDataMap(work.mSourceNodeId, dataMap);
+            }
+        };
+        if (work.mRoute.mLane == LANE_LIVE) {
+            mMainHandler.postAtFrontOfQueue(delivery);
+        } else {
+            mMainHandler.post(delivery);
+        }
+    }
+
+    private void recordLatency(Work work) {
+        long latencyMs = SystemClock.elapsedRealtime() - work.mEnqueueTimeMs;
+        int lane = work.mRoute.mLane;
+        synchronized (mLock) {
+            Lane stats = mLanes[lane];
+            stats.mAverageLatencyMs = stats.mDelivered == 0 ? latencyMs
+                    : stats.mAverageLatencyMs
+                            + LATENCY_SMOOTHING * (latencyMs - stats.mAverageLatencyMs);
+            stats.mDelivered++;
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, LANE_NAMES[lane] + " lane: latency " + latencyMs + " ms (avg "
+                        + stats.mAverageLatencyMs + " ms), depth " + stats.mQueue.size()
+                        + ", dropped " + stats.mDropped);
+            }
+        }
+    }
+
+    private static final class Lane {
+        final ArrayDeque<Work> mQueue;
+        final int mCapacity;
+        int mDropped;
+        long mDelivered;
+        float mAverageLatencyMs;
+
+        Lane(int capacity) {
+            mQueue = new ArrayDeque<Work>(capacity);
+            mCapacity = capacity;
+        }
+    }
+
+    private static final class Work {
+        final Route mRoute;
+        final String mSourceNodeId;
+        final byte[] mData;
+        final long mEnqueueTimeMs;
+
+        Work(Route route, String sourceNodeId, byte[] data, long enqueueTimeMs) {
+            mRoute = route;
+            mSourceNodeId = sourceNodeId;
+            mData = data;
+            mEnqueueTimeMs = enqueueTimeMs;
+        }
+    }
+}
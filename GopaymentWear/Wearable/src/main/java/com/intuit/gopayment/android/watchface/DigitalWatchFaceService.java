@@ -21,13 +21,16 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.res.Resources;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.Typeface;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
@@ -39,18 +42,24 @@ import android.view.WindowInsets;
 import com.example.android.wearable.watchface.R;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
 import com.google.android.gms.wearable.DataItem;
 import com.google.android.gms.wearable.DataMap;
-import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.MessageEvent;
 import com.google.android.gms.wearable.Wearable;
 
+import java.text.DateFormat;
 import java.text.NumberFormat;
 import java.text.SimpleDateFormat;
+import java.util.Calendar;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
 import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
 
@@ -80,7 +89,8 @@ public class DigitalWatchFaceService extends CanvasWatchFaceService {
     }
 
     private class Engine extends CanvasWatchFaceService.Engine implements DataApi.DataListener,
-            GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
+            MessageApi.MessageListener, GoogleApiClient.ConnectionCallbacks,
+            GoogleApiClient.OnConnectionFailedListener {
         static final String COLON_STRING = ":";
 
         /** Alpha value for drawing time when in mute mode. */
@@ -91,6 +101,34 @@ public class DigitalWatchFaceService extends CanvasWatchFaceService {
 
         static final int MSG_UPDATE_TIME = 0;
 
+        /** Lines of detail under the date, such as the wearer's total or a page's details. */
+        static final int DETAIL_LINES = FacePage.MAX_DETAILS;
+
+        /** Top and bottom of the sales sparkline, as fractions of the height. */
+        static final float SPARKLINE_TOP = 0.80f;
+        static final float SPARKLINE_BOTTOM = 0.88f;
+
+        /** Columns of the sales sparkline; each sums 15 minutes of {@link #mMinuteSales}. */
+        static final int SPARKLINE_COLUMNS = 96;
+        static final int MINUTES_PER_SPARKLINE_COLUMN =
+                MinuteSalesRing.MINUTES_PER_DAY / SPARKLINE_COLUMNS;
+
+        /** Days of history read back into {@link #mGoals} on start, enough for any month. */
+        static final int GOAL_HISTORY_DAYS = 31;
+
+        /** The slot of {@link #mAggregatedStoreTotal} holding the aggregator's counter. */
+        static final String AGGREGATOR_REGISTER_ID = "aggregator";
+
+        /** The pages a tap cycles through, in order; {@link #PAGE_TODAY} is the home page. */
+        static final int PAGE_TODAY = 0;
+        static final int PAGE_WEEK = 1;
+        static final int PAGE_LAST_HOUR = 2;
+        static final int PAGE_TOP_ITEMS = 3;
+        static final int PAGE_COUNT = 4;
+
+        /** Time from a tap to the end of the frame showing the next page, one frame at 60 fps. */
+        static final long PAGE_SWITCH_TARGET_MS = 16;
+
         /** How often {@link #mUpdateTimeHandler} ticks in milliseconds. */
         long mInteractiveUpdateRateMs = NORMAL_UPDATE_RATE_MS;
 
@@ -103,6 +141,7 @@ public class DigitalWatchFaceService extends CanvasWatchFaceService {
                         if (Log.isLoggable(TAG, Log.VERBOSE)) {
                             Log.v(TAG, "updating time");
                         }
+                        updateLastHourPage();
                         invalidate();
                         if (shouldTimerBeRunning()) {
                             long timeMs = System.currentTimeMillis();
@@ -139,6 +178,9 @@ public class DigitalWatchFaceService extends CanvasWatchFaceService {
         Paint mColonPaint;
         Paint mTotalPaint;
         Paint mDatePaint;
+        Paint mSparklinePaint;
+        Paint mGoalArcPaint;
+        Paint mStatsPaint;
 
         float mColonWidth;
         float mTimeTextSize;
@@ -148,8 +190,179 @@ public class DigitalWatchFaceService extends CanvasWatchFaceService {
         boolean mMute;
         Time mTime;
 
+        /** The watch state last published to the phone, or -1 if none has been published yet. */
+        int mPublishedWatchState = -1;
+
         int mDailyTotal;
-        int mDailyGoal;
+
+        /**
+         * Whether {@link #mDailyTotal} came from the phone, live or from a checkpoint. Until then
+         * the total isn't drawn, rather than drawn as 0.
+         */
+        boolean mHasDailyTotal;
+
+        /** Day, week, month and custom goals, whose progress is drawn as concentric arcs. */
+        final SalesGoals mGoals = new SalesGoals();
+        int mCustomGoalFirstDay;
+        int mCustomGoalLastDay;
+
+        /** Bounds of each goal's arc, outermost first, computed when the bounds change. */
+        final RectF[] mGoalArcBounds = new RectF[SalesGoals.GOAL_COUNT];
+        int mGoalArcWidth;
+        int mGoalArcHeight;
+        float mGoalArcSpacing;
+
+        /**
+         * When the daily goal will be met at the current pace, recomputed once a minute along
+         * with the ETA label and the pace marker's level, as a fraction of the goal.
+         */
+        final GoalForecaster mForecaster = new GoalForecaster();
+        String mEtaFormat;
+        final DateFormat mEtaTimeFormat = DateFormat.getTimeInstance(DateFormat.SHORT);
+        String mEtaString;
+        float mEtaWidth;
+        float mPaceLevel;
+
+        /** Whose totals this watch subscribes to, from the config; {@code NO_ID} for none. */
+        int mEmployeeId = DigitalWatchFaceUtil.NO_ID;
+        int mLocationId = DigitalWatchFaceUtil.NO_ID;
+        int mPublishedEmployeeId = DigitalWatchFaceUtil.NO_ID;
+        int mPublishedLocationId = DigitalWatchFaceUtil.NO_ID;
+
+        /** Totals received from the phone, by employee and by location id. */
+        final IntLongMap mEmployeeTotals = new IntLongMap();
+        final IntLongMap mLocationTotals = new IntLongMap();
+        String mEmployeeTotalFormat;
+
+        /**
+         * The wearer's own total, the only detail line of {@link #PAGE_TODAY}, formatted when the
+         * total or the employee changes rather than on every frame.
+         */
+        final FacePage mEmployeeLine = new FacePage("");
+
+        /**
+         * The pages other than {@link #PAGE_TODAY}, whose layout is the face's own, by page
+         * number. Each is updated as its data arrives, so switching to it is just a matter of
+         * pointing {@link #mPage} at it and drawing a frame.
+         */
+        final FacePage[] mPages = new FacePage[PAGE_COUNT];
+        int mPageIndex = PAGE_TODAY;
+        FacePage mPage;
+        String mWeekGoalFormat;
+        String mLastHourShareFormat;
+        String mTopItemFormat;
+        final NumberFormat mPageCurrencyFormat = NumberFormat.getCurrencyInstance();
+
+        /**
+         * The ring version, minute and daily total {@link #PAGE_LAST_HOUR} was last updated for.
+         */
+        int mLastHourVersion = -1;
+        int mLastHourMinute = -1;
+        int mLastHourDailyTotal = -1;
+
+        /**
+         * Uptime of the tap that switched pages, until the frame showing the new page is drawn;
+         * 0 when no switch is pending. Switches are counted against
+         * {@link #PAGE_SWITCH_TARGET_MS}.
+         */
+        long mPageSwitchUptimeMs;
+        int mPageSwitchCount;
+        int mSlowPageSwitchCount;
+
+        /** Rate and ticket sizes, shown under the total if {@link #mShowStats}. */
+        final SalesStats mSalesStats = new SalesStats(System.currentTimeMillis());
+        boolean mShowStats;
+        String mStatsFormat;
+        final NumberFormat mStatsCurrencyFormat = NumberFormat.getCurrencyInstance();
+
+        /**
+         * The stats line as last laid out, rebuilt when a sale comes in or the minute changes
+         * and only measured again when its text changed.
+         */
+        String mStatsString;
+        float mStatsWidth;
+        int mStatsVersion = -1;
+        int mStatsMinute = -1;
+
+        /**
+         * Store-wide total merged from the {@link DigitalWatchFaceUtil#KEY_REGISTER_COUNTER} of
+         * every phone. Once any phone reported one for today, it's shown instead of a single
+         * phone's {@link DigitalWatchFaceUtil#KEY_DAILY_TOTAL}.
+         */
+        final PNCounter mStoreTotal = new PNCounter();
+
+        /**
+         * Store-wide total merged by the store aggregator, as forwarded by any phone in
+         * {@link DigitalWatchFaceUtil#KEY_STORE_COUNTER}. It covers phones this watch isn't
+         * paired with, so it's preferred to {@link #mStoreTotal} when it holds today's total.
+         */
+        final PNCounter mAggregatedStoreTotal = new PNCounter();
+
+        /** Today's sales per minute, drawn as a sparkline below the date. */
+        final MinuteSalesRing mMinuteSales = new MinuteSalesRing();
+
+        /** Keeps finished days of {@link #mMinuteSales}, compressed, for weeks. */
+        SalesHistoryArchiver mSalesHistory;
+
+        /** Tracks the current day, closing it and starting the next one at local midnight. */
+        DayRollover mDayRollover;
+
+        /**
+         * The sparkline's segments as {@code drawLines} expects them, rebuilt only when
+         * {@link #mMinuteSales} or the bounds change, so drawing a frame allocates nothing.
+         */
+        final float[] mSparklinePoints = new float[(SPARKLINE_COLUMNS - 1) * 4];
+        final long[] mSparklineColumns = new long[SPARKLINE_COLUMNS];
+        int mSparklineVersion = -1;
+        int mSparklineWidth;
+        int mSparklineHeight;
+
+        /** Phone time at which the shown live data was current; older data is ignored. */
+        long mDataTimeMs;
+
+        /**
+         * The day the shown live data belongs to, which the phone's clock may start before the
+         * watch's, or 0 before any day started.
+         */
+        int mLiveDay;
+
+        /** Decodes received payloads off the main thread, live updates first. */
+        DigitalWatchFaceIngestionPipeline mIngestionPipeline;
+
+        /**
+         * Routes for the {@link DataItem}s we listen to, keyed by path, or by parent path for
+         * partitioned items such as {@link DigitalWatchFaceUtil#PATH_TOTALS}.
+         */
+        final Map<String, DigitalWatchFaceIngestionPipeline.Route> mDataItemRoutes =
+                new HashMap<String, DigitalWatchFaceIngestionPipeline.Route>();
+
+        /** Routes for the messages we listen to, keyed by path. */
+        final Map<String, DigitalWatchFaceIngestionPipeline.Route> mMessageRoutes =
+                new HashMap<String, DigitalWatchFaceIngestionPipeline.Route>();
+
+        /**
+         * Where a peeking card is, empty if none. Only the part of the face above it is drawn,
+         * and rows it hides entirely are skipped.
+         */
+        final Rect mPeekCardBounds = new Rect();
+
+        /**
+         * Where the rows of text sit and which ones the peeking card leaves visible, worked out
+         * again by {@link #updateLayout} only once the bounds, the text sizes or the card moved.
+         */
+        boolean mLayoutStale = true;
+        int mLayoutWidth;
+        int mLayoutHeight;
+        float mVisibleBottom;
+        float mTimeY;
+        float mTotalY;
+        float mDateY;
+        boolean mTimeVisible;
+        boolean mTotalVisible;
+        boolean mStatsVisible;
+        boolean mDateVisible;
+        boolean mSparklineVisible;
+        int mVisibleDetailLines;
 
         float mXOffset;
         float mYOffset;
@@ -177,6 +390,16 @@ public class DigitalWatchFaceService extends CanvasWatchFaceService {
          */
         boolean mLowBitAmbient;
 
+        /** Draws ambient frames, lighting as few pixels as it can. */
+        AmbientRenderer mAmbientRenderer;
+
+        /**
+         * Checks the share of the face an ambient frame lights when entering ambient mode, if
+         * verbose logging is on.
+         */
+        final LitPixelAnalyzer mLitPixelAnalyzer = new LitPixelAnalyzer();
+        boolean mIsRound;
+
         @Override
         public void onCreate(SurfaceHolder holder) {
             if (Log.isLoggable(TAG, Log.DEBUG)) {
@@ -188,9 +411,23 @@ public class DigitalWatchFaceService extends CanvasWatchFaceService {
                     .setCardPeekMode(WatchFaceStyle.PEEK_MODE_VARIABLE)
                     .setBackgroundVisibility(WatchFaceStyle.BACKGROUND_VISIBILITY_INTERRUPTIVE)
                     .setShowSystemUiTime(false)
+                    .setAcceptsTapEvents(true)
                     .build());
             Resources resources = DigitalWatchFaceService.this.getResources();
             mYOffset = resources.getDimension(R.dimen.digital_y_offset);
+            mEmployeeTotalFormat = resources.getString(R.string.digital_employee_total);
+            mStatsFormat = resources.getString(R.string.digital_stats);
+            mPages[PAGE_WEEK] = new FacePage(resources.getString(R.string.digital_page_week));
+            mPages[PAGE_LAST_HOUR] =
+                    new FacePage(resources.getString(R.string.digital_page_last_hour));
+            mPages[PAGE_TOP_ITEMS] =
+                    new FacePage(resources.getString(R.string.digital_page_top_items));
+            mWeekGoalFormat = resources.getString(R.string.digital_week_goal_percent);
+            mLastHourShareFormat = resources.getString(R.string.digital_last_hour_share);
+            mTopItemFormat = resources.getString(R.string.digital_top_item);
+            mPageCurrencyFormat.setMaximumFractionDigits(0);
+            mEtaFormat = resources.getString(R.string.digital_goal_eta);
+            mStatsCurrencyFormat.setMaximumFractionDigits(0);
 
             mBackgroundPaint = new Paint();
             mGoalWavePaint = new Paint();
@@ -203,15 +440,89 @@ public class DigitalWatchFaceService extends CanvasWatchFaceService {
             mColonPaint = createTextPaint(mInteractiveColonColor);
             mTotalPaint = createTextPaint(mInteractiveTotalColor);
             mDatePaint = createTextPaint(mInteractiveDateColor);
+            mSparklinePaint = createTextPaint(mInteractiveDateColor);
+            mSparklinePaint.setStyle(Paint.Style.STROKE);
+            mSparklinePaint.setStrokeWidth(
+                    resources.getDimension(R.dimen.digital_sparkline_stroke_width));
+            mStatsPaint = createTextPaint(mInteractiveDateColor);
+            mGoalArcPaint = createTextPaint(mInteractiveTotalColor);
+            mGoalArcPaint.setStyle(Paint.Style.STROKE);
+            mGoalArcPaint.setStrokeWidth(
+                    resources.getDimension(R.dimen.digital_goal_arc_stroke_width));
+            mGoalArcSpacing = resources.getDimension(R.dimen.digital_goal_arc_spacing);
+            mAmbientRenderer = new AmbientRenderer(
+                    resources.getDimension(R.dimen.digital_ambient_stroke_width),
+                    DigitalWatchFaceUtil.COLOR_VALUE_DEFAULT_AND_AMBIENT_GOAL_WAVE,
+                    DigitalWatchFaceUtil.COLOR_VALUE_DEFAULT_AND_AMBIENT_GOAL_MET_WAVE);
+            for (int goal = 0; goal < SalesGoals.GOAL_COUNT; goal++) {
+                mGoalArcBounds[goal] = new RectF();
+            }
 
             mTime = new Time();
-            mDailyTotal = 548;
-            mDailyGoal = 0;
+
+            mSalesHistory = new SalesHistoryArchiver(DigitalWatchFaceService.this);
+            mDayRollover = new DayRollover(DigitalWatchFaceService.this,
+                    new DayRollover.Callback() {
+                        @Override
+                        public void onDayStarted(int previousDay, int day, long dayStartMs) {
+                            startDay(day, dayStartMs);
+                        }
+                    });
+            mDayRollover.start();
+            mGoals.setToday(mDayRollover.getDay());
+            updateWeekPage();
+            mSalesHistory.loadDailyTotals(GOAL_HISTORY_DAYS,
+                    new SalesHistoryArchiver.DailyTotalsCallback() {
+                        @Override
+                        public void onDailyTotalsLoaded(int[] days, long[] totals) {
+                            boolean changed = false;
+                            for (int i = 0; i < days.length; i++) {
+                                changed |= mGoals.setDayTotal(days[i], totals[i]);
+                            }
+                            if (changed) {
+                                updateWeekPage();
+                                invalidate();
+                            }
+                        }
+                    });
+            mIngestionPipeline = new DigitalWatchFaceIngestionPipeline();
+            DigitalWatchFaceIngestionPipeline.DataMapHandler liveDataHandler =
+                    new DigitalWatchFaceIngestionPipeline.DataMapHandler() {
+                        @Override
+                        public void onDataMap(String sourceNodeId, DataMap dataMap) {
+                            updateUiForLiveDataMap(sourceNodeId, dataMap);
+                            acknowledgeLiveData(sourceNodeId, dataMap);
+                        }
+                    };
+            mMessageRoutes.put(DigitalWatchFaceUtil.PATH_LIVE_DATA,
+                    new DigitalWatchFaceIngestionPipeline.Route(
+                            DigitalWatchFaceIngestionPipeline.LANE_LIVE, liveDataHandler));
+            mDataItemRoutes.put(DigitalWatchFaceUtil.PATH_WITH_FEATURE,
+                    new DigitalWatchFaceIngestionPipeline.Route(
+                            DigitalWatchFaceIngestionPipeline.LANE_CONFIG,
+                            new DigitalWatchFaceIngestionPipeline.DataMapHandler() {
+                                @Override
+                                public void onDataMap(String sourceNodeId, DataMap dataMap) {
+                                    updateUiForConfigDataMap(dataMap);
+                                }
+                            }));
+            mDataItemRoutes.put(DigitalWatchFaceUtil.PATH_TOTALS,
+                    new DigitalWatchFaceIngestionPipeline.Route(
+                            DigitalWatchFaceIngestionPipeline.LANE_BACKFILL,
+                            new DigitalWatchFaceIngestionPipeline.DataMapHandler() {
+                                @Override
+                                public void onDataMap(String sourceNodeId, DataMap dataMap) {
+                                    updateUiForDayPartition(sourceNodeId, dataMap);
+                                }
+                            }));
         }
 
         @Override
         public void onDestroy() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            mDayRollover.stop();
+            mIngestionPipeline.quit();
+            mSalesHistory.quit();
             super.onDestroy();
         }
 
@@ -242,12 +553,28 @@ public class DigitalWatchFaceService extends CanvasWatchFaceService {
                 // Update time zone in case it changed while we weren't visible.
                 mTime.clear(TimeZone.getDefault().getID());
                 mTime.setToNow();
+                // The midnight alarm may have been held back while we weren't visible.
+                mDayRollover.update(System.currentTimeMillis());
+                updateLastHourPage();
             } else {
                 unregisterReceiver();
 
                 if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
                     Wearable.DataApi.removeListener(mGoogleApiClient, this);
-                    mGoogleApiClient.disconnect();
+                    Wearable.MessageApi.removeListener(mGoogleApiClient, this);
+                    // Let the phone know we're hidden before disconnecting, so it stops pushing.
+                    boolean published = publishWatchState(
+                            new ResultCallback<DataApi.DataItemResult>() {
+                                @Override
+                                public void onResult(DataApi.DataItemResult dataItemResult) {
+                                    if (!isVisible() && mGoogleApiClient.isConnected()) {
+                                        mGoogleApiClient.disconnect();
+                                    }
+                                }
+                            });
+                    if (!published) {
+                        mGoogleApiClient.disconnect();
+                    }
                 }
             }
 
@@ -284,6 +611,7 @@ public class DigitalWatchFaceService extends CanvasWatchFaceService {
             // Load resources that have alternate values for round watches.
             Resources resources = DigitalWatchFaceService.this.getResources();
             boolean isRound = insets.isRound();
+            mIsRound = isRound;
             mXOffset = resources.getDimension(isRound
                     ? R.dimen.digital_x_offset_round : R.dimen.digital_x_offset);
             mTimeTextSize = resources.getDimension(isRound
@@ -298,8 +626,35 @@ public class DigitalWatchFaceService extends CanvasWatchFaceService {
             mColonPaint.setTextSize(mTimeTextSize);
             mTotalPaint.setTextSize(mTotalTextSize);
             mDatePaint.setTextSize(mDateTextSize);
+            mStatsPaint.setTextSize(mDateTextSize * 0.7f);
+            mAmbientRenderer.setTextSizes(mTimeTextSize, mTotalTextSize);
+            // The widths depend on the text size.
+            mStatsString = null;
+            if (mEtaString != null) {
+                mEtaWidth = mStatsPaint.measureText(mEtaString);
+            }
+            for (FacePage page : mPages) {
+                if (page != null) {
+                    page.invalidateLayout();
+                }
+            }
+            mEmployeeLine.invalidateLayout();
 
             mColonWidth = mColonPaint.measureText(COLON_STRING);
+            mLayoutStale = true;
+        }
+
+        @Override
+        public void onPeekCardPositionUpdate(Rect rect) {
+            super.onPeekCardPositionUpdate(rect);
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "onPeekCardPositionUpdate: " + rect);
+            }
+            if (!rect.equals(mPeekCardBounds)) {
+                mPeekCardBounds.set(rect);
+                mLayoutStale = true;
+                invalidate();
+            }
         }
 
         @Override
@@ -310,6 +665,7 @@ public class DigitalWatchFaceService extends CanvasWatchFaceService {
             mHourPaint.setTypeface(burnInProtection ? NORMAL_TYPEFACE : BOLD_TYPEFACE);
 
             mLowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
+            mAmbientRenderer.setLowBitAmbient(mLowBitAmbient);
 
             if (Log.isLoggable(TAG, Log.DEBUG)) {
                 Log.d(TAG, "onPropertiesChanged: burn-in protection = " + burnInProtection
@@ -323,15 +679,42 @@ public class DigitalWatchFaceService extends CanvasWatchFaceService {
             if (Log.isLoggable(TAG, Log.DEBUG)) {
                 Log.d(TAG, "onTimeTick: ambient = " + isInAmbientMode());
             }
+            updateLastHourPage();
             invalidate();
         }
 
+        @Override
+        public void onTapCommand(int tapType, int x, int y, long eventTime) {
+            if (tapType != WatchFaceService.TAP_TYPE_TAP) {
+                return;
+            }
+            showPage((mPageIndex + 1) % PAGE_COUNT);
+            mPageSwitchUptimeMs = eventTime;
+            invalidate();
+        }
+
+        /** Points {@link #mPage} at {@code pageIndex}; the next frame draws it. */
+        private void showPage(int pageIndex) {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "showPage: " + pageIndex);
+            }
+            mPageIndex = pageIndex;
+            mPage = mPages[pageIndex];
+        }
+
         @Override
         public void onAmbientModeChanged(boolean inAmbientMode) {
             super.onAmbientModeChanged(inAmbientMode);
             if (Log.isLoggable(TAG, Log.DEBUG)) {
                 Log.d(TAG, "onAmbientModeChanged: " + inAmbientMode);
             }
+            // Ambient mode shows the time and the day's total, so go back to the home page.
+            if (inAmbientMode) {
+                showPage(PAGE_TODAY);
+                if (Log.isLoggable(TAG, Log.VERBOSE)) {
+                    logAmbientLitPixels();
+                }
+            }
             adjustPaintColorToCurrentMode(mBackgroundPaint, mInteractiveBackgroundColor,
                     DigitalWatchFaceUtil.COLOR_VALUE_DEFAULT_AND_AMBIENT_BACKGROUND);
             adjustPaintColorToCurrentMode(mGoalWavePaint, mInteractiveGoalWaveColor,
@@ -348,6 +731,12 @@ public class DigitalWatchFaceService extends CanvasWatchFaceService {
                     DigitalWatchFaceUtil.COLOR_VALUE_DEFAULT_AND_AMBIENT_TOTAL);
             adjustPaintColorToCurrentMode(mDatePaint, mInteractiveDateColor,
                     DigitalWatchFaceUtil.COLOR_VALUE_DEFAULT_AND_AMBIENT_DATE);
+            adjustPaintColorToCurrentMode(mSparklinePaint, mInteractiveDateColor,
+                    DigitalWatchFaceUtil.COLOR_VALUE_DEFAULT_AND_AMBIENT_DATE);
+            adjustPaintColorToCurrentMode(mStatsPaint, mInteractiveDateColor,
+                    DigitalWatchFaceUtil.COLOR_VALUE_DEFAULT_AND_AMBIENT_DATE);
+            adjustPaintColorToCurrentMode(mGoalArcPaint, mInteractiveTotalColor,
+                    DigitalWatchFaceUtil.COLOR_VALUE_DEFAULT_AND_AMBIENT_TOTAL);
 
             if (mLowBitAmbient) {
                 boolean antiAlias = !inAmbientMode;
@@ -356,8 +745,12 @@ public class DigitalWatchFaceService extends CanvasWatchFaceService {
                 mColonPaint.setAntiAlias(antiAlias);
                 mTotalPaint.setAntiAlias(antiAlias);
                 mDatePaint.setAntiAlias(antiAlias);
+                mSparklinePaint.setAntiAlias(antiAlias);
+                mGoalArcPaint.setAntiAlias(antiAlias);
+                mStatsPaint.setAntiAlias(antiAlias);
             }
             invalidate();
+            publishWatchState(null);
 
             // Whether the timer should be running depends on whether we're in ambient mode (as well
             // as whether we're visible), so we may need to start or stop the timer.
@@ -388,7 +781,11 @@ public class DigitalWatchFaceService extends CanvasWatchFaceService {
                 mColonPaint.setAlpha(alpha);
                 mTotalPaint.setAlpha(alpha);
                 mDatePaint.setAlpha(alpha);
+                mSparklinePaint.setAlpha(alpha);
+                mGoalArcPaint.setAlpha(alpha);
+                mStatsPaint.setAlpha(alpha);
                 invalidate();
+                publishWatchState(null);
             }
         }
 
@@ -443,23 +840,90 @@ public class DigitalWatchFaceService extends CanvasWatchFaceService {
         private void setmInteractiveTotalColor(int color) {
             mInteractiveTotalColor = color;
             updatePaintIfInteractive(mTotalPaint, color);
+            updatePaintIfInteractive(mGoalArcPaint, color);
         }
 
         private void setmInteractiveDateColor(int color) {
             mInteractiveDateColor = color;
             updatePaintIfInteractive(mDatePaint, color);
+            updatePaintIfInteractive(mStatsPaint, color);
         }
 
         private void updateDailyTotal(int total) {
-            mDailyTotal += total;
+            mDailyTotal = total;
+            mHasDailyTotal = true;
+            mForecaster.onTotal(total);
+            if (mGoals.setDayTotal(mDayRollover.getDay(), total)) {
+                updateWeekPage();
+            }
+            updateLastHourPage();
         }
 
         private void clearDailyTotal() {
             mDailyTotal = 0;
+            mForecaster.onTotal(0);
+            updateLastHourPage();
+        }
+
+        /**
+         * Closes the day that just ended, archiving its sales, and zeroes everything that only
+         * counts towards a single day, all before the next frame. Live data stamped before
+         * {@code dayStartMs} belongs to the day that ended and is ignored from now on.
+         */
+        private void startDay(int day, long dayStartMs) {
+            // If the phone's clock reached the day first, the ring already holds its sales.
+            if (mMinuteSales.getDay() < day) {
+                if (mMinuteSales.getDay() != 0) {
+                    mSalesHistory.archive(mMinuteSales);
+                }
+                mMinuteSales.reset(day);
+            }
+            mGoals.setToday(day);
+            updateWeekPage();
+            startLiveDay(day);
+            updateLastHourPage();
+            mDataTimeMs = Math.max(mDataTimeMs, dayStartMs);
+            invalidate();
+        }
+
+        /**
+         * Zeroes the live values that only count towards a single day if {@code day} is later than
+         * the day they belong to. Either the watch's or the phone's midnight gets here first; the
+         * other then finds the day already started and keeps the new day's values.
+         */
+        private void startLiveDay(int day) {
+            if (day <= mLiveDay) {
+                return;
+            }
+            mLiveDay = day;
+            clearDailyTotal();
+            mEmployeeTotals.clear();
+            updateEmployeeLine();
+            mLocationTotals.clear();
+            mPages[PAGE_TOP_ITEMS].clear();
+            mStatsString = null;
+        }
+
+        /** Formats {@link #mEmployeeLine} for the current employee's total, if there's one. */
+        private void updateEmployeeLine() {
+            String line = null;
+            if (mEmployeeId != DigitalWatchFaceUtil.NO_ID) {
+                line = String.format(mEmployeeTotalFormat, NumberFormat.getCurrencyInstance()
+                        .format(mEmployeeTotals.get(mEmployeeId, 0)));
+            }
+            if (mEmployeeLine.setDetail(0, line) && mPageIndex == PAGE_TODAY) {
+                invalidate();
+            }
         }
 
         private void updateDailyGoal(int goal) {
-            mDailyGoal = goal;
+            mGoals.setGoal(SalesGoals.GOAL_DAY, goal);
+        }
+
+        private void updateCustomGoalRange() {
+            if (mCustomGoalFirstDay != 0 && mCustomGoalLastDay != 0) {
+                mGoals.setCustomRange(mCustomGoalFirstDay, mCustomGoalLastDay);
+            }
         }
 
         private String formatTwoDigitNumber(int hour) {
@@ -474,53 +938,418 @@ public class DigitalWatchFaceService extends CanvasWatchFaceService {
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
             mTime.setToNow();
-            boolean goalMet = ((float) mDailyTotal / mDailyGoal) >= 1;
-            float waveGoalHeight = (bounds.height() - ((float) mDailyTotal / mDailyGoal) * bounds.height());
+            int today = mDayRollover.getDay();
+            // Only do any work on the first frame of a minute or after sales came in.
+            updateForecast(today);
+            updateLayout(bounds);
+
+            // Nothing under a peeking card shows, so don't draw there.
+            boolean clipped = mVisibleBottom < bounds.height();
+            if (clipped) {
+                canvas.save();
+                canvas.clipRect(0, 0, bounds.width(), mVisibleBottom);
+            }
 
+            if (isInAmbientMode()) {
+                drawAmbientFrame(canvas, bounds);
+            } else {
+                drawInteractiveFrame(canvas, bounds, today);
+            }
+
+            if (clipped) {
+                canvas.restore();
+            }
+
+            if (mPageSwitchUptimeMs != 0) {
+                onPageSwitchDrawn(SystemClock.uptimeMillis() - mPageSwitchUptimeMs);
+            }
+        }
+
+        /**
+         * Draws an ambient frame with {@link #mAmbientRenderer}: the time, the day's total and
+         * the outline of the goal wave.
+         */
+        private void drawAmbientFrame(Canvas canvas, Rect bounds) {
+            String timeString = mTimeVisible ? convertTo12Hour(mTime.hour) + COLON_STRING
+                    + formatTwoDigitNumber(mTime.minute) : null;
+            String totalString = mTotalVisible && mHasDailyTotal
+                    ? NumberFormat.getCurrencyInstance().format(mDailyTotal) : null;
+            mAmbientRenderer.draw(canvas, bounds, mVisibleBottom, timeString, mTimeY,
+                    totalString, mTotalY, mGoals.hasGoal(SalesGoals.GOAL_DAY),
+                    mGoals.getProgress(SalesGoals.GOAL_DAY));
+        }
+
+        /**
+         * Draws an ambient frame off screen, at the size of the last frame drawn, and logs the
+         * share of the face it lights, warning if that's over budget.
+         */
+        private void logAmbientLitPixels() {
+            if (mLayoutWidth == 0 || mLayoutHeight == 0) {
+                return;
+            }
+            Bitmap frame = Bitmap.createBitmap(mLayoutWidth, mLayoutHeight,
+                    Bitmap.Config.ARGB_8888);
+            drawAmbientFrame(new Canvas(frame), new Rect(0, 0, mLayoutWidth, mLayoutHeight));
+            float ratio = mLitPixelAnalyzer.measure(frame, mIsRound);
+            frame.recycle();
+            if (!mLitPixelAnalyzer.isWithinBudget(ratio)) {
+                Log.w(TAG, "Ambient frame lights " + ratio * 100 + "% of the face, budget "
+                        + mLitPixelAnalyzer.getBudget() * 100 + "%");
+            } else {
+                Log.v(TAG, "Ambient frame lights " + ratio * 100 + "% of the face");
+            }
+        }
+
+        /** Draws an interactive frame: the full face and the current page. */
+        private void drawInteractiveFrame(Canvas canvas, Rect bounds, int today) {
             // Draw the background.
-            canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
-            canvas.drawRect(0, waveGoalHeight, bounds.width(), bounds.height(), goalMet ? mGoalMetWavePaint : mGoalWavePaint);
+            canvas.drawRect(0, 0, bounds.width(), mVisibleBottom, mBackgroundPaint);
+            if (mGoals.hasGoal(SalesGoals.GOAL_DAY)) {
+                float progress = mGoals.getProgress(SalesGoals.GOAL_DAY);
+                float waveGoalHeight = bounds.height() - progress * bounds.height();
+                if (waveGoalHeight < mVisibleBottom) {
+                    canvas.drawRect(0, waveGoalHeight, bounds.width(), mVisibleBottom,
+                            progress >= 1 ? mGoalMetWavePaint : mGoalWavePaint);
+                }
+                // Mark where the wave will be at the end of the day at the current pace.
+                if (progress < 1 && mPaceLevel > progress && mPaceLevel < 1) {
+                    float paceY = bounds.height() - mPaceLevel * bounds.height();
+                    if (paceY < mVisibleBottom) {
+                        canvas.drawLine(0, paceY, bounds.width(), paceY, mSparklinePaint);
+                    }
+                }
+            }
+            drawGoalArcs(canvas, bounds);
 
             float x = bounds.centerX();
+
+            if (mTimeVisible) {
+                String hourString = String.valueOf(convertTo12Hour(mTime.hour));
+                String minuteString = formatTwoDigitNumber(mTime.minute);
+                float hourWidth = mHourPaint.measureText(hourString);
+                float minuteWidth = mMinutePaint.measureText(minuteString);
+                float timeX = x - ((hourWidth + mColonWidth + minuteWidth) / 2);
+
+                // Draw the hours.
+                canvas.drawText(hourString, timeX, mTimeY, mHourPaint);
+                timeX += hourWidth;
+
+                // Draw the colon.
+                canvas.drawText(COLON_STRING, timeX, mTimeY, mColonPaint);
+                timeX += mColonWidth;
+
+                // Draw the minutes.
+                canvas.drawText(minuteString, timeX, mTimeY, mMinutePaint);
+            }
+
+            // Draw the date.
+            if (mDateVisible) {
+                SimpleDateFormat simpleDateFormat =
+                        new SimpleDateFormat("MMMM d", Locale.getDefault());
+                String dateString = simpleDateFormat.format(new Date());
+                canvas.drawText(dateString, x - mDatePaint.measureText(dateString) / 2, mDateY,
+                        mDatePaint);
+            }
+
+            // Draw the page: its value in place of the total, its details under the date.
+            if (mPage == null) {
+                drawTodayPage(canvas, bounds, today, x);
+            } else {
+                mPage.draw(canvas, x, mTotalY - mTotalTextSize, mTotalY, mTotalVisible,
+                        getDetailY(0), mDateTextSize, mVisibleDetailLines, mTotalPaint,
+                        mStatsPaint);
+            }
+        }
+
+        /**
+         * Draws the home page: the day's total, its goal ETA and stats, and the sparkline, less
+         * whatever the peeking card hides.
+         */
+        private void drawTodayPage(Canvas canvas, Rect bounds, int today, float x) {
+            if (mTotalVisible && mHasDailyTotal) {
+                // Draw the total.
+                String totalString = NumberFormat.getCurrencyInstance().format(mDailyTotal);
+                canvas.drawText(totalString, x - mTotalPaint.measureText(totalString) / 2,
+                        mTotalY, mTotalPaint);
+
+                // Draw when the daily goal will be met just above the total.
+                if (mEtaString != null && mGoals.getProgress(SalesGoals.GOAL_DAY) < 1) {
+                    canvas.drawText(mEtaString, x - mEtaWidth / 2, mTotalY - mTotalTextSize,
+                            mStatsPaint);
+                }
+            }
+
+            // Draw the sales statistics just under the total.
+            if (mStatsVisible && mShowStats && mSalesStats.hasTickets()) {
+                updateStatsLine();
+                canvas.drawText(mStatsString, x - mStatsWidth / 2, getStatsY(), mStatsPaint);
+            }
+
+            // Draw the wearer's own total, if the watch is assigned to an employee.
+            mEmployeeLine.draw(canvas, x, 0, 0, false, getDetailY(0), mDateTextSize,
+                    Math.min(mVisibleDetailLines, 1), mTotalPaint, mDatePaint);
+
+            // Draw the shape of the day's sales.
+            if (mSparklineVisible && mMinuteSales.getDay() == today) {
+                updateSparkline(bounds);
+                canvas.drawLines(mSparklinePoints, mSparklinePaint);
+            }
+        }
+
+        /**
+         * Works out where the rows go and which of them show above {@link #mPeekCardBounds}, if
+         * the bounds, the text sizes or the card changed since the last frame.
+         */
+        private void updateLayout(Rect bounds) {
+            if (!mLayoutStale && mLayoutWidth == bounds.width()
+                    && mLayoutHeight == bounds.height()) {
+                return;
+            }
+            mLayoutStale = false;
+            mLayoutWidth = bounds.width();
+            mLayoutHeight = bounds.height();
+
             float y = bounds.centerY();
+            mTimeY = y + (mTimeTextSize / 3);
+            mTotalY = y - ((mTimeTextSize / 3) + mDateTextSize);
+            mDateY = y + ((mTimeTextSize / 4) + (mDateTextSize * 2));
+
+            mVisibleBottom = mPeekCardBounds.isEmpty()
+                    ? bounds.height() : Math.min(mPeekCardBounds.top, bounds.height());
+            mTimeVisible = isRowVisible(mTimeY, mTimeTextSize);
+            mTotalVisible = isRowVisible(mTotalY, mTotalTextSize);
+            mStatsVisible = isRowVisible(getStatsY(), mStatsPaint.getTextSize());
+            mDateVisible = isRowVisible(mDateY, mDateTextSize);
+            mVisibleDetailLines = 0;
+            while (mVisibleDetailLines < DETAIL_LINES
+                    && isRowVisible(getDetailY(mVisibleDetailLines), mDateTextSize)) {
+                mVisibleDetailLines++;
+            }
+            mSparklineVisible = bounds.height() * SPARKLINE_TOP < mVisibleBottom;
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "updateLayout: visible down to " + mVisibleBottom + " of "
+                        + bounds.height() + ", " + mVisibleDetailLines + " detail lines");
+            }
+        }
 
-            SimpleDateFormat simpleDateFormat = new SimpleDateFormat("MMMM d", Locale.getDefault());
+        /** Returns whether any of the row of {@code textSize} on {@code baseline} shows. */
+        private boolean isRowVisible(float baseline, float textSize) {
+            return baseline - textSize < mVisibleBottom;
+        }
 
-            String hourString = String.valueOf(convertTo12Hour(mTime.hour));
-            String minuteString = formatTwoDigitNumber(mTime.minute);
-            String dateString = simpleDateFormat.format(new Date());
-            String totalString = NumberFormat.getCurrencyInstance().format(mDailyTotal);
+        /** Returns the baseline of the stats line, just under the total. */
+        private float getStatsY() {
+            return mTotalY + mStatsPaint.getTextSize() * 1.1f;
+        }
 
-            float hourWidth = mHourPaint.measureText(hourString);
-            float minuteWidth = mMinutePaint.measureText(minuteString);
-            float totalWidth = mTotalPaint.measureText(totalString);
-            float dateWidth = mDatePaint.measureText(dateString);
+        /** Returns the baseline of the detail line {@code line} under the date. */
+        private float getDetailY(int line) {
+            return mDateY + mDateTextSize * (1.5f + line);
+        }
 
-            float timeX = x - ((hourWidth + mColonWidth + minuteWidth) / 2);
-            float timeY = y + (mTimeTextSize / 3);
+        /** Counts a page switch that took {@code latencyMs} from tap to drawn frame. */
+        private void onPageSwitchDrawn(long latencyMs) {
+            mPageSwitchUptimeMs = 0;
+            mPageSwitchCount++;
+            if (latencyMs > PAGE_SWITCH_TARGET_MS) {
+                mSlowPageSwitchCount++;
+                Log.w(TAG, "Page switch took " + latencyMs + " ms, target "
+                        + PAGE_SWITCH_TARGET_MS + " ms (" + mSlowPageSwitchCount + " of "
+                        + mPageSwitchCount + " slow)");
+            } else if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Page switch took " + latencyMs + " ms");
+            }
+        }
 
-            float totalX = x - totalWidth / 2;
-            float totalY = y - ((mTimeTextSize / 3) + mDateTextSize);
+        /** Updates {@link #PAGE_WEEK} from the week's total and goal in {@link #mGoals}. */
+        private void updateWeekPage() {
+            FacePage page = mPages[PAGE_WEEK];
+            page.setValue(mPageCurrencyFormat.format(mGoals.getTotal(SalesGoals.GOAL_WEEK)));
+            page.setDetail(0, mGoals.hasGoal(SalesGoals.GOAL_WEEK)
+                    ? String.format(mWeekGoalFormat,
+                            Math.round(mGoals.getProgress(SalesGoals.GOAL_WEEK) * 100))
+                    : null);
+        }
 
-            float dateX = x - dateWidth / 2;
-            float dateY = y + ((mTimeTextSize / 4) + (mDateTextSize * 2));
+        /**
+         * Updates {@link #PAGE_LAST_HOUR} with the sales of the last 60 minutes if
+         * {@link #mMinuteSales}, the minute or the daily total changed since it was last updated.
+         * Called on timer ticks and as data arrives, so drawing the page is all a frame does.
+         */
+        private void updateLastHourPage() {
+            mTime.setToNow();
+            int minuteOfDay = mTime.hour * 60 + mTime.minute;
+            if (mLastHourVersion == mMinuteSales.getVersion() && mLastHourMinute == minuteOfDay
+                    && mLastHourDailyTotal == mDailyTotal) {
+                return;
+            }
+            mLastHourVersion = mMinuteSales.getVersion();
+            mLastHourMinute = minuteOfDay;
+            mLastHourDailyTotal = mDailyTotal;
+            long lastHour = mMinuteSales.getDay() == mDayRollover.getDay()
+                    ? Math.max(mMinuteSales.sum(minuteOfDay - 59, minuteOfDay), 0) : 0;
+            FacePage page = mPages[PAGE_LAST_HOUR];
+            boolean changed = page.setValue(mPageCurrencyFormat.format(lastHour));
+            changed |= page.setDetail(0, mDailyTotal > 0
+                    ? String.format(mLastHourShareFormat,
+                            Math.min(lastHour * 100 / mDailyTotal, 100))
+                    : null);
+            if (changed && mPageIndex == PAGE_LAST_HOUR) {
+                invalidate();
+            }
+        }
 
-            // Draw the hours.
-            canvas.drawText(hourString, timeX, timeY, mHourPaint);
-            timeX += hourWidth;
+        /**
+         * Moves {@link #mForecaster} to the current minute and, on a new minute, rebuilds the ETA
+         * label and the pace marker's level from its forecast.
+         */
+        private void updateForecast(int today) {
+            long goal = mGoals.getGoal(SalesGoals.GOAL_DAY);
+            if (!mForecaster.onMinute(today, mTime.hour * 60 + mTime.minute, goal)) {
+                return;
+            }
+            mPaceLevel = goal > 0 ? (float) mForecaster.getProjectedTotal() / goal : 0;
+            int etaMinute = mForecaster.getEtaMinuteOfDay();
+            if (etaMinute == GoalForecaster.NO_ETA) {
+                mEtaString = null;
+                return;
+            }
+            Calendar calendar = Calendar.getInstance();
+            calendar.set(Calendar.HOUR_OF_DAY, etaMinute / 60);
+            calendar.set(Calendar.MINUTE, etaMinute % 60);
+            String etaString = String.format(mEtaFormat,
+                    mEtaTimeFormat.format(calendar.getTime()));
+            if (!etaString.equals(mEtaString)) {
+                mEtaString = etaString;
+                mEtaWidth = mStatsPaint.measureText(etaString);
+            }
+        }
 
-            // Draw the colon.
-            canvas.drawText(COLON_STRING, timeX, timeY, mColonPaint);
-            timeX += mColonWidth;
+        /**
+         * Rebuilds {@link #mStatsString} if a sale came in or the minute changed since it was
+         * built, the rate decaying with time, and measures it again only if its text changed.
+         */
+        private void updateStatsLine() {
+            if (mStatsString != null && mStatsVersion == mSalesStats.getVersion()
+                    && mStatsMinute == mTime.minute) {
+                return;
+            }
+            mStatsVersion = mSalesStats.getVersion();
+            mStatsMinute = mTime.minute;
+            String statsString = String.format(mStatsFormat,
+                    Math.round(mSalesStats.getTransactionsPerHour(System.currentTimeMillis())),
+                    formatStatsCents(mSalesStats.getAverageTicketCents()),
+                    formatStatsCents(mSalesStats.getTicketQuantileCents(0.5)),
+                    formatStatsCents(mSalesStats.getTicketQuantileCents(0.9)));
+            if (!statsString.equals(mStatsString)) {
+                mStatsString = statsString;
+                mStatsWidth = mStatsPaint.measureText(statsString);
+            }
+        }
 
-            // Draw the minutes.
-            canvas.drawText(minuteString, timeX, timeY, mMinutePaint);
+        private String formatStatsCents(long cents) {
+            return mStatsCurrencyFormat.format(cents / 100.0);
+        }
 
-            // Draw the total.
-            canvas.drawText(totalString, totalX, totalY, mTotalPaint);
+        /**
+         * Draws the progress of each goal set as an arc clockwise from the top, the day's
+         * outermost. Progress is only read here; it's computed as totals arrive.
+         */
+        private void drawGoalArcs(Canvas canvas, Rect bounds) {
+            if (mGoalArcWidth != bounds.width() || mGoalArcHeight != bounds.height()) {
+                mGoalArcWidth = bounds.width();
+                mGoalArcHeight = bounds.height();
+                float inset = mGoalArcPaint.getStrokeWidth() / 2;
+                for (int goal = 0; goal < SalesGoals.GOAL_COUNT; goal++) {
+                    mGoalArcBounds[goal].set(bounds);
+                    mGoalArcBounds[goal].inset(inset, inset);
+                    inset += mGoalArcSpacing;
+                }
+            }
+            for (int goal = 0; goal < SalesGoals.GOAL_COUNT; goal++) {
+                if (mGoals.hasGoal(goal)) {
+                    float sweep = 360 * Math.min(mGoals.getProgress(goal), 1);
+                    canvas.drawArc(mGoalArcBounds[goal], -90, sweep, false, mGoalArcPaint);
+                }
+            }
+        }
 
-            // Draw the date.
-            canvas.drawText(dateString, dateX, dateY, mDatePaint);
+        /**
+         * Rebuilds {@link #mSparklinePoints} if {@link #mMinuteSales} or the bounds changed since
+         * the last frame. The strip spans the middle 60% of the width, from
+         * {@link #SPARKLINE_TOP} to {@link #SPARKLINE_BOTTOM}.
+         */
+        private void updateSparkline(Rect bounds) {
+            if (mSparklineVersion == mMinuteSales.getVersion()
+                    && mSparklineWidth == bounds.width()
+                    && mSparklineHeight == bounds.height()) {
+                return;
+            }
+            mSparklineVersion = mMinuteSales.getVersion();
+            mSparklineWidth = bounds.width();
+            mSparklineHeight = bounds.height();
+
+            long max = 1;
+            for (int column = 0; column < SPARKLINE_COLUMNS; column++) {
+                long sales = 0;
+                int firstMinute = column * MINUTES_PER_SPARKLINE_COLUMN;
+                for (int i = 0; i < MINUTES_PER_SPARKLINE_COLUMN; i++) {
+                    sales += mMinuteSales.get(firstMinute + i);
+                }
+                // Refunds can make a column negative; draw it on the baseline.
+                mSparklineColumns[column] = Math.max(sales, 0);
+                max = Math.max(max, mSparklineColumns[column]);
+            }
+
+            float left = bounds.width() * 0.2f;
+            float columnWidth = bounds.width() * 0.6f / (SPARKLINE_COLUMNS - 1);
+            float bottom = bounds.height() * SPARKLINE_BOTTOM;
+            float height = bounds.height() * (SPARKLINE_BOTTOM - SPARKLINE_TOP);
+            for (int column = 0; column < SPARKLINE_COLUMNS - 1; column++) {
+                int i = column * 4;
+                mSparklinePoints[i] = left + column * columnWidth;
+                mSparklinePoints[i + 1] = bottom - height * mSparklineColumns[column] / max;
+                mSparklinePoints[i + 2] = left + (column + 1) * columnWidth;
+                mSparklinePoints[i + 3] = bottom - height * mSparklineColumns[column + 1] / max;
+            }
+        }
+
+        /**
+         * Returns the watch state the phone should throttle its pushes for: hidden, once a minute
+         * (ambient or mute mode) or live.
+         */
+        private int getCurrentWatchState() {
+            if (!isVisible()) {
+                return DigitalWatchFaceUtil.WATCH_STATE_HIDDEN;
+            }
+            return isInAmbientMode() || mMute
+                    ? DigitalWatchFaceUtil.WATCH_STATE_MINUTE
+                    : DigitalWatchFaceUtil.WATCH_STATE_LIVE;
+        }
+
+        /**
+         * Publishes the current watch state if it changed since it was last published. Does
+         * nothing if the client isn't connected; {@link #onConnected} publishes it then.
+         *
+         * @return whether the state was published, in which case {@code resultCallback} (if not
+         *         null) is invoked with the result
+         */
+        private boolean publishWatchState(ResultCallback<DataApi.DataItemResult> resultCallback) {
+            int watchState = getCurrentWatchState();
+            if ((watchState == mPublishedWatchState && mEmployeeId == mPublishedEmployeeId
+                    && mLocationId == mPublishedLocationId) || !mGoogleApiClient.isConnected()) {
+                return false;
+            }
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Publishing watch state: " + watchState + ", employee " + mEmployeeId
+                        + ", location " + mLocationId);
+            }
+            mPublishedWatchState = watchState;
+            mPublishedEmployeeId = mEmployeeId;
+            mPublishedLocationId = mLocationId;
+            DigitalWatchFaceUtil.putWatchState(mGoogleApiClient, watchState, mEmployeeId,
+                    mLocationId, resultCallback);
+            return true;
         }
 
         /**
@@ -545,6 +1374,10 @@ public class DigitalWatchFaceService extends CanvasWatchFaceService {
             return isVisible() && !isInAmbientMode();
         }
 
+        /**
+         * Fills in the config's missing keys and then flushes the pending config writes, so the
+         * full config put here can't land on top of them.
+         */
         private void updateConfigDataItemAndUiOnStartup() {
             DigitalWatchFaceUtil.fetchConfigDataMap(mGoogleApiClient,
                     new DigitalWatchFaceUtil.FetchConfigDataMapCallback() {
@@ -553,7 +1386,19 @@ public class DigitalWatchFaceService extends CanvasWatchFaceService {
                             // If the DataItem hasn't been created yet or some keys are missing,
                             // use the default values.
                             setDefaultValuesForMissingConfigKeys(startupConfig);
-                            DigitalWatchFaceUtil.putConfigDataItem(mGoogleApiClient, startupConfig);
+                            DigitalWatchFaceUtil.putConfigDataItem(mGoogleApiClient, startupConfig,
+                                    new ResultCallback<DataApi.DataItemResult>() {
+                                        @Override
+                                        public void onResult(DataApi.DataItemResult result) {
+                                            if (!result.getStatus().isSuccess()) {
+                                                Log.w(TAG, "Failed to put startup config: "
+                                                        + result.getStatus());
+                                            }
+                                            DigitalWatchFaceConfigWriteQueue.getInstance(
+                                                    DigitalWatchFaceService.this)
+                                                    .flush(mGoogleApiClient);
+                                        }
+                                    });
 
                             updateUiForConfigDataMap(startupConfig);
                         }
@@ -572,8 +1417,6 @@ public class DigitalWatchFaceService extends CanvasWatchFaceService {
                     DigitalWatchFaceUtil.COLOR_VALUE_DEFAULT_AND_AMBIENT_COLON);
             addIntKeyIfMissing(config, DigitalWatchFaceUtil.KEY_TOTAL_COLOR,
                     DigitalWatchFaceUtil.COLOR_VALUE_DEFAULT_AND_AMBIENT_TOTAL);
-            addIntKeyIfMissing(config, DigitalWatchFaceUtil.KEY_DAILY_TOTAL,
-                    DigitalWatchFaceUtil.DAILY_TOTAL_DEFAULT);
             addIntKeyIfMissing(config, DigitalWatchFaceUtil.KEY_DAILY_GOAL,
                     DigitalWatchFaceUtil.DAILY_GOAL_DEFAULT);
         }
@@ -593,23 +1436,263 @@ public class DigitalWatchFaceService extends CanvasWatchFaceService {
                     }
 
                     DataItem dataItem = dataEvent.getDataItem();
-                    if (!dataItem.getUri().getPath().equals(
-                            DigitalWatchFaceUtil.PATH_WITH_FEATURE)) {
+                    String path = dataItem.getUri().getPath();
+                    DigitalWatchFaceIngestionPipeline.Route route = mDataItemRoutes.get(path);
+                    if (route == null) {
+                        route = mDataItemRoutes.get(path.substring(0, path.lastIndexOf('/')));
+                    }
+                    if (route == null) {
                         continue;
                     }
-
-                    DataMapItem dataMapItem = DataMapItem.fromDataItem(dataItem);
-                    DataMap config = dataMapItem.getDataMap();
                     if (Log.isLoggable(TAG, Log.DEBUG)) {
-                        Log.d(TAG, "Config DataItem updated:" + config);
+                        Log.d(TAG, "DataItem " + path + " updated");
                     }
-                    updateUiForConfigDataMap(config);
+                    // Copy the payload out now; the buffer is closed before it's decoded.
+                    mIngestionPipeline.enqueue(route, dataItem.getUri().getAuthority(),
+                            dataItem.getData());
                 }
             } finally {
                 dataEvents.close();
             }
         }
 
+        @Override // MessageApi.MessageListener
+        public void onMessageReceived(MessageEvent messageEvent) {
+            DigitalWatchFaceIngestionPipeline.Route route =
+                    mMessageRoutes.get(messageEvent.getPath());
+            if (route == null) {
+                return;
+            }
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Message " + messageEvent.getPath() + " received");
+            }
+            mIngestionPipeline.enqueue(route, messageEvent.getSourceNodeId(),
+                    messageEvent.getData());
+        }
+
+        /**
+         * Applies a {@link DigitalWatchFaceUtil#PATH_TOTALS} partition if it's today's; older
+         * days don't affect what's shown.
+         */
+        private void updateUiForDayPartition(String sourceNodeId, DataMap partition) {
+            String today = DigitalWatchFaceUtil.formatDayKey(System.currentTimeMillis());
+            if (today.equals(partition.getString(DigitalWatchFaceUtil.KEY_DAY))) {
+                updateUiForLiveDataMap(sourceNodeId, partition);
+            }
+        }
+
+        /**
+         * Applies live data pushed by the phone {@code sourceNodeId}, either as a message or as a
+         * checkpoint. Data older than what's already shown is ignored, so a late checkpoint can't
+         * undo a newer live update; the phone's store total counter is merged regardless, as
+         * merging old state never undoes anything.
+         */
+        private void updateUiForLiveDataMap(String sourceNodeId, DataMap data) {
+            if (mergeStoreTotal(sourceNodeId, data)) {
+                invalidate();
+            }
+            if (updateSalesStats(sourceNodeId, data) && mShowStats) {
+                invalidate();
+            }
+            long dataTimeMs = data.getLong(DigitalWatchFaceUtil.KEY_DATA_TIME);
+            if (dataTimeMs < mDataTimeMs) {
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, "Ignoring live data from " + dataTimeMs + ", showing "
+                            + mDataTimeMs);
+                }
+                return;
+            }
+            mDataTimeMs = dataTimeMs;
+            // Sent as the phone's day starts, so yesterday's values go before today's arrive.
+            String dayKey = data.getString(DigitalWatchFaceUtil.KEY_DAY);
+            if (dayKey != null) {
+                startLiveDay(DigitalWatchFaceUtil.parseDayKey(dayKey));
+                invalidate();
+            }
+            updateMinuteSales(data, dataTimeMs);
+            updateLastHourPage();
+            if (data.containsKey(DigitalWatchFaceUtil.KEY_DAILY_TOTAL) && !hasStoreTotal()) {
+                updateDailyTotal(data.getInt(DigitalWatchFaceUtil.KEY_DAILY_TOTAL));
+                invalidate();
+            }
+            if (data.containsKey(DigitalWatchFaceUtil.KEY_TOP_ITEMS)
+                    && updateTopItems(data.getStringArray(DigitalWatchFaceUtil.KEY_TOP_ITEMS),
+                            data.getLongArray(DigitalWatchFaceUtil.KEY_TOP_ITEM_COUNTS))
+                    && mPageIndex == PAGE_TOP_ITEMS) {
+                invalidate();
+            }
+            boolean employeeTotalsChanged = false;
+            for (String key : data.keySet()) {
+                if (key.startsWith(DigitalWatchFaceUtil.KEY_EMPLOYEE_TOTAL_PREFIX)) {
+                    updateIdTotal(mEmployeeTotals, data, key,
+                            DigitalWatchFaceUtil.KEY_EMPLOYEE_TOTAL_PREFIX);
+                    employeeTotalsChanged = true;
+                } else if (key.startsWith(DigitalWatchFaceUtil.KEY_LOCATION_TOTAL_PREFIX)) {
+                    updateIdTotal(mLocationTotals, data, key,
+                            DigitalWatchFaceUtil.KEY_LOCATION_TOTAL_PREFIX);
+                }
+            }
+            if (employeeTotalsChanged) {
+                updateEmployeeLine();
+            }
+        }
+
+        /**
+         * Updates {@link #PAGE_TOP_ITEMS} with {@code skus}, the day's best sellers, and their
+         * estimated units sold in {@code counts}, if known.
+         *
+         * @return whether the page changed
+         */
+        private boolean updateTopItems(String[] skus, long[] counts) {
+            FacePage page = mPages[PAGE_TOP_ITEMS];
+            if (skus == null || skus.length == 0) {
+                return page.clear();
+            }
+            boolean changed = page.setValue(skus[0]);
+            for (int i = 0; i < FacePage.MAX_DETAILS; i++) {
+                String detail = null;
+                if (i < skus.length) {
+                    detail = counts != null && i < counts.length
+                            ? String.format(mTopItemFormat, i + 1, skus[i], counts[i])
+                            : skus[i];
+                }
+                changed |= page.setDetail(i, detail);
+            }
+            return changed;
+        }
+
+        /**
+         * Passes the transaction count and register counter of {@code sourceNodeId} in
+         * {@code data} to {@link #mSalesStats}. Each phone's values only grow during a day, so
+         * this is done even for data older than what's shown.
+         *
+         * @return whether any statistic changed
+         */
+        private boolean updateSalesStats(String sourceNodeId, DataMap data) {
+            long[] counter = data.getLongArray(DigitalWatchFaceUtil.KEY_REGISTER_COUNTER);
+            boolean hasCounter = counter != null && counter.length >= 3;
+            if (sourceNodeId == null || (!hasCounter
+                    && !data.containsKey(DigitalWatchFaceUtil.KEY_DAILY_COUNT))) {
+                return false;
+            }
+            int day = DigitalWatchFaceUtil.getDayNumber(
+                    data.getLong(DigitalWatchFaceUtil.KEY_DATA_TIME));
+            return mSalesStats.onUpdate(sourceNodeId, day,
+                    data.getInt(DigitalWatchFaceUtil.KEY_DAILY_COUNT, -1),
+                    hasCounter ? counter[1] : -1, System.currentTimeMillis());
+        }
+
+        /**
+         * Merges the {@link DigitalWatchFaceUtil#KEY_REGISTER_COUNTER} of {@code sourceNodeId}
+         * into {@link #mStoreTotal} and the {@link DigitalWatchFaceUtil#KEY_STORE_COUNTER} into
+         * {@link #mAggregatedStoreTotal}, if {@code data} has them, and shows the best total.
+         *
+         * @return whether the shown total changed
+         */
+        private boolean mergeStoreTotal(String sourceNodeId, DataMap data) {
+            boolean changed = false;
+            long[] counter = data.getLongArray(DigitalWatchFaceUtil.KEY_REGISTER_COUNTER);
+            if (counter != null && counter.length >= 3 && sourceNodeId != null) {
+                changed |= mStoreTotal.merge(sourceNodeId, (int) counter[0], counter[1],
+                        counter[2]);
+            }
+            // Every phone forwards the same aggregator's counter, which only grows within a
+            // day, so it's merged as a single slot.
+            counter = data.getLongArray(DigitalWatchFaceUtil.KEY_STORE_COUNTER);
+            if (counter != null && counter.length >= 3) {
+                changed |= mAggregatedStoreTotal.merge(AGGREGATOR_REGISTER_ID, (int) counter[0],
+                        counter[1], counter[2]);
+            }
+            PNCounter storeTotal = getStoreTotal();
+            if (!changed || storeTotal == null) {
+                return false;
+            }
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Store total: " + storeTotal);
+            }
+            updateDailyTotal((int) (storeTotal.getValueCents() / 100));
+            return true;
+        }
+
+        /** Returns whether a store-wide total for today is known. */
+        private boolean hasStoreTotal() {
+            return getStoreTotal() != null;
+        }
+
+        /** Returns the store-wide total to show for today, or null if there's none. */
+        private PNCounter getStoreTotal() {
+            int today = mDayRollover.getDay();
+            if (!mAggregatedStoreTotal.isEmpty() && mAggregatedStoreTotal.getDay() == today) {
+                return mAggregatedStoreTotal;
+            }
+            if (!mStoreTotal.isEmpty() && mStoreTotal.getDay() == today) {
+                return mStoreTotal;
+            }
+            return null;
+        }
+
+        /** Feeds the hour totals in {@code data}, current at phone time {@code dataTimeMs}. */
+        private void updateMinuteSales(DataMap data, long dataTimeMs) {
+            Calendar calendar = null;
+            for (String key : data.keySet()) {
+                if (!key.startsWith(DigitalWatchFaceUtil.KEY_HOUR_TOTAL_PREFIX)) {
+                    continue;
+                }
+                if (calendar == null) {
+                    calendar = Calendar.getInstance();
+                    calendar.setTimeInMillis(dataTimeMs);
+                }
+                try {
+                    int hour = Integer.parseInt(
+                            key.substring(DigitalWatchFaceUtil.KEY_HOUR_TOTAL_PREFIX.length()));
+                    int day = DigitalWatchFaceUtil.getDayNumber(dataTimeMs);
+                    if (mMinuteSales.getDay() != 0 && day > mMinuteSales.getDay()) {
+                        // The phone's clock reached the next day before ours did; keep the
+                        // day the ring is about to drop.
+                        mSalesHistory.archive(mMinuteSales);
+                    }
+                    if (mMinuteSales.onHourTotal(day, hour, data.getInt(key),
+                            calendar.get(Calendar.HOUR_OF_DAY) * 60
+                                    + calendar.get(Calendar.MINUTE))) {
+                        invalidate();
+                    }
+                } catch (NumberFormatException e) {
+                    Log.w(TAG, "Ignoring malformed key: " + key);
+                }
+            }
+        }
+
+        /** Stores the total in {@code key}, whose id follows {@code prefix}, in {@code totals}. */
+        private void updateIdTotal(IntLongMap totals, DataMap data, String key, String prefix) {
+            try {
+                int id = Integer.parseInt(key.substring(prefix.length()));
+                totals.put(id, data.getInt(key));
+                if (id == mEmployeeId || id == mLocationId) {
+                    invalidate();
+                }
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Ignoring malformed key: " + key);
+            }
+        }
+
+        /**
+         * Tells the phone which live data message we received, so its next message to this watch
+         * only carries what changed since. Stale messages are acknowledged too; they were
+         * received, just superseded.
+         */
+        private void acknowledgeLiveData(String sourceNodeId, DataMap data) {
+            if (!data.containsKey(DigitalWatchFaceUtil.KEY_SEQUENCE)
+                    || !mGoogleApiClient.isConnected()) {
+                // The phone resends anything unacknowledged with its next message.
+                return;
+            }
+            DataMap ack = new DataMap();
+            ack.putLong(DigitalWatchFaceUtil.KEY_SEQUENCE,
+                    data.getLong(DigitalWatchFaceUtil.KEY_SEQUENCE));
+            Wearable.MessageApi.sendMessage(mGoogleApiClient, sourceNodeId,
+                    DigitalWatchFaceUtil.PATH_LIVE_DATA_ACK, ack.toByteArray());
+        }
+
         private void updateUiForConfigDataMap(final DataMap config) {
             boolean uiUpdated = false;
             for (String configKey : config.keySet()) {
@@ -647,10 +1730,30 @@ public class DigitalWatchFaceService extends CanvasWatchFaceService {
                 setInteractiveColonColor(value);
             } else if (configKey.equals(DigitalWatchFaceUtil.KEY_TOTAL_COLOR)) {
                 setmInteractiveTotalColor(value);
-            } else if (configKey.equals(DigitalWatchFaceUtil.KEY_DAILY_TOTAL)) {
-                updateDailyTotal(value);
             } else if (configKey.equals(DigitalWatchFaceUtil.KEY_DAILY_GOAL)) {
                 updateDailyGoal(value);
+            } else if (configKey.equals(DigitalWatchFaceUtil.KEY_WEEKLY_GOAL)) {
+                mGoals.setGoal(SalesGoals.GOAL_WEEK, value);
+                updateWeekPage();
+            } else if (configKey.equals(DigitalWatchFaceUtil.KEY_MONTHLY_GOAL)) {
+                mGoals.setGoal(SalesGoals.GOAL_MONTH, value);
+            } else if (configKey.equals(DigitalWatchFaceUtil.KEY_CUSTOM_GOAL)) {
+                mGoals.setGoal(SalesGoals.GOAL_CUSTOM, value);
+            } else if (configKey.equals(DigitalWatchFaceUtil.KEY_CUSTOM_GOAL_FIRST_DAY)) {
+                mCustomGoalFirstDay = value;
+                updateCustomGoalRange();
+            } else if (configKey.equals(DigitalWatchFaceUtil.KEY_CUSTOM_GOAL_LAST_DAY)) {
+                mCustomGoalLastDay = value;
+                updateCustomGoalRange();
+            } else if (configKey.equals(DigitalWatchFaceUtil.KEY_SHOW_STATS)) {
+                mShowStats = value != 0;
+            } else if (configKey.equals(DigitalWatchFaceUtil.KEY_EMPLOYEE_ID)) {
+                mEmployeeId = value;
+                updateEmployeeLine();
+                publishWatchState(null);
+            } else if (configKey.equals(DigitalWatchFaceUtil.KEY_LOCATION_ID)) {
+                mLocationId = value;
+                publishWatchState(null);
             } else {
                 Log.w(TAG, "Ignoring unknown config key: " + configKey);
                 return false;
@@ -664,7 +1767,19 @@ public class DigitalWatchFaceService extends CanvasWatchFaceService {
                 Log.d(TAG, "onConnected: " + connectionHint);
             }
             Wearable.DataApi.addListener(mGoogleApiClient, Engine.this);
+            Wearable.MessageApi.addListener(mGoogleApiClient, Engine.this);
             updateConfigDataItemAndUiOnStartup();
+            // Catch up with today's checkpoints only; other days aren't shown.
+            DigitalWatchFaceUtil.fetchDayPartitions(mGoogleApiClient,
+                    DigitalWatchFaceUtil.formatDayKey(System.currentTimeMillis()),
+                    new DigitalWatchFaceUtil.FetchDayPartitionsCallback() {
+                        @Override
+                        public void onDayPartitionFetched(String nodeId, DataMap partition) {
+                            updateUiForDayPartition(nodeId, partition);
+                        }
+                    }
+            );
+            publishWatchState(null);
         }
 
         @Override  // GoogleApiClient.ConnectionCallbacks
@@ -24,12 +24,20 @@ import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataItemBuffer;
 import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.DataMapItem;
 import com.google.android.gms.wearable.NodeApi;
 import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.Wearable;
 
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
 public final class DigitalWatchFaceUtil {
     private static final String TAG = "DigitalWatchFaceUtil";
 
@@ -64,21 +72,159 @@ public final class DigitalWatchFaceUtil {
     public static final String KEY_TOTAL_COLOR = "TOTAL_COLOR";
 
     /**
-     * The {@link DataMap} key for {@link DigitalWatchFaceService} total value.
+     * The {@link DataMap} key for {@link DigitalWatchFaceService} total value. It's carried by
+     * live data messages and the checkpoint {@link DataItem}, not by the config DataItem.
      */
     public static final String KEY_DAILY_TOTAL = "DAILY_TOTAL";
 
+    /**
+     * The {@link DataMap} key for the number of sales the phone took today, refunds and voids
+     * excluded, carried with {@link #KEY_DAILY_TOTAL}.
+     */
+    public static final String KEY_DAILY_COUNT = "DAILY_COUNT";
+
+    /**
+     * The {@link DataMap} key for the phone time, in milliseconds, at which the values in a live
+     * data message or checkpoint were current. Used to ignore values older than the ones shown.
+     */
+    public static final String KEY_DATA_TIME = "DATA_TIME";
+
+    /**
+     * The {@link DataMap} key for the local day, formatted by {@link #formatDayKey}, that a
+     * {@link #PATH_TOTALS} partition holds.
+     */
+    public static final String KEY_DAY = "DAY";
+
+    /**
+     * The {@link DataMap} key for the sequence number of a live data message. The watch face
+     * echoes it back on {@link #PATH_LIVE_DATA_ACK}, so the phone only sends each watch what it
+     * hasn't acknowledged yet.
+     */
+    public static final String KEY_SEQUENCE = "SEQUENCE";
+
     /**
      * The {@link DataMap} key for {@link DigitalWatchFaceService} goal value.
      */
     public static final String KEY_DAILY_GOAL = "DAILY_GOAL";
 
+    /** The {@link DataMap} keys for the weekly and monthly goals, 0 for none. */
+    public static final String KEY_WEEKLY_GOAL = "WEEKLY_GOAL";
+    public static final String KEY_MONTHLY_GOAL = "MONTHLY_GOAL";
+
+    /**
+     * The {@link DataMap} keys for a goal over a custom range of days, from
+     * {@link #KEY_CUSTOM_GOAL_FIRST_DAY} to {@link #KEY_CUSTOM_GOAL_LAST_DAY} included, both
+     * {@link #getDayNumber day numbers}.
+     */
+    public static final String KEY_CUSTOM_GOAL = "CUSTOM_GOAL";
+    public static final String KEY_CUSTOM_GOAL_FIRST_DAY = "CUSTOM_GOAL_FIRST_DAY";
+    public static final String KEY_CUSTOM_GOAL_LAST_DAY = "CUSTOM_GOAL_LAST_DAY";
+
+    /**
+     * The {@link DataMap} key for whether the watch face shows the line of sales statistics under
+     * the total: 1 to show it, 0 (the default) not to.
+     */
+    public static final String KEY_SHOW_STATS = "SHOW_STATS";
+
+    /**
+     * The {@link DataMap} key for the id of the employee wearing the watch, or {@link #NO_ID}.
+     * Set in the config and republished with the {@link #KEY_WATCH_STATE watch state}, so the
+     * phone only sends this watch that employee's total.
+     */
+    public static final String KEY_EMPLOYEE_ID = "EMPLOYEE_ID";
+
+    /**
+     * The {@link DataMap} key for the id of the store location the watch is used at, or
+     * {@link #NO_ID}. Set and published like {@link #KEY_EMPLOYEE_ID}.
+     */
+    public static final String KEY_LOCATION_ID = "LOCATION_ID";
+
+    /** Employee or location id meaning none is set. */
+    public static final int NO_ID = 0;
+
+    /**
+     * Prefix of the live data keys carrying an employee's total, e.g. {@code EMPLOYEE_TOTAL_42};
+     * the phone only sends a watch the one of its {@link #KEY_EMPLOYEE_ID}.
+     */
+    public static final String KEY_EMPLOYEE_TOTAL_PREFIX = "EMPLOYEE_TOTAL_";
+
+    /** Prefix of the live data keys carrying a location's total, e.g. {@code LOCATION_TOTAL_3}. */
+    public static final String KEY_LOCATION_TOTAL_PREFIX = "LOCATION_TOTAL_";
+
+    /**
+     * Prefix of the live data keys carrying the day's per-hour totals, e.g. {@code HOUR_TOTAL_13}
+     * for sales between 13:00 and 14:00.
+     */
+    public static final String KEY_HOUR_TOTAL_PREFIX = "HOUR_TOTAL_";
+
+    /**
+     * The {@link DataMap} key for the sending phone's slot of the store-wide {@link PNCounter}:
+     * a long array of the {@link #getDayNumber day}, the cents of the store's currency it added
+     * that day and those it took away. Merged, rather than overwritten, with the slots of the
+     * other phones.
+     */
+    public static final String KEY_REGISTER_COUNTER = "REGISTER_COUNTER";
+
+    /**
+     * The {@link DataMap} key for the store-wide counter merged by the store aggregator from the
+     * {@link #KEY_REGISTER_COUNTER} of every phone in the store, forwarded by the phone: a long
+     * array of the day, the increments and decrements in cents, and the number of phones merged.
+     */
+    public static final String KEY_STORE_COUNTER = "STORE_COUNTER";
+
+    /**
+     * The {@link DataMap} keys for the day's best-selling items on the sending phone: a string
+     * array of SKUs, best first, and a long array of their estimated units sold.
+     */
+    public static final String KEY_TOP_ITEMS = "TOP_ITEMS";
+    public static final String KEY_TOP_ITEM_COUNTS = "TOP_ITEM_COUNTS";
 
     /**
      * The path for the {@link DataItem} containing {@link DigitalWatchFaceService} configuration.
      */
     public static final String PATH_WITH_FEATURE = "/watch_face_config/Digital";
 
+    /**
+     * The path of the fire-and-forget messages in which the phone pushes live data, such as the
+     * daily total, while the watch face is visible.
+     */
+    public static final String PATH_LIVE_DATA = "/gopayment/live";
+
+    /**
+     * The path of the messages in which the watch face acknowledges the {@link #KEY_SEQUENCE} of
+     * the {@link #PATH_LIVE_DATA} messages it received.
+     */
+    public static final String PATH_LIVE_DATA_ACK = "/gopayment/live_ack";
+
+    /**
+     * The parent path of the per-day {@link DataItem}s, such as
+     * {@code /gopayment/totals/2026-10-16}, in which the phone periodically checkpoints the data
+     * of {@link #PATH_LIVE_DATA} for that day, so the watch face catches up with anything it
+     * missed. Each day's item also carries its {@link #KEY_DAY}.
+     */
+    public static final String PATH_TOTALS = "/gopayment/totals";
+
+    /**
+     * The path for the {@link DataItem} in which {@link DigitalWatchFaceService} publishes its
+     * {@link #KEY_WATCH_STATE watch state}, so the phone can throttle its pushes accordingly.
+     */
+    public static final String PATH_WATCH_STATE = "/gopayment/watch_state";
+
+    /**
+     * The {@link DataMap} key for the watch state, one of {@link #WATCH_STATE_LIVE},
+     * {@link #WATCH_STATE_MINUTE} or {@link #WATCH_STATE_HIDDEN}.
+     */
+    public static final String KEY_WATCH_STATE = "WATCH_STATE";
+
+    /** The face is visible and interactive, so updates show up immediately. */
+    public static final int WATCH_STATE_LIVE = 0;
+
+    /** The face is visible but ambient or muted, so it only redraws once a minute. */
+    public static final int WATCH_STATE_MINUTE = 1;
+
+    /** The face isn't visible; it fetches the latest config when it becomes visible again. */
+    public static final int WATCH_STATE_HIDDEN = 2;
+
     /**
      * Name of the default interactive mode background color and the ambient mode background color.
      */
@@ -162,6 +308,17 @@ public final class DigitalWatchFaceUtil {
         void onConfigDataMapFetched(DataMap config);
     }
 
+    /**
+     * Callback interface to perform an action with the {@link #PATH_TOTALS} partitions fetched
+     * for {@link DigitalWatchFaceService}.
+     */
+    public interface FetchDayPartitionsCallback {
+        /**
+         * Callback invoked with the partition written by the phone {@code nodeId}.
+         */
+        void onDayPartitionFetched(String nodeId, DataMap partition);
+    }
+
     private static int parseColor(String colorName) {
         return Color.parseColor(colorName.toLowerCase());
     }
@@ -192,6 +349,98 @@ public final class DigitalWatchFaceUtil {
         );
     }
 
+    /**
+     * Returns the key of the local day containing {@code timeMs}, e.g. {@code 2026-10-16}. Keys
+     * sort in chronological order.
+     */
+    public static String formatDayKey(long timeMs) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(timeMs);
+        return String.format(Locale.US, "%04d-%02d-%02d", calendar.get(Calendar.YEAR),
+                calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.DAY_OF_MONTH));
+    }
+
+    /**
+     * Returns the local day containing {@code timeMs} as a number, e.g. {@code 20261016}.
+     * Numbers sort in chronological order.
+     */
+    public static int getDayNumber(long timeMs) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(timeMs);
+        return calendar.get(Calendar.YEAR) * 10000 + (calendar.get(Calendar.MONTH) + 1) * 100
+                + calendar.get(Calendar.DAY_OF_MONTH);
+    }
+
+    /**
+     * Returns the day number, as returned by {@link #getDayNumber}, of {@code dayKey}, as
+     * formatted by {@link #formatDayKey}, or 0 if it's malformed.
+     */
+    public static int parseDayKey(String dayKey) {
+        try {
+            return Integer.parseInt(dayKey.replace("-", ""));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the number of days from the epoch to {@code dayNumber}, as returned by
+     * {@link #getDayNumber}, so consecutive days get consecutive numbers.
+     */
+    public static int getEpochDay(int dayNumber) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.clear();
+        calendar.set(dayNumber / 10000, dayNumber / 100 % 100 - 1, dayNumber % 100);
+        return (int) (calendar.getTimeInMillis() / TimeUnit.DAYS.toMillis(1));
+    }
+
+    /** Returns the path of the {@link #PATH_TOTALS} partition for {@code dayKey}. */
+    public static String getDayPartitionPath(String dayKey) {
+        return PATH_TOTALS + "/" + dayKey;
+    }
+
+    /**
+     * Asynchronously fetches the {@link #PATH_TOTALS} partitions for {@code dayKey} and passes
+     * each to the given callback, oldest first. Only that day's items are read, from whichever
+     * phones wrote one.
+     */
+    public static void fetchDayPartitions(GoogleApiClient client, String dayKey,
+            final FetchDayPartitionsCallback callback) {
+        // No authority: match the path on every node.
+        Uri uri = new Uri.Builder()
+                .scheme("wear")
+                .path(getDayPartitionPath(dayKey))
+                .build();
+        Wearable.DataApi.getDataItems(client, uri).setResultCallback(
+                new ResultCallback<DataItemBuffer>() {
+                    @Override
+                    public void onResult(DataItemBuffer dataItems) {
+                        List<String> nodeIds = new ArrayList<String>();
+                        List<DataMap> partitions = new ArrayList<DataMap>();
+                        try {
+                            for (DataItem dataItem : dataItems) {
+                                DataMap partition = DataMapItem.fromDataItem(dataItem)
+                                        .getDataMap();
+                                // Insertion sort by data time; there's one item per phone.
+                                int i = partitions.size();
+                                while (i > 0 && partitions.get(i - 1).getLong(KEY_DATA_TIME)
+                                        > partition.getLong(KEY_DATA_TIME)) {
+                                    i--;
+                                }
+                                nodeIds.add(i, dataItem.getUri().getAuthority());
+                                partitions.add(i, partition);
+                            }
+                        } finally {
+                            dataItems.release();
+                        }
+                        for (int i = 0; i < partitions.size(); i++) {
+                            callback.onDayPartitionFetched(nodeIds.get(i), partitions.get(i));
+                        }
+                    }
+                }
+        );
+    }
+
     /**
      * Overwrites (or sets, if not present) the keys in the current config {@link DataItem} with
      * the ones appearing in the given {@link DataMap}. If the config DataItem doesn't exist,
@@ -202,6 +451,18 @@ public final class DigitalWatchFaceUtil {
      */
     public static void overwriteKeysInConfigDataMap(final GoogleApiClient googleApiClient,
             final DataMap configKeysToOverwrite) {
+        overwriteKeysInConfigDataMap(googleApiClient, configKeysToOverwrite,
+                LOGGING_RESULT_CALLBACK);
+    }
+
+    /**
+     * Like {@link #overwriteKeysInConfigDataMap(GoogleApiClient, DataMap)}, but reports the result
+     * of the final {@code putDataItem} call to {@code resultCallback}. The callback isn't invoked
+     * if the current config can't be fetched.
+     */
+    public static void overwriteKeysInConfigDataMap(final GoogleApiClient googleApiClient,
+            final DataMap configKeysToOverwrite,
+            final ResultCallback<DataApi.DataItemResult> resultCallback) {
 
         DigitalWatchFaceUtil.fetchConfigDataMap(googleApiClient,
                 new FetchConfigDataMapCallback() {
@@ -210,7 +471,8 @@ public final class DigitalWatchFaceUtil {
                         DataMap overwrittenConfig = new DataMap();
                         overwrittenConfig.putAll(currentConfig);
                         overwrittenConfig.putAll(configKeysToOverwrite);
-                        DigitalWatchFaceUtil.putConfigDataItem(googleApiClient, overwrittenConfig);
+                        DigitalWatchFaceUtil.putConfigDataItem(googleApiClient, overwrittenConfig,
+                                resultCallback);
                     }
                 }
         );
@@ -221,20 +483,49 @@ public final class DigitalWatchFaceUtil {
      * If the config DataItem doesn't exist, it's created.
      */
     public static void putConfigDataItem(GoogleApiClient googleApiClient, DataMap newConfig) {
+        putConfigDataItem(googleApiClient, newConfig, LOGGING_RESULT_CALLBACK);
+    }
+
+    /**
+     * Like {@link #putConfigDataItem(GoogleApiClient, DataMap)}, but reports the result to
+     * {@code resultCallback}.
+     */
+    public static void putConfigDataItem(GoogleApiClient googleApiClient, DataMap newConfig,
+            ResultCallback<DataApi.DataItemResult> resultCallback) {
         PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(PATH_WITH_FEATURE);
         DataMap configToPut = putDataMapRequest.getDataMap();
         configToPut.putAll(newConfig);
         Wearable.DataApi.putDataItem(googleApiClient, putDataMapRequest.asPutDataRequest())
-                .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
-                    @Override
-                    public void onResult(DataApi.DataItemResult dataItemResult) {
-                        if (Log.isLoggable(TAG, Log.DEBUG)) {
-                            Log.d(TAG, "putDataItem result status: " + dataItemResult.getStatus());
-                        }
-                    }
-                });
+                .setResultCallback(resultCallback);
+    }
+
+    /**
+     * Publishes {@code watchState}, along with the employee and location whose totals the watch
+     * subscribes to, in the watch state {@link DataItem} and reports the result to
+     * {@code resultCallback}.
+     */
+    public static void putWatchState(GoogleApiClient googleApiClient, int watchState,
+            int employeeId, int locationId,
+            ResultCallback<DataApi.DataItemResult> resultCallback) {
+        PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(PATH_WATCH_STATE);
+        putDataMapRequest.getDataMap().putInt(KEY_WATCH_STATE, watchState);
+        putDataMapRequest.getDataMap().putInt(KEY_EMPLOYEE_ID, employeeId);
+        putDataMapRequest.getDataMap().putInt(KEY_LOCATION_ID, locationId);
+        Wearable.DataApi.putDataItem(googleApiClient, putDataMapRequest.asPutDataRequest())
+                .setResultCallback(resultCallback != null
+                        ? resultCallback : LOGGING_RESULT_CALLBACK);
     }
 
+    private static final ResultCallback<DataApi.DataItemResult> LOGGING_RESULT_CALLBACK =
+            new ResultCallback<DataApi.DataItemResult>() {
+                @Override
+                public void onResult(DataApi.DataItemResult dataItemResult) {
+                    if (Log.isLoggable(TAG, Log.DEBUG)) {
+                        Log.d(TAG, "putDataItem result status: " + dataItemResult.getStatus());
+                    }
+                }
+            };
+
     private static class DataItemResultCallback implements ResultCallback<DataApi.DataItemResult> {
 
         private final FetchConfigDataMapCallback mCallback;
@@ -85,6 +85,9 @@ public class DigitalWatchFaceWearableConfigActivity extends Activity implements
                         if (Log.isLoggable(TAG, Log.DEBUG)) {
                             Log.d(TAG, "onConnected: " + connectionHint);
                         }
+                        DigitalWatchFaceConfigWriteQueue
+                                .getInstance(DigitalWatchFaceWearableConfigActivity.this)
+                                .flush(mGoogleApiClient);
                     }
 
                     @Override
@@ -149,7 +152,10 @@ public class DigitalWatchFaceWearableConfigActivity extends Activity implements
         DataMap configKeysToOverwrite = new DataMap();
         configKeysToOverwrite.putInt(DigitalWatchFaceUtil.KEY_DAILY_GOAL,
                 goalValue);
-        DigitalWatchFaceUtil.overwriteKeysInConfigDataMap(mGoogleApiClient, configKeysToOverwrite);
+        // The activity finishes right away, so record the write durably; it's flushed now if
+        // we're connected, or by whoever connects next otherwise.
+        DigitalWatchFaceConfigWriteQueue.getInstance(this)
+                .enqueueAndFlush(mGoogleApiClient, configKeysToOverwrite);
     }
 
     private class GoalListAdapter extends WearableListView.Adapter {
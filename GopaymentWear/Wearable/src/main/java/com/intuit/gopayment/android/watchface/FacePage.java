@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intuit.gopayment.android.watchface;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+/**
+ * What one page of the watch face shows besides the time and date: a title, a value and up to
+ * {@link #MAX_DETAILS} lines of detail, kept up to date as data arrives so that switching to the
+ * page only has to draw it.
+ * <p>
+ * Setting text only stores it. It's measured on the first frame that draws the page after it
+ * changed, so pages that aren't shown get no layout work however often their data changes.
+ * <p>
+ * Not thread-safe.
+ */
+public final class FacePage {
+    public static final int MAX_DETAILS = 3;
+
+    private final String mTitle;
+    private String mValue;
+    private final String[] mDetails = new String[MAX_DETAILS];
+
+    private boolean mLaidOut;
+    private float mTitleWidth;
+    private float mValueWidth;
+    private final float[] mDetailWidths = new float[MAX_DETAILS];
+
+    public FacePage(String title) {
+        mTitle = title;
+    }
+
+    /**
+     * Sets the value shown in large type, or {@code null} for none.
+     *
+     * @return whether it changed
+     */
+    public boolean setValue(String value) {
+        if (value == null ? mValue == null : value.equals(mValue)) {
+            return false;
+        }
+        mValue = value;
+        mLaidOut = false;
+        return true;
+    }
+
+    /**
+     * Sets the detail line {@code index}, from 0 to {@link #MAX_DETAILS} - 1, or {@code null}
+     * to leave it empty.
+     *
+     * @return whether it changed
+     */
+    public boolean setDetail(int index, String detail) {
+        if (detail == null ? mDetails[index] == null : detail.equals(mDetails[index])) {
+            return false;
+        }
+        mDetails[index] = detail;
+        mLaidOut = false;
+        return true;
+    }
+
+    /**
+     * Empties the value and every detail line.
+     *
+     * @return whether anything changed
+     */
+    public boolean clear() {
+        boolean changed = setValue(null);
+        for (int i = 0; i < MAX_DETAILS; i++) {
+            changed |= setDetail(i, null);
+        }
+        return changed;
+    }
+
+    /** Measures the text again on the next frame, e.g. after the text sizes changed. */
+    public void invalidateLayout() {
+        mLaidOut = false;
+    }
+
+    /**
+     * Draws the page centered on {@code centerX}: the title on {@code titleY} and the value on
+     * {@code valueY} in {@code valuePaint} if {@code valueVisible}, and the first
+     * {@code detailCount} details from {@code detailY} down, a {@code detailSpacing} apart. The
+     * title and the details are in {@code textPaint}.
+     */
+    public void draw(Canvas canvas, float centerX, float titleY, float valueY,
+            boolean valueVisible, float detailY, float detailSpacing, int detailCount,
+            Paint valuePaint, Paint textPaint) {
+        if (!valueVisible && detailCount == 0) {
+            return;
+        }
+        layout(valuePaint, textPaint);
+        if (valueVisible) {
+            canvas.drawText(mTitle, centerX - mTitleWidth / 2, titleY, textPaint);
+            if (mValue != null) {
+                canvas.drawText(mValue, centerX - mValueWidth / 2, valueY, valuePaint);
+            }
+        }
+        for (int i = 0; i < Math.min(detailCount, MAX_DETAILS); i++) {
+            if (mDetails[i] != null) {
+                canvas.drawText(mDetails[i], centerX - mDetailWidths[i] / 2,
+                        detailY + i * detailSpacing, textPaint);
+            }
+        }
+    }
+
+    private void layout(Paint valuePaint, Paint textPaint) {
+        if (mLaidOut) {
+            return;
+        }
+        mTitleWidth = textPaint.measureText(mTitle);
+        mValueWidth = mValue != null ? valuePaint.measureText(mValue) : 0;
+        for (int i = 0; i < MAX_DETAILS; i++) {
+            mDetailWidths[i] = mDetails[i] != null ? textPaint.measureText(mDetails[i]) : 0;
+        }
+        mLaidOut = true;
+    }
+}
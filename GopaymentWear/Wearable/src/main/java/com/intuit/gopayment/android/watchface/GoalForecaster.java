@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intuit.gopayment.android.watchface;
+
+/**
+ * Forecasts when the day's total will reach the daily goal at the current pace, and where the
+ * total will be at the end of the day.
+ * <p>
+ * The pace, in currency units per minute, blends two incremental estimates:
+ * <ul>
+ * <li>an exponentially weighted moving average of the sales of each minute, quick to follow a
+ * rush or a lull;</li>
+ * <li>a linear fit of the day's total against the minute of the day, by weighted least squares
+ * over exponentially decaying weights, so recent minutes count most without any refit: only the
+ * five weighted sums are kept, and each minute decays them and adds one point.</li>
+ * </ul>
+ * {@link #onTotal} takes in each new total in O(1); {@link #onMinute} folds the minutes since
+ * the previous call into both estimates and recomputes the forecast, in O(1) however many
+ * minutes passed. The forecast is only read in between.
+ * <p>
+ * Not thread-safe.
+ */
+public final class GoalForecaster {
+    /** Returned by {@link #getEtaMinuteOfDay} when the goal won't be met today at this pace. */
+    public static final int NO_ETA = -1;
+
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    /** Smoothing of the per-minute sales average: about the last 15 minutes count. */
+    private static final double EWMA_ALPHA = 1.0 / 15;
+
+    /** Decay per minute of the fit's weights, halving them every hour. */
+    private static final double FIT_DECAY = Math.pow(0.5, 1.0 / 60);
+
+    /** Total weight the fit needs, about 10 recent minutes, before it's trusted. */
+    private static final double MIN_FIT_WEIGHT = 10 * Math.pow(0.5, 10.0 / 60);
+
+    private int mDay;
+    private int mMinute = -1;
+    private long mTotal;
+    private long mTotalAtMinute;
+
+    private double mRatePerMinute;
+    private double mWeight;
+    private double mSumX;
+    private double mSumY;
+    private double mSumXX;
+    private double mSumXY;
+
+    private int mEtaMinuteOfDay = NO_ETA;
+    private long mProjectedTotal;
+
+    /** Takes in the day's latest total. */
+    public void onTotal(long total) {
+        mTotal = total;
+    }
+
+    /**
+     * Advances to {@code minuteOfDay} of {@code day}, a {@link DigitalWatchFaceUtil#getDayNumber
+     * day number}, and forecasts against {@code goal}. Does nothing if that minute was already
+     * reached.
+     *
+     * @return whether the forecast was recomputed
+     */
+    public boolean onMinute(int day, int minuteOfDay, long goal) {
+        if (day < mDay || (day == mDay && minuteOfDay <= mMinute)) {
+            return false;
+        }
+        if (day > mDay) {
+            reset(day);
+        }
+        if (mMinute < 0) {
+            // Nothing to compare the first total against yet.
+            mMinute = minuteOfDay;
+            mTotalAtMinute = mTotal;
+            addFitPoint(minuteOfDay, 1);
+            forecast(goal);
+            return true;
+        }
+
+        int minutes = minuteOfDay - mMinute;
+        long sales = mTotal - mTotalAtMinute;
+        // As many EWMA steps as minutes passed, each seeing their average sales.
+        double keep = Math.pow(1 - EWMA_ALPHA, minutes);
+        mRatePerMinute = keep * mRatePerMinute + (1 - keep) * sales / minutes;
+        addFitPoint(minuteOfDay, Math.pow(FIT_DECAY, minutes));
+        mMinute = minuteOfDay;
+        mTotalAtMinute = mTotal;
+        forecast(goal);
+        return true;
+    }
+
+    /** Returns the minute of the day the goal should be met, or {@link #NO_ETA}. */
+    public int getEtaMinuteOfDay() {
+        return mEtaMinuteOfDay;
+    }
+
+    /** Returns the total expected at the end of the day at the current pace. */
+    public long getProjectedTotal() {
+        return mProjectedTotal;
+    }
+
+    /** Returns the blended pace in currency units per minute. */
+    public double getPacePerMinute() {
+        double pace = mRatePerMinute;
+        double determinant = mWeight * mSumXX - mSumX * mSumX;
+        if (mWeight >= MIN_FIT_WEIGHT && determinant > 0) {
+            double slope = (mWeight * mSumXY - mSumX * mSumY) / determinant;
+            pace = (pace + Math.max(slope, 0)) / 2;
+        }
+        return pace;
+    }
+
+    private void addFitPoint(int minuteOfDay, double decay) {
+        mWeight = mWeight * decay + 1;
+        mSumX = mSumX * decay + minuteOfDay;
+        mSumY = mSumY * decay + mTotal;
+        mSumXX = mSumXX * decay + (double) minuteOfDay * minuteOfDay;
+        mSumXY = mSumXY * decay + (double) minuteOfDay * mTotal;
+    }
+
+    private void forecast(long goal) {
+        double pace = getPacePerMinute();
+        int minutesLeft = MINUTES_PER_DAY - mMinute;
+        mProjectedTotal = mTotal + Math.round(pace * minutesLeft);
+        long remaining = goal - mTotal;
+        if (goal <= 0 || remaining <= 0 || pace <= 0) {
+            mEtaMinuteOfDay = NO_ETA;
+            return;
+        }
+        double eta = mMinute + Math.ceil(remaining / pace);
+        mEtaMinuteOfDay = eta < MINUTES_PER_DAY ? (int) eta : NO_ETA;
+    }
+
+    private void reset(int day) {
+        mDay = day;
+        mMinute = -1;
+        mTotalAtMinute = 0;
+        mRatePerMinute = 0;
+        mWeight = 0;
+        mSumX = 0;
+        mSumY = 0;
+        mSumXX = 0;
+        mSumXY = 0;
+        mEtaMinuteOfDay = NO_ETA;
+        mProjectedTotal = 0;
+    }
+}
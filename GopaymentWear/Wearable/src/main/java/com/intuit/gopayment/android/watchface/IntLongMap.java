@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intuit.gopayment.android.watchface;
+
+import java.util.Arrays;
+
+/**
+ * A map from int keys to long values using open addressing with linear probing, so lookups and
+ * updates are O(1) without boxing either the keys or the values. Memory is three parallel arrays
+ * whose capacity doubles when more than half full, i.e. a constant number of bytes per entry.
+ * <p>
+ * Entries are never removed individually; {@link #clear} empties the map. Not thread-safe.
+ */
+public final class IntLongMap {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] mKeys;
+    private long[] mValues;
+    private boolean[] mUsed;
+    private int mSize;
+
+    public IntLongMap() {
+        allocate(DEFAULT_CAPACITY);
+    }
+
+    /** Returns the value of {@code key}, or {@code defaultValue} if there's none. */
+    public long get(int key, long defaultValue) {
+        int slot = findSlot(key);
+        return mUsed[slot] ? mValues[slot] : defaultValue;
+    }
+
+    public boolean containsKey(int key) {
+        return mUsed[findSlot(key)];
+    }
+
+    /** Sets the value of {@code key}. */
+    public void put(int key, long value) {
+        int slot = findSlot(key);
+        if (!mUsed[slot]) {
+            slot = insert(key, slot);
+        }
+        mValues[slot] = value;
+    }
+
+    /** Adds {@code delta} to the value of {@code key}, which is 0 if there's none yet. */
+    public long add(int key, long delta) {
+        int slot = findSlot(key);
+        if (!mUsed[slot]) {
+            slot = insert(key, slot);
+        }
+        mValues[slot] += delta;
+        return mValues[slot];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /** Removes every entry, keeping the current capacity. */
+    public void clear() {
+        Arrays.fill(mUsed, false);
+        mSize = 0;
+    }
+
+    /** Returns the slot holding {@code key}, or the empty slot where it would go. */
+    private int findSlot(int key) {
+        int mask = mKeys.length - 1;
+        int slot = mix(key) & mask;
+        while (mUsed[slot] && mKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /** Claims the empty {@code slot} for {@code key}, growing first if needed. */
+    private int insert(int key, int slot) {
+        if ((mSize + 1) * 2 > mKeys.length) {
+            grow();
+            slot = findSlot(key);
+        }
+        mKeys[slot] = key;
+        mValues[slot] = 0;
+        mUsed[slot] = true;
+        mSize++;
+        return slot;
+    }
+
+    private void grow() {
+        int[] oldKeys = mKeys;
+        long[] oldValues = mValues;
+        boolean[] oldUsed = mUsed;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int slot = findSlot(oldKeys[i]);
+                mKeys[slot] = oldKeys[i];
+                mValues[slot] = oldValues[i];
+                mUsed[slot] = true;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new int[capacity];
+        mValues = new long[capacity];
+        mUsed = new boolean[capacity];
+    }
+
+    /** Spreads sequential ids, which are the common case, across the table. */
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
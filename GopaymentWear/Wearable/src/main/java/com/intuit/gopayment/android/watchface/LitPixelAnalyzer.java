@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intuit.gopayment.android.watchface;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+/**
+ * Measures how much of a rendered frame is lit, the share of the face's pixels that aren't
+ * black, which is roughly what an OLED display spends power on, and checks it against a budget.
+ * <p>
+ * Only pixels on the face count: all of them for square bounds, those inside the inscribed
+ * circle for round ones, whose corners the display doesn't have.
+ */
+public final class LitPixelAnalyzer {
+    /** The share of the face an ambient frame may light, as recommended for OLED displays. */
+    public static final float DEFAULT_BUDGET = 0.15f;
+
+    private final float mBudget;
+    private final int mThreshold;
+
+    /**
+     * @param budget the largest share of the face a frame may light, from 0 to 1
+     * @param threshold the brightest a channel of a pixel may be and still count as unlit, from
+     *         0 to 255
+     */
+    public LitPixelAnalyzer(float budget, int threshold) {
+        mBudget = budget;
+        mThreshold = threshold;
+    }
+
+    /** Analyzes against {@link #DEFAULT_BUDGET}, counting any pixel that isn't black. */
+    public LitPixelAnalyzer() {
+        this(DEFAULT_BUDGET, 0);
+    }
+
+    public float getBudget() {
+        return mBudget;
+    }
+
+    /** Returns the share of the face lit in {@code frame}, a round face if {@code round}. */
+    public float measure(Bitmap frame, boolean round) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        int[] pixels = new int[width * height];
+        frame.getPixels(pixels, 0, width, 0, 0, width, height);
+        return measure(pixels, width, height, round);
+    }
+
+    /**
+     * Returns the share of the face lit in the {@code width} by {@code height} ARGB
+     * {@code pixels}, row after row, a round face if {@code round}.
+     */
+    public float measure(int[] pixels, int width, int height, boolean round) {
+        float centerX = width / 2f;
+        float centerY = height / 2f;
+        float radius = Math.min(width, height) / 2f;
+        float radiusSquared = radius * radius;
+        long facePixels = 0;
+        long litPixels = 0;
+        for (int y = 0; y < height; y++) {
+            float dy = y + 0.5f - centerY;
+            for (int x = 0; x < width; x++) {
+                if (round) {
+                    float dx = x + 0.5f - centerX;
+                    if (dx * dx + dy * dy > radiusSquared) {
+                        continue;
+                    }
+                }
+                facePixels++;
+                if (isLit(pixels[y * width + x])) {
+                    litPixels++;
+                }
+            }
+        }
+        return facePixels == 0 ? 0 : (float) litPixels / facePixels;
+    }
+
+    /** Returns whether {@code ratio}, as returned by {@link #measure}, is within budget. */
+    public boolean isWithinBudget(float ratio) {
+        return ratio <= mBudget;
+    }
+
+    /**
+     * Measures {@code frame} and throws an {@link IllegalStateException} if it lights more of
+     * the face than the budget allows.
+     *
+     * @return the share of the face lit
+     */
+    public float checkBudget(Bitmap frame, boolean round) {
+        float ratio = measure(frame, round);
+        if (!isWithinBudget(ratio)) {
+            throw new IllegalStateException(String.format(
+                    "%s frame lights %.1f%% of the face, budget %.1f%%",
+                    round ? "Round" : "Square", ratio * 100, mBudget * 100));
+        }
+        return ratio;
+    }
+
+    private boolean isLit(int pixel) {
+        // Fully transparent pixels show the black behind the face.
+        return Color.alpha(pixel) != 0 && (Color.red(pixel) > mThreshold
+                || Color.green(pixel) > mThreshold || Color.blue(pixel) > mThreshold);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intuit.gopayment.android.watchface;
+
+import java.util.Arrays;
+
+/**
+ * Counts of positive values in fixed logarithmic buckets, four per doubling, so any quantile is
+ * known within about 9% from a fixed 120 counters, however many values were added. Adding a
+ * value is O(1); quantiles walk the fixed buckets.
+ * <p>
+ * Not thread-safe.
+ */
+public final class LogHistogram {
+    private static final int BUCKETS_PER_DOUBLING = 4;
+    private static final int BUCKET_COUNT = 30 * BUCKETS_PER_DOUBLING;
+    private static final double BUCKETS_PER_LOG = BUCKETS_PER_DOUBLING / Math.log(2);
+
+    /** Values in [2^(i/4), 2^((i+1)/4)), bucket 0 also taking anything smaller. */
+    private final long[] mCounts = new long[BUCKET_COUNT];
+    private long mCount;
+    private long mSum;
+
+    /** Adds {@code count} occurrences of {@code value}; values under 1 count as 1. */
+    public void add(long value, long count) {
+        long clamped = Math.max(value, 1);
+        int bucket = (int) (Math.log(clamped) * BUCKETS_PER_LOG);
+        mCounts[Math.min(bucket, BUCKET_COUNT - 1)] += count;
+        mCount += count;
+        mSum += clamped * count;
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    /** Returns the mean of the values added, 0 if none. */
+    public long getMean() {
+        return mCount == 0 ? 0 : mSum / mCount;
+    }
+
+    /**
+     * Returns the value below which {@code quantile} (from 0 to 1) of the values fall, as the
+     * geometric middle of its bucket, or 0 if there are none.
+     */
+    public long getQuantile(double quantile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long rank = Math.max((long) Math.ceil(quantile * mCount), 1);
+        long seen = 0;
+        int bucket = 0;
+        while (bucket < BUCKET_COUNT - 1) {
+            seen += mCounts[bucket];
+            if (seen >= rank) {
+                break;
+            }
+            bucket++;
+        }
+        return Math.round(Math.exp((bucket + 0.5) / BUCKETS_PER_LOG));
+    }
+
+    public void clear() {
+        Arrays.fill(mCounts, 0);
+        mCount = 0;
+        mSum = 0;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intuit.gopayment.android.watchface;
+
+import java.util.Arrays;
+
+/**
+ * The day's sales per minute, in a primitive ring of {@link #MINUTES_PER_DAY} slots indexed by
+ * minute of the day and cleared when a later day starts.
+ * <p>
+ * The phone sends per-hour totals ({@link DigitalWatchFaceUtil#KEY_HOUR_TOTAL_PREFIX}), so each
+ * update is turned into a per-minute amount in O(1): what an hour's total grew by since its last
+ * update is added to the slot of the minute the phone sent it in. The first total of an hour,
+ * e.g. when the face starts mid-day and catches up from a checkpoint, has no history to place
+ * it, so it's spread evenly over the minutes of that hour that had passed.
+ * <p>
+ * {@link #getVersion} changes whenever a slot does, so renderers can cache what they derive.
+ * <p>
+ * Not thread-safe.
+ */
+public final class MinuteSalesRing {
+    public static final int MINUTES_PER_DAY = 24 * 60;
+    private static final int MINUTES_PER_HOUR = 60;
+    private static final int HOURS_PER_DAY = 24;
+
+    /** Sales in whole currency units, by minute of the day. */
+    private final long[] mSlots = new long[MINUTES_PER_DAY];
+    private final long[] mHourTotals = new long[HOURS_PER_DAY];
+    private final boolean[] mHourSeen = new boolean[HOURS_PER_DAY];
+    private int mDay;
+    private int mVersion;
+
+    /**
+     * Records that the total of {@code hour} on {@code day} was {@code total} at
+     * {@code minuteOfDay} of that day.
+     *
+     * @return whether any slot changed
+     */
+    public boolean onHourTotal(int day, int hour, long total, int minuteOfDay) {
+        if (hour < 0 || hour >= HOURS_PER_DAY || day < mDay) {
+            return false;
+        }
+        if (day > mDay) {
+            reset(day);
+        }
+        long delta = total - mHourTotals[hour];
+        boolean firstTotal = !mHourSeen[hour];
+        mHourTotals[hour] = total;
+        mHourSeen[hour] = true;
+        if (delta == 0) {
+            return false;
+        }
+
+        int hourStart = hour * MINUTES_PER_HOUR;
+        int hourEnd = hourStart + MINUTES_PER_HOUR - 1;
+        if (firstTotal) {
+            int lastMinute = Math.max(hourStart, Math.min(minuteOfDay, hourEnd));
+            spread(delta, hourStart, lastMinute);
+        } else {
+            // A late update for an earlier hour lands in that hour's last minute.
+            mSlots[Math.max(hourStart, Math.min(minuteOfDay, hourEnd))] += delta;
+        }
+        mVersion++;
+        return true;
+    }
+
+    /** Returns the sales of {@code minuteOfDay}, from 0 to {@link #MINUTES_PER_DAY} - 1. */
+    public long get(int minuteOfDay) {
+        return mSlots[minuteOfDay];
+    }
+
+    /**
+     * Returns the sales of the minutes {@code firstMinute} to {@code lastMinute}, both included;
+     * minutes outside the day count as none.
+     */
+    public long sum(int firstMinute, int lastMinute) {
+        long sum = 0;
+        for (int i = Math.max(firstMinute, 0); i <= Math.min(lastMinute, MINUTES_PER_DAY - 1);
+                i++) {
+            sum += mSlots[i];
+        }
+        return sum;
+    }
+
+    /** Returns the day the slots are for, 0 if none yet. */
+    public int getDay() {
+        return mDay;
+    }
+
+    /** Returns a number that changes whenever a slot does. */
+    public int getVersion() {
+        return mVersion;
+    }
+
+    /** Clears every slot and starts {@code day}. */
+    public void reset(int day) {
+        mDay = day;
+        Arrays.fill(mSlots, 0);
+        Arrays.fill(mHourTotals, 0);
+        Arrays.fill(mHourSeen, false);
+        mVersion++;
+    }
+
+    /** Spreads {@code amount} over the slots {@code first} to {@code last}, both included. */
+    private void spread(long amount, int first, int last) {
+        int minutes = last - first + 1;
+        long share = amount / minutes;
+        long remainder = amount % minutes;
+        for (int i = first; i <= last; i++) {
+            mSlots[i] += share;
+        }
+        // Keep the hour's sum exact.
+        mSlots[last] += remainder;
+    }
+}
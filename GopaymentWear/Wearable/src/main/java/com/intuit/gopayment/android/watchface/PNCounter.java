@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intuit.gopayment.android.watchface;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A day's store-wide total as a PN-counter CRDT. Every register (phone) owns one slot holding
+ * the cents it added (sales) and the cents it took away (refunds and voids) that day, both only
+ * ever growing. Merging takes the element-wise maximum of the slots, which is commutative,
+ * associative and idempotent, so the total converges however many registers report, in
+ * whatever order, however often, without any coordination between them.
+ * <p>
+ * Counters are scoped to a day, as returned by {@link DigitalWatchFaceUtil#getDayNumber}.
+ * State from a later day replaces the counter; state from an earlier day is ignored.
+ * <p>
+ * Not thread-safe.
+ */
+public final class PNCounter {
+    private int mDay;
+    /** {increments, decrements} in cents, by register id. */
+    private final Map<String, long[]> mSlots = new HashMap<String, long[]>();
+
+    /**
+     * Merges the state of {@code registerId} on {@code day}: {@code incrementsCents} added and
+     * {@code decrementsCents} taken away.
+     *
+     * @return whether the counter changed
+     */
+    public boolean merge(String registerId, int day, long incrementsCents, long decrementsCents) {
+        if (day < mDay) {
+            return false;
+        }
+        if (day > mDay) {
+            mDay = day;
+            mSlots.clear();
+        }
+        long[] slot = mSlots.get(registerId);
+        if (slot == null) {
+            mSlots.put(registerId, new long[] {incrementsCents, decrementsCents});
+            return true;
+        }
+        boolean changed = false;
+        if (incrementsCents > slot[0]) {
+            slot[0] = incrementsCents;
+            changed = true;
+        }
+        if (decrementsCents > slot[1]) {
+            slot[1] = decrementsCents;
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Merges every slot of {@code other} into this counter.
+     *
+     * @return whether this counter changed
+     */
+    public boolean merge(PNCounter other) {
+        boolean changed = false;
+        for (Map.Entry<String, long[]> slot : other.mSlots.entrySet()) {
+            changed |= merge(slot.getKey(), other.mDay, slot.getValue()[0], slot.getValue()[1]);
+        }
+        return changed;
+    }
+
+    /** Returns the day the counter holds, 0 if it's empty. */
+    public int getDay() {
+        return mDay;
+    }
+
+    public boolean isEmpty() {
+        return mSlots.isEmpty();
+    }
+
+    /** Returns the number of registers that reported. */
+    public int getRegisterCount() {
+        return mSlots.size();
+    }
+
+    /** Returns the store-wide total in cents: all increments minus all decrements. */
+    public long getValueCents() {
+        long valueCents = 0;
+        for (long[] slot : mSlots.values()) {
+            valueCents += slot[0] - slot[1];
+        }
+        return valueCents;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof PNCounter)) {
+            return false;
+        }
+        PNCounter other = (PNCounter) o;
+        if (mDay != other.mDay || mSlots.size() != other.mSlots.size()) {
+            return false;
+        }
+        for (Map.Entry<String, long[]> slot : mSlots.entrySet()) {
+            long[] otherSlot = other.mSlots.get(slot.getKey());
+            if (otherSlot == null || otherSlot[0] != slot.getValue()[0]
+                    || otherSlot[1] != slot.getValue()[1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = mDay;
+        for (Map.Entry<String, long[]> slot : mSlots.entrySet()) {
+            hash += slot.getKey().hashCode() ^ Arrays.hashCode(slot.getValue());
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("PNCounter{day=").append(mDay);
+        for (Map.Entry<String, long[]> slot : mSlots.entrySet()) {
+            builder.append(", ").append(slot.getKey()).append("=+").append(slot.getValue()[0])
+                    .append("/-").append(slot.getValue()[1]);
+        }
+        return builder.append('}').toString();
+    }
+}
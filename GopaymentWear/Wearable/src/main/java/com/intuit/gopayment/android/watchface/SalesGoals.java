@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intuit.gopayment.android.watchface;
+
+import java.util.Calendar;
+
+/**
+ * The sales goals shown on the watch face: the day's, the week's, the month's and one over a
+ * custom range of days, all measured against a {@link DailyTotalsTree}.
+ * <p>
+ * Progress and each goal's total are recomputed when a total, a goal or the day changes, in
+ * O(log n) per goal, and cached; drawing a frame only reads them.
+ * <p>
+ * Days are {@link DigitalWatchFaceUtil#getDayNumber day numbers}. Not thread-safe.
+ */
+public final class SalesGoals {
+    public static final int GOAL_DAY = 0;
+    public static final int GOAL_WEEK = 1;
+    public static final int GOAL_MONTH = 2;
+    public static final int GOAL_CUSTOM = 3;
+    public static final int GOAL_COUNT = 4;
+
+    /** Days of totals kept, enough for any month or custom range of a season. */
+    private static final int DAYS_KEPT = 400;
+
+    private final DailyTotalsTree mTotals = new DailyTotalsTree(DAYS_KEPT);
+    private final long[] mGoals = new long[GOAL_COUNT];
+    private final float[] mProgress = new float[GOAL_COUNT];
+    private final long[] mRangeTotals = new long[GOAL_COUNT];
+
+    /** First and last epoch day of each goal's range. */
+    private final int[] mFirstDays = new int[GOAL_COUNT];
+    private final int[] mLastDays = new int[GOAL_COUNT];
+
+    private int mToday;
+
+    /**
+     * Sets the amount of {@code goal}, one of the {@code GOAL_} constants, 0 for none.
+     *
+     * @return whether its progress changed
+     */
+    public boolean setGoal(int goal, long amount) {
+        mGoals[goal] = amount;
+        return updateProgress(goal);
+    }
+
+    /**
+     * Sets the range of {@link #GOAL_CUSTOM}, from {@code firstDay} to {@code lastDay} included.
+     *
+     * @return whether its progress changed
+     */
+    public boolean setCustomRange(int firstDay, int lastDay) {
+        mFirstDays[GOAL_CUSTOM] = DigitalWatchFaceUtil.getEpochDay(firstDay);
+        mLastDays[GOAL_CUSTOM] = DigitalWatchFaceUtil.getEpochDay(lastDay);
+        return updateProgress(GOAL_CUSTOM);
+    }
+
+    /**
+     * Moves the day, week and month goals to the ones containing {@code today}.
+     *
+     * @return whether any progress changed
+     */
+    public boolean setToday(int today) {
+        if (today == mToday) {
+            return false;
+        }
+        mToday = today;
+        int epochDay = DigitalWatchFaceUtil.getEpochDay(today);
+        mFirstDays[GOAL_DAY] = epochDay;
+        mLastDays[GOAL_DAY] = epochDay;
+
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(today / 10000, today / 100 % 100 - 1, today % 100);
+        int daysIntoWeek = (calendar.get(Calendar.DAY_OF_WEEK) - calendar.getFirstDayOfWeek()
+                + 7) % 7;
+        mFirstDays[GOAL_WEEK] = epochDay - daysIntoWeek;
+        mLastDays[GOAL_WEEK] = mFirstDays[GOAL_WEEK] + 6;
+        int dayOfMonth = calendar.get(Calendar.DAY_OF_MONTH);
+        mFirstDays[GOAL_MONTH] = epochDay - dayOfMonth + 1;
+        mLastDays[GOAL_MONTH] = mFirstDays[GOAL_MONTH]
+                + calendar.getActualMaximum(Calendar.DAY_OF_MONTH) - 1;
+
+        return updateProgress(GOAL_DAY) | updateProgress(GOAL_WEEK) | updateProgress(GOAL_MONTH);
+    }
+
+    /**
+     * Sets the sales total of {@code day}.
+     *
+     * @return whether any progress changed
+     */
+    public boolean setDayTotal(int day, long total) {
+        int epochDay = DigitalWatchFaceUtil.getEpochDay(day);
+        if (!mTotals.set(epochDay, total)) {
+            return false;
+        }
+        boolean changed = false;
+        for (int goal = 0; goal < GOAL_COUNT; goal++) {
+            if (epochDay >= mFirstDays[goal] && epochDay <= mLastDays[goal]) {
+                changed |= updateProgress(goal);
+            }
+        }
+        return changed;
+    }
+
+    /** Returns the amount of {@code goal}, 0 if it isn't set. */
+    public long getGoal(int goal) {
+        return mGoals[goal];
+    }
+
+    /** Returns whether {@code goal} is set. */
+    public boolean hasGoal(int goal) {
+        return mGoals[goal] > 0;
+    }
+
+    /** Returns the sales total over the days of {@code goal}, whether or not it's set. */
+    public long getTotal(int goal) {
+        return mRangeTotals[goal];
+    }
+
+    /** Returns the fraction of {@code goal} reached, 1 or more once met, 0 if it isn't set. */
+    public float getProgress(int goal) {
+        return mProgress[goal];
+    }
+
+    /** @return whether the total or the progress of {@code goal} changed */
+    private boolean updateProgress(int goal) {
+        long total = mTotals.sum(mFirstDays[goal], mLastDays[goal]);
+        float progress = mGoals[goal] > 0 ? (float) total / mGoals[goal] : 0;
+        if (total == mRangeTotals[goal] && progress == mProgress[goal]) {
+            return false;
+        }
+        mRangeTotals[goal] = total;
+        mProgress[goal] = progress;
+        return true;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intuit.gopayment.android.watchface;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Calendar;
+
+/**
+ * Archives each finished day of {@link MinuteSalesRing} into a {@link SalesHistoryStore}, on a
+ * background thread so the disk writes never hold up a frame.
+ * <p>
+ * A day is only archived once it's over, at local midnight or once the phone's data moves on to
+ * the next day, so the store never needs rewriting. Archiving a day again is harmless: minutes
+ * already in the store are skipped.
+ */
+public final class SalesHistoryArchiver {
+    private static final String TAG = "SalesHistoryArchiver";
+
+    /** Name of the history file, in the app's files directory. */
+    private static final String FILE_NAME = "sales_history";
+
+    private static final long MINUTE_MS = 60 * 1000;
+
+    /** Receives the totals read back by {@link #loadDailyTotals}, on the main thread. */
+    public interface DailyTotalsCallback {
+        /** {@code totals[i]} is the total of {@code days[i]}, a day number. */
+        void onDailyTotalsLoaded(int[] days, long[] totals);
+    }
+
+    private final File mFile;
+    private final HandlerThread mWorkerThread;
+    private final Handler mWorkerHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Only touched on the worker thread; opened on first use. */
+    private SalesHistoryStore mStore;
+
+    public SalesHistoryArchiver(Context context) {
+        mFile = new File(context.getFilesDir(), FILE_NAME);
+        mWorkerThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mWorkerThread.start();
+        mWorkerHandler = new Handler(mWorkerThread.getLooper());
+    }
+
+    /** Archives the slots of {@code ring}, which must hold a finished day. */
+    public void archive(MinuteSalesRing ring) {
+        final int day = ring.getDay();
+        if (day == 0) {
+            return;
+        }
+        final long[] minuteSales = new long[MinuteSalesRing.MINUTES_PER_DAY];
+        for (int i = 0; i < minuteSales.length; i++) {
+            minuteSales[i] = ring.get(i);
+        }
+        mWorkerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    append(day, minuteSales);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to archive day " + day, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads back the totals of the {@code dayCount} days before today, as far as the history
+     * goes, and hands them to {@code callback}.
+     */
+    public void loadDailyTotals(final int dayCount, final DailyTotalsCallback callback) {
+        mWorkerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final int[] days = new int[dayCount];
+                final long[] totals = new long[dayCount];
+                try {
+                    sumDays(days, totals);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to read the sales history", e);
+                    return;
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onDailyTotalsLoaded(days, totals);
+                    }
+                });
+            }
+        });
+    }
+
+    /** Flushes what's pending and stops the worker thread. */
+    public void quit() {
+        mWorkerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mStore == null) {
+                    return;
+                }
+                try {
+                    mStore.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to close the sales history", e);
+                }
+                mStore = null;
+            }
+        });
+        mWorkerThread.quitSafely();
+    }
+
+    /** Fills {@code days} with the days before today, oldest first, and their totals. */
+    private void sumDays(int[] days, long[] totals) throws IOException {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        long todayStartMs = calendar.getTimeInMillis();
+        calendar.add(Calendar.DAY_OF_MONTH, -days.length);
+
+        SalesHistoryStore.Cursor cursor =
+                getStore().scan(calendar.getTimeInMillis(), todayStartMs - 1);
+        boolean hasPoint = cursor.next();
+        for (int i = 0; i < days.length; i++) {
+            days[i] = DigitalWatchFaceUtil.getDayNumber(calendar.getTimeInMillis());
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+            long nextDayStartMs = calendar.getTimeInMillis();
+            while (hasPoint && cursor.getTimeMs() < nextDayStartMs) {
+                totals[i] += cursor.getValue();
+                hasPoint = cursor.next();
+            }
+        }
+    }
+
+    private SalesHistoryStore getStore() throws IOException {
+        if (mStore == null) {
+            mStore = new SalesHistoryStore(mFile, SalesHistoryStore.DEFAULT_BLOCK_COUNT);
+        }
+        return mStore;
+    }
+
+    private void append(int day, long[] minuteSales) throws IOException {
+        SalesHistoryStore store = getStore();
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(day / 10000, day / 100 % 100 - 1, day % 100);
+        int appended = 0;
+        for (int hour = 0; hour < 24; hour++) {
+            calendar.set(Calendar.HOUR_OF_DAY, hour);
+            long hourStartMs = calendar.getTimeInMillis();
+            if (calendar.get(Calendar.HOUR_OF_DAY) != hour) {
+                // Skipped by a daylight saving change; it had no sales.
+                calendar.set(day / 10000, day / 100 % 100 - 1, day % 100);
+                continue;
+            }
+            for (int minute = 0; minute < 60; minute++) {
+                long timeMs = hourStartMs + minute * MINUTE_MS;
+                // A day already archived, or the repeated hour of a daylight saving change.
+                if (timeMs <= store.getLastTimeMs()) {
+                    continue;
+                }
+                store.append(timeMs, minuteSales[hour * 60 + minute]);
+                appended++;
+            }
+        }
+        store.flush();
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Archived " + appended + " minutes of " + day + ", "
+                    + store.getPointCount() + " points in " + store.getUsedBytes() + " bytes");
+        }
+    }
+}
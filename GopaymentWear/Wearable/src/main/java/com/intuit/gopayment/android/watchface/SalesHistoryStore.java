@@ -0,0 +1,458 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intuit.gopayment.android.watchface;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * Compressed per-minute sales history, in the style of Facebook's Gorilla time series store,
+ * kept in a file of fixed-size blocks used as a ring: once the file is full, each new block
+ * overwrites the oldest one, so storage stays constant however long the watch runs.
+ * <p>
+ * Each block starts with its first point in full, followed by a bit stream:
+ * <ul>
+ * <li>Timestamps are stored as the difference between consecutive deltas: one bit when the
+ * interval didn't change (a point every minute), 9 to 16 bits for small changes and 68 bits
+ * otherwise.</li>
+ * <li>Values are XORed with the previous one: one bit when equal, else only the meaningful bits
+ * of the XOR, inside the previous window of leading and trailing zeros when they fit (2 bits of
+ * overhead) or with a new window (14 bits of overhead).</li>
+ * </ul>
+ * A run of quiet minutes thus costs 2 bits a point. Appends only ever write the open block;
+ * sealed blocks are never re-encoded. Range scans stream one block at a time.
+ * <p>
+ * Timestamps must be appended in increasing order. Not thread-safe.
+ */
+public final class SalesHistoryStore implements Closeable {
+    /** Size of a block in the file, header included. */
+    public static final int BLOCK_SIZE = 512;
+
+    /** Default number of blocks, enough for weeks of per-minute history. */
+    public static final int DEFAULT_BLOCK_COUNT = 256;
+
+    /** First time, first value, point count, bit length. */
+    private static final int HEADER_SIZE = 8 + 8 + 4 + 4;
+    private static final int CAPACITY_BITS = (BLOCK_SIZE - HEADER_SIZE) * 8;
+
+    /** The most bits a point can take: a 68-bit timestamp and a 78-bit value. */
+    private static final int MAX_POINT_BITS = 68 + 78;
+
+    private final RandomAccessFile mFile;
+    private final int mBlockCount;
+    /** First timestamp and point count of the block in each slot; count 0 if unused. */
+    private final long[] mSlotFirstTimes;
+    private final int[] mSlotCounts;
+
+    /** Slot of the open block, which appends go to. */
+    private int mOpenSlot;
+    private final byte[] mOpenBlock = new byte[BLOCK_SIZE];
+    private final BlockEncoder mEncoder = new BlockEncoder();
+
+    /**
+     * Opens the history in {@code file}, creating it if needed, with room for {@code blockCount}
+     * blocks.
+     */
+    public SalesHistoryStore(File file, int blockCount) throws IOException {
+        mFile = new RandomAccessFile(file, "rw");
+        mBlockCount = blockCount;
+        mSlotFirstTimes = new long[blockCount];
+        mSlotCounts = new int[blockCount];
+        mFile.setLength((long) blockCount * BLOCK_SIZE);
+
+        byte[] header = new byte[HEADER_SIZE];
+        int newestSlot = -1;
+        for (int slot = 0; slot < blockCount; slot++) {
+            mFile.seek((long) slot * BLOCK_SIZE);
+            mFile.readFully(header);
+            mSlotFirstTimes[slot] = readLong(header, 0);
+            mSlotCounts[slot] = readInt(header, 16);
+            if (mSlotCounts[slot] > 0 && (newestSlot < 0
+                    || mSlotFirstTimes[slot] > mSlotFirstTimes[newestSlot])) {
+                newestSlot = slot;
+            }
+        }
+        if (newestSlot < 0) {
+            mOpenSlot = 0;
+        } else {
+            // Reopen the newest block and pick up where it stopped.
+            mOpenSlot = newestSlot;
+            mFile.seek((long) newestSlot * BLOCK_SIZE);
+            mFile.readFully(mOpenBlock);
+            mEncoder.resume(mOpenBlock);
+        }
+    }
+
+    /** Appends the point ({@code timeMs}, {@code value}); {@link #flush} persists it. */
+    public void append(long timeMs, long value) throws IOException {
+        if (mEncoder.mCount > 0 && timeMs <= mEncoder.mPreviousTime) {
+            throw new IllegalArgumentException("Time " + timeMs + " isn't after "
+                    + mEncoder.mPreviousTime);
+        }
+        if (mEncoder.mCount > 0 && mEncoder.mBitLength + MAX_POINT_BITS > CAPACITY_BITS) {
+            // Seal the open block for good and move on to the next slot.
+            writeOpenBlock();
+            mOpenSlot = (mOpenSlot + 1) % mBlockCount;
+            mEncoder.start(mOpenBlock);
+        }
+        mEncoder.append(mOpenBlock, timeMs, value);
+        mSlotFirstTimes[mOpenSlot] = mEncoder.mFirstTime;
+        mSlotCounts[mOpenSlot] = mEncoder.mCount;
+    }
+
+    /** Writes the open block to the file. Earlier blocks are already there. */
+    public void flush() throws IOException {
+        if (mEncoder.mCount > 0) {
+            writeOpenBlock();
+        }
+    }
+
+    /** Returns the time of the last point appended, or {@link Long#MIN_VALUE} if none. */
+    public long getLastTimeMs() {
+        return mEncoder.mCount > 0 ? mEncoder.mPreviousTime : Long.MIN_VALUE;
+    }
+
+    /** Returns the number of points stored, oldest blocks overwritten excepted. */
+    public int getPointCount() {
+        int count = 0;
+        for (int slot = 0; slot < mBlockCount; slot++) {
+            count += mSlotCounts[slot];
+        }
+        return count;
+    }
+
+    /** Returns the number of bytes holding the points, headers included. */
+    public long getUsedBytes() {
+        long bytes = 0;
+        for (int slot = 0; slot < mBlockCount; slot++) {
+            if (mSlotCounts[slot] > 0) {
+                bytes += slot == mOpenSlot ? HEADER_SIZE + (mEncoder.mBitLength + 7) / 8
+                        : BLOCK_SIZE;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns a cursor over the points from {@code fromMs} to {@code toMs}, both included, in
+     * time order. Don't append while using it.
+     */
+    public Cursor scan(long fromMs, long toMs) {
+        // Blocks are in time order starting after the open one, around the ring. Start from the
+        // last block beginning at or before fromMs, skipping any before it.
+        int firstSlot = -1;
+        for (int i = 1; i <= mBlockCount; i++) {
+            int slot = (mOpenSlot + i) % mBlockCount;
+            if (mSlotCounts[slot] == 0) {
+                continue;
+            }
+            if (firstSlot < 0 || mSlotFirstTimes[slot] <= fromMs) {
+                firstSlot = slot;
+            }
+        }
+        return new Cursor(firstSlot, fromMs, toMs);
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        mFile.close();
+    }
+
+    private void writeOpenBlock() throws IOException {
+        mEncoder.writeHeader(mOpenBlock);
+        mFile.seek((long) mOpenSlot * BLOCK_SIZE);
+        mFile.write(mOpenBlock);
+    }
+
+    /** Streams the points of a range, one block at a time. */
+    public final class Cursor {
+        private final long mFromMs;
+        private final long mToMs;
+        private final byte[] mBlock = new byte[BLOCK_SIZE];
+        private final BlockDecoder mDecoder = new BlockDecoder();
+        private int mSlot;
+        private boolean mDone;
+
+        Cursor(int firstSlot, long fromMs, long toMs) {
+            mFromMs = fromMs;
+            mToMs = toMs;
+            mSlot = firstSlot;
+            mDone = firstSlot < 0;
+        }
+
+        /** Moves to the next point in range, returning false once there are no more. */
+        public boolean next() throws IOException {
+            while (!mDone) {
+                if (!mDecoder.hasNext()) {
+                    if (!loadNextBlock()) {
+                        mDone = true;
+                        return false;
+                    }
+                    continue;
+                }
+                mDecoder.next();
+                if (mDecoder.mTime > mToMs) {
+                    mDone = true;
+                    return false;
+                }
+                if (mDecoder.mTime >= mFromMs) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public long getTimeMs() {
+            return mDecoder.mTime;
+        }
+
+        public long getValue() {
+            return mDecoder.mValue;
+        }
+
+        private boolean loadNextBlock() throws IOException {
+            if (mSlot < 0) {
+                return false;
+            }
+            if (mSlot == mOpenSlot) {
+                mEncoder.writeHeader(mOpenBlock);
+                System.arraycopy(mOpenBlock, 0, mBlock, 0, BLOCK_SIZE);
+            } else {
+                mFile.seek((long) mSlot * BLOCK_SIZE);
+                mFile.readFully(mBlock);
+            }
+            mDecoder.start(mBlock);
+            // The open block is the newest; after it the ring wraps to the oldest.
+            mSlot = mSlot == mOpenSlot ? -1 : (mSlot + 1) % mBlockCount;
+            return true;
+        }
+    }
+
+    /** Appends points to a block's bit stream, remembering what the next point is coded against. */
+    private static final class BlockEncoder {
+        long mFirstTime;
+        long mFirstValue;
+        int mCount;
+        int mBitLength;
+        long mPreviousTime;
+        long mPreviousDelta;
+        long mPreviousValue;
+        int mPreviousLeading = -1;
+        int mPreviousTrailing;
+
+        void start(byte[] block) {
+            Arrays.fill(block, (byte) 0);
+            mCount = 0;
+            mBitLength = 0;
+            mPreviousDelta = 0;
+            mPreviousLeading = -1;
+        }
+
+        /** Restores the state after the last point of a block written earlier. */
+        void resume(byte[] block) {
+            BlockDecoder decoder = new BlockDecoder();
+            decoder.start(block);
+            while (decoder.hasNext()) {
+                decoder.next();
+            }
+            mFirstTime = readLong(block, 0);
+            mFirstValue = readLong(block, 8);
+            mCount = decoder.mCount;
+            mBitLength = decoder.mBitPosition;
+            mPreviousTime = decoder.mTime;
+            mPreviousDelta = decoder.mDelta;
+            mPreviousValue = decoder.mValue;
+            mPreviousLeading = decoder.mLeading;
+            mPreviousTrailing = decoder.mTrailing;
+        }
+
+        void writeHeader(byte[] block) {
+            writeLong(block, 0, mFirstTime);
+            writeLong(block, 8, mFirstValue);
+            writeInt(block, 16, mCount);
+            writeInt(block, 20, mBitLength);
+        }
+
+        void append(byte[] block, long time, long value) {
+            if (mCount == 0) {
+                mFirstTime = time;
+                mFirstValue = value;
+                mPreviousTime = time;
+                mPreviousValue = value;
+                mCount = 1;
+                return;
+            }
+            long delta = time - mPreviousTime;
+            long deltaOfDelta = delta - mPreviousDelta;
+            if (deltaOfDelta == 0) {
+                writeBits(block, 0, 1);
+            } else if (deltaOfDelta >= -63 && deltaOfDelta <= 64) {
+                writeBits(block, 0x2, 2);
+                writeBits(block, deltaOfDelta + 63, 7);
+            } else if (deltaOfDelta >= -255 && deltaOfDelta <= 256) {
+                writeBits(block, 0x6, 3);
+                writeBits(block, deltaOfDelta + 255, 9);
+            } else if (deltaOfDelta >= -2047 && deltaOfDelta <= 2048) {
+                writeBits(block, 0xe, 4);
+                writeBits(block, deltaOfDelta + 2047, 12);
+            } else {
+                writeBits(block, 0xf, 4);
+                writeBits(block, deltaOfDelta, 64);
+            }
+
+            long xor = value ^ mPreviousValue;
+            if (xor == 0) {
+                writeBits(block, 0, 1);
+            } else {
+                int leading = Long.numberOfLeadingZeros(xor);
+                int trailing = Long.numberOfTrailingZeros(xor);
+                if (mPreviousLeading >= 0 && leading >= mPreviousLeading
+                        && trailing >= mPreviousTrailing) {
+                    writeBits(block, 0x2, 2);
+                    writeBits(block, xor >>> mPreviousTrailing,
+                            64 - mPreviousLeading - mPreviousTrailing);
+                } else {
+                    int length = 64 - leading - trailing;
+                    writeBits(block, 0x3, 2);
+                    writeBits(block, leading, 6);
+                    writeBits(block, length - 1, 6);
+                    writeBits(block, xor >>> trailing, length);
+                    mPreviousLeading = leading;
+                    mPreviousTrailing = trailing;
+                }
+            }
+            mPreviousTime = time;
+            mPreviousDelta = delta;
+            mPreviousValue = value;
+            mCount++;
+        }
+
+        /** Writes the low {@code count} bits of {@code bits}, most significant first. */
+        private void writeBits(byte[] block, long bits, int count) {
+            for (int i = count - 1; i >= 0; i--) {
+                if (((bits >>> i) & 1) != 0) {
+                    int position = HEADER_SIZE * 8 + mBitLength;
+                    block[position >>> 3] |= (byte) (0x80 >>> (position & 7));
+                }
+                mBitLength++;
+            }
+        }
+    }
+
+    /** Reads the points of a block back, the inverse of {@link BlockEncoder}. */
+    private static final class BlockDecoder {
+        private byte[] mBlock;
+        private int mTotal;
+        int mCount;
+        int mBitPosition;
+        long mTime;
+        long mDelta;
+        long mValue;
+        int mLeading = -1;
+        int mTrailing;
+
+        void start(byte[] block) {
+            mBlock = block;
+            mTotal = readInt(block, 16);
+            mCount = 0;
+            mBitPosition = 0;
+            mDelta = 0;
+            mLeading = -1;
+        }
+
+        boolean hasNext() {
+            return mCount < mTotal;
+        }
+
+        void next() {
+            if (mCount == 0) {
+                mTime = readLong(mBlock, 0);
+                mValue = readLong(mBlock, 8);
+                mCount = 1;
+                return;
+            }
+            long deltaOfDelta;
+            if (readBits(1) == 0) {
+                deltaOfDelta = 0;
+            } else if (readBits(1) == 0) {
+                deltaOfDelta = readBits(7) - 63;
+            } else if (readBits(1) == 0) {
+                deltaOfDelta = readBits(9) - 255;
+            } else if (readBits(1) == 0) {
+                deltaOfDelta = readBits(12) - 2047;
+            } else {
+                deltaOfDelta = readBits(64);
+            }
+            mDelta += deltaOfDelta;
+            mTime += mDelta;
+
+            if (readBits(1) != 0) {
+                if (readBits(1) != 0) {
+                    mLeading = (int) readBits(6);
+                    int length = (int) readBits(6) + 1;
+                    mTrailing = 64 - mLeading - length;
+                }
+                mValue ^= readBits(64 - mLeading - mTrailing) << mTrailing;
+            }
+            mCount++;
+        }
+
+        private long readBits(int count) {
+            long bits = 0;
+            for (int i = 0; i < count; i++) {
+                int position = HEADER_SIZE * 8 + mBitPosition;
+                bits = (bits << 1) | ((mBlock[position >>> 3] >>> (7 - (position & 7))) & 1);
+                mBitPosition++;
+            }
+            return bits;
+        }
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    private static void writeLong(byte[] bytes, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            bytes[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        for (int i = 3; i >= 0; i--) {
+            bytes[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intuit.gopayment.android.watchface;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Live sales statistics for the watch face: transactions per hour, with a
+ * {@link DecayedRate}, and the day's average, median and 90th percentile ticket, with a
+ * {@link LogHistogram}. Memory is constant and no transaction is stored.
+ * <p>
+ * The phone doesn't send individual sales, only running values: each phone's number of sales,
+ * refunds and voids excluded ({@link DigitalWatchFaceUtil#KEY_DAILY_COUNT}), and the cents its
+ * sales added ({@link DigitalWatchFaceUtil#KEY_REGISTER_COUNTER}). Sales are recovered from how
+ * both grew between two updates from the same phone. When several sales were merged into one
+ * update, each is taken to be their average, so percentiles are exact while updates are pushed in
+ * real time and approximate while they're batched. The first update from a phone only sets its
+ * baseline.
+ * <p>
+ * Not thread-safe.
+ */
+public final class SalesStats {
+    /** Half-life of the transaction rate. */
+    private static final long RATE_HALF_LIFE_MS = TimeUnit.MINUTES.toMillis(15);
+
+    /** Last count and sales cents received from each phone, by node id. */
+    private static final class Baseline {
+        int mDay;
+        int mCount = -1;
+        long mIncrementsCents = -1;
+    }
+
+    private final Map<String, Baseline> mBaselines = new HashMap<String, Baseline>();
+    private final DecayedRate mRate;
+    private final LogHistogram mTickets = new LogHistogram();
+    private int mDay;
+    private int mVersion;
+
+    /** Creates statistics with no sales, observing the transaction rate from {@code startMs}. */
+    public SalesStats(long startMs) {
+        mRate = new DecayedRate(RATE_HALF_LIFE_MS, startMs);
+    }
+
+    /**
+     * Takes in an update from {@code nodeId} for {@code day} received at {@code nowMs}, with its
+     * transaction count and the cents its sales added that day, either -1 if the update doesn't
+     * have it.
+     *
+     * @return whether any statistic changed
+     */
+    public boolean onUpdate(String nodeId, int day, int count, long incrementsCents, long nowMs) {
+        if (day < mDay) {
+            return false;
+        }
+        if (day > mDay) {
+            mDay = day;
+            mTickets.clear();
+            mVersion++;
+        }
+        Baseline baseline = mBaselines.get(nodeId);
+        if (baseline == null) {
+            baseline = new Baseline();
+            mBaselines.put(nodeId, baseline);
+        }
+        if (baseline.mDay != day) {
+            baseline.mDay = day;
+            baseline.mCount = -1;
+            baseline.mIncrementsCents = -1;
+        }
+        int newCount = count >= 0 ? count : baseline.mCount;
+        long newIncrementsCents = incrementsCents >= 0 ? incrementsCents
+                : baseline.mIncrementsCents;
+        if (newCount < baseline.mCount || newIncrementsCents < baseline.mIncrementsCents) {
+            // An update older than the baseline; its sales were already taken in.
+            return false;
+        }
+        boolean changed = false;
+        if (baseline.mCount >= 0 && baseline.mIncrementsCents >= 0
+                && newCount > baseline.mCount && newIncrementsCents > baseline.mIncrementsCents) {
+            int sales = newCount - baseline.mCount;
+            mTickets.add((newIncrementsCents - baseline.mIncrementsCents) / sales, sales);
+            mRate.add(sales, nowMs);
+            mVersion++;
+            changed = true;
+        }
+        baseline.mCount = newCount;
+        baseline.mIncrementsCents = newIncrementsCents;
+        return changed;
+    }
+
+    /** Returns the transactions per hour as of {@code nowMs}, decayed since the last sale. */
+    public double getTransactionsPerHour(long nowMs) {
+        return mRate.getRatePerHour(nowMs);
+    }
+
+    /** Returns whether any sale was seen today. */
+    public boolean hasTickets() {
+        return mTickets.getCount() > 0;
+    }
+
+    public long getAverageTicketCents() {
+        return mTickets.getMean();
+    }
+
+    /** Returns the ticket size in cents below which {@code quantile} of today's sales fall. */
+    public long getTicketQuantileCents(double quantile) {
+        return mTickets.getQuantile(quantile);
+    }
+
+    /** Returns a number that changes whenever a sale is taken in. */
+    public int getVersion() {
+        return mVersion;
+    }
+}
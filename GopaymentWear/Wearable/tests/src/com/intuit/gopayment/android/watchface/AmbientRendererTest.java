@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intuit.gopayment.android.watchface;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.test.AndroidTestCase;
+
+import com.example.android.wearable.watchface.R;
+
+/**
+ * Draws ambient frames the way {@link DigitalWatchFaceService} lays them out, on round and square
+ * faces, and checks that each stays within {@link LitPixelAnalyzer#DEFAULT_BUDGET}.
+ */
+public class AmbientRendererTest extends AndroidTestCase {
+    /** About the size of a watch face, in dp. */
+    private static final int FACE_SIZE_DP = 210;
+
+    // Wide strings, to light as many pixels as a real frame could.
+    private static final String TIME_STRING = "10:58";
+    private static final String TOTAL_STRING = "$88,888.88";
+
+    private final LitPixelAnalyzer mAnalyzer = new LitPixelAnalyzer();
+
+    public void testRoundFrameWithoutGoal() {
+        checkFrames(true, false, 0);
+    }
+
+    public void testRoundFrameWithGoal() {
+        checkFrames(true, true, 0.6f);
+    }
+
+    public void testRoundFrameWithGoalMet() {
+        checkFrames(true, true, 1);
+    }
+
+    public void testSquareFrameWithoutGoal() {
+        checkFrames(false, false, 0);
+    }
+
+    public void testSquareFrameWithGoal() {
+        checkFrames(false, true, 0.6f);
+    }
+
+    public void testSquareFrameWithGoalMet() {
+        checkFrames(false, true, 1);
+    }
+
+    /**
+     * Draws a frame of a round face if {@code round}, with and without anti-aliasing, and checks
+     * that each lights some of the face but no more than the budget allows.
+     */
+    private void checkFrames(boolean round, boolean hasGoal, float progress) {
+        Resources resources = getContext().getResources();
+        float timeTextSize = resources.getDimension(round
+                ? R.dimen.digital_text_size_round : R.dimen.digital_text_size);
+        float totalTextSize = resources.getDimension(round
+                ? R.dimen.total_text_size_round : R.dimen.total_text_size);
+        float dateTextSize = resources.getDimension(round
+                ? R.dimen.date_text_size_round : R.dimen.date_text_size);
+        AmbientRenderer renderer = new AmbientRenderer(
+                resources.getDimension(R.dimen.digital_ambient_stroke_width),
+                DigitalWatchFaceUtil.COLOR_VALUE_DEFAULT_AND_AMBIENT_GOAL_WAVE,
+                DigitalWatchFaceUtil.COLOR_VALUE_DEFAULT_AND_AMBIENT_GOAL_MET_WAVE);
+        renderer.setTextSizes(timeTextSize, totalTextSize);
+
+        int size = Math.round(FACE_SIZE_DP * resources.getDisplayMetrics().density);
+        Rect bounds = new Rect(0, 0, size, size);
+        // As in DigitalWatchFaceService#updateLayout.
+        float y = bounds.centerY();
+        float timeY = y + (timeTextSize / 3);
+        float totalY = y - ((timeTextSize / 3) + dateTextSize);
+        for (boolean lowBitAmbient : new boolean[] {false, true}) {
+            renderer.setLowBitAmbient(lowBitAmbient);
+            Bitmap frame = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+            renderer.draw(new Canvas(frame), bounds, size, TIME_STRING, timeY, TOTAL_STRING,
+                    totalY, hasGoal, progress);
+            float ratio = mAnalyzer.checkBudget(frame, round);
+            frame.recycle();
+            assertTrue("Frame lights nothing", ratio > 0);
+        }
+    }
+}
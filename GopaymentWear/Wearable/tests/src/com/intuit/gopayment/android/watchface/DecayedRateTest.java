@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intuit.gopayment.android.watchface;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class DecayedRateTest extends TestCase {
+    private static final long HALF_LIFE_MS = TimeUnit.MINUTES.toMillis(15);
+    private static final long MINUTE_MS = TimeUnit.MINUTES.toMillis(1);
+    private static final long HOUR_MS = TimeUnit.HOURS.toMillis(1);
+
+    public void testNoEventsIsZero() {
+        DecayedRate rate = new DecayedRate(HALF_LIFE_MS, 0);
+        assertEquals(0.0, rate.getRatePerHour(HOUR_MS));
+    }
+
+    public void testYoungCounterCountsTimeBeforeFirstEvent() {
+        // One sale a second ago, after an hour without any: a few an hour, not 3600.
+        DecayedRate rate = new DecayedRate(HALF_LIFE_MS, 0);
+        rate.add(1, HOUR_MS - 1000);
+        double perHour = rate.getRatePerHour(HOUR_MS);
+        assertTrue("rate " + perHour, perHour > 1 && perHour < 5);
+    }
+
+    public void testSteadyRate() {
+        DecayedRate rate = new DecayedRate(HALF_LIFE_MS, 0);
+        for (long timeMs = MINUTE_MS; timeMs <= 2 * HOUR_MS; timeMs += MINUTE_MS) {
+            rate.add(1, timeMs);
+        }
+        assertEquals(60.0, rate.getRatePerHour(2 * HOUR_MS), 3.0);
+    }
+
+    public void testRateDecaysWithoutEvents() {
+        DecayedRate rate = new DecayedRate(HALF_LIFE_MS, 0);
+        for (long timeMs = MINUTE_MS; timeMs <= 2 * HOUR_MS; timeMs += MINUTE_MS) {
+            rate.add(1, timeMs);
+        }
+        double before = rate.getRatePerHour(2 * HOUR_MS);
+        assertEquals(before / 2, rate.getRatePerHour(2 * HOUR_MS + HALF_LIFE_MS), 1.0);
+    }
+}
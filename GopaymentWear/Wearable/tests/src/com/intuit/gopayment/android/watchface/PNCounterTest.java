@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intuit.gopayment.android.watchface;
+
+import junit.framework.TestCase;
+
+public class PNCounterTest extends TestCase {
+    private static final int DAY = 20261016;
+
+    public void testMergeIsCommutative() {
+        PNCounter a = counter(DAY, "a", 1000, 0);
+        a.merge("b", DAY, 300, 50);
+        PNCounter b = counter(DAY, "b", 700, 100);
+        b.merge("c", DAY, 40, 0);
+
+        PNCounter ab = copy(a);
+        ab.merge(b);
+        PNCounter ba = copy(b);
+        ba.merge(a);
+
+        assertEquals(ab, ba);
+        assertEquals(1000 + 700 + 40 - 100, ab.getValueCents());
+        assertEquals(3, ab.getRegisterCount());
+    }
+
+    public void testMergeIsAssociative() {
+        PNCounter a = counter(DAY, "a", 1000, 0);
+        PNCounter b = counter(DAY, "a", 900, 200);
+        PNCounter c = counter(DAY, "c", 40, 0);
+
+        PNCounter abThenC = copy(a);
+        abThenC.merge(b);
+        abThenC.merge(c);
+        PNCounter bc = copy(b);
+        bc.merge(c);
+        PNCounter aThenBc = copy(a);
+        aThenBc.merge(bc);
+
+        assertEquals(abThenC, aThenBc);
+        assertEquals(1000 - 200 + 40, abThenC.getValueCents());
+    }
+
+    public void testMergeIsIdempotent() {
+        PNCounter a = counter(DAY, "a", 1000, 0);
+        PNCounter b = counter(DAY, "b", 700, 100);
+
+        assertTrue(a.merge(b));
+        PNCounter once = copy(a);
+        assertFalse(a.merge(b));
+        assertFalse(a.merge(a));
+        assertFalse(a.merge("b", DAY, 700, 100));
+        assertEquals(once, a);
+    }
+
+    public void testMergeKeepsEachSlotsMaximum() {
+        PNCounter counter = counter(DAY, "a", 2500, 300);
+
+        // An older state of the slot, e.g. a late checkpoint, changes nothing.
+        assertFalse(counter.merge("a", DAY, 1000, 0));
+        // Only one of the two grew; the other keeps its maximum.
+        assertTrue(counter.merge("a", DAY, 2400, 500));
+        assertEquals(2500 - 500, counter.getValueCents());
+    }
+
+    public void testLaterDayReplacesCounter() {
+        PNCounter counter = counter(DAY, "a", 2500, 300);
+        counter.merge("b", DAY, 700, 0);
+
+        assertTrue(counter.merge("c", DAY + 1, 400, 0));
+        assertEquals(DAY + 1, counter.getDay());
+        assertEquals(1, counter.getRegisterCount());
+        assertEquals(400, counter.getValueCents());
+    }
+
+    public void testEarlierDayIsIgnored() {
+        PNCounter counter = counter(DAY + 1, "c", 400, 0);
+
+        assertFalse(counter.merge("a", DAY, 2500, 300));
+        assertFalse(counter.merge(counter(DAY, "b", 700, 0)));
+        assertEquals(DAY + 1, counter.getDay());
+        assertEquals(400, counter.getValueCents());
+    }
+
+    public void testMergeAcrossDaysConvergesInBothOrders() {
+        PNCounter yesterday = counter(DAY, "a", 2500, 300);
+        PNCounter today = counter(DAY + 1, "b", 400, 0);
+
+        PNCounter yesterdayThenToday = copy(yesterday);
+        yesterdayThenToday.merge(today);
+        PNCounter todayThenYesterday = copy(today);
+        todayThenYesterday.merge(yesterday);
+
+        assertEquals(yesterdayThenToday, todayThenYesterday);
+        assertEquals(DAY + 1, yesterdayThenToday.getDay());
+        assertEquals(400, yesterdayThenToday.getValueCents());
+    }
+
+    private static PNCounter counter(int day, String registerId, long incrementsCents,
+            long decrementsCents) {
+        PNCounter counter = new PNCounter();
+        counter.merge(registerId, day, incrementsCents, decrementsCents);
+        return counter;
+    }
+
+    private static PNCounter copy(PNCounter counter) {
+        PNCounter copy = new PNCounter();
+        copy.merge(counter);
+        return copy;
+    }
+}
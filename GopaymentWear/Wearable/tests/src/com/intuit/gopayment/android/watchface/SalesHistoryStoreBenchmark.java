@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intuit.gopayment.android.watchface;
+
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link SalesHistoryStore} against a plain {@code long[]} of times and values, 16 bytes
+ * a point: bytes per point, and how many points a second a full range scan decodes. Two weeks of
+ * per-minute sales are appended the way {@link SalesHistoryArchiver} does, for a store that's
+ * quiet outside opening hours and one that sells every minute. Checks that every point scans
+ * back unchanged. Results are logged under {@link #TAG}.
+ */
+public class SalesHistoryStoreBenchmark extends TestCase {
+    private static final String TAG = "SalesHistoryBenchmark";
+
+    private static final int DAYS = 14;
+    private static final int POINTS = DAYS * MinuteSalesRing.MINUTES_PER_DAY;
+    private static final long START_MS = 1760000000000L;
+    private static final long MINUTE_MS = TimeUnit.MINUTES.toMillis(1);
+    private static final int BASELINE_BYTES_PER_POINT = 8 + 8;
+    private static final int SCAN_REPEATS = 20;
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = File.createTempFile("sales_history", null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    /** Sales from 9:00 to 21:00 only, in about a third of those minutes. */
+    public void testOpeningHoursStore() throws IOException {
+        Random random = new Random(42);
+        long[] values = new long[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            int hour = i % MinuteSalesRing.MINUTES_PER_DAY / 60;
+            if (hour >= 9 && hour < 21 && random.nextInt(3) == 0) {
+                values[i] = 1 + random.nextInt(200);
+            }
+        }
+        run("opening hours", values);
+    }
+
+    /** Sales every minute of the day. */
+    public void testBusyStore() throws IOException {
+        Random random = new Random(42);
+        long[] values = new long[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            values[i] = 1 + random.nextInt(2000);
+        }
+        run("busy", values);
+    }
+
+    /** Appends a point a minute with {@code values}, then scans them back and logs the results. */
+    private void run(String name, long[] values) throws IOException {
+        long[] timesMs = new long[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            timesMs[i] = START_MS + i * MINUTE_MS;
+        }
+
+        SalesHistoryStore store = new SalesHistoryStore(mFile,
+                SalesHistoryStore.DEFAULT_BLOCK_COUNT);
+        long startNs = System.nanoTime();
+        for (int i = 0; i < POINTS; i++) {
+            store.append(timesMs[i], values[i]);
+        }
+        store.flush();
+        long appendNs = System.nanoTime() - startNs;
+        // A full ring would have overwritten the oldest points.
+        assertEquals(name + " points", POINTS, store.getPointCount());
+        double bytesPerPoint = (double) store.getUsedBytes() / POINTS;
+
+        long checksum = 0;
+        startNs = System.nanoTime();
+        for (int r = 0; r < SCAN_REPEATS; r++) {
+            int i = 0;
+            SalesHistoryStore.Cursor cursor = store.scan(timesMs[0], timesMs[POINTS - 1]);
+            while (cursor.next()) {
+                if (r == 0) {
+                    assertEquals(name + " time " + i, timesMs[i], cursor.getTimeMs());
+                    assertEquals(name + " value " + i, values[i], cursor.getValue());
+                }
+                checksum += cursor.getValue();
+                i++;
+            }
+            assertEquals(name + " points scanned", POINTS, i);
+        }
+        long scanNs = System.nanoTime() - startNs;
+        store.close();
+
+        long baselineChecksum = 0;
+        startNs = System.nanoTime();
+        for (int r = 0; r < SCAN_REPEATS; r++) {
+            for (int i = 0; i < POINTS; i++) {
+                if (timesMs[i] >= timesMs[0] && timesMs[i] <= timesMs[POINTS - 1]) {
+                    baselineChecksum += values[i];
+                }
+            }
+        }
+        long baselineNs = System.nanoTime() - startNs;
+        assertEquals(name + " checksum", baselineChecksum, checksum);
+
+        double points = (double) POINTS * SCAN_REPEATS;
+        Log.i(TAG, String.format("%s: %d points, %.2f bytes/point (long[]: %d, %.1fx smaller),"
+                + " append %.0f points/s, decode %.0f points/s (long[]: %.0f points/s)", name,
+                POINTS, bytesPerPoint, BASELINE_BYTES_PER_POINT,
+                BASELINE_BYTES_PER_POINT / bytesPerPoint, POINTS / (appendNs / 1e9),
+                points / (scanNs / 1e9), points / (baselineNs / 1e9)));
+        assertTrue(name + " takes " + bytesPerPoint + " bytes/point",
+                bytesPerPoint < BASELINE_BYTES_PER_POINT);
+    }
+}